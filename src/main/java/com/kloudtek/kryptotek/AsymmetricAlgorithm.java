@@ -4,6 +4,7 @@
 
 package com.kloudtek.kryptotek;
 
+import com.kloudtek.kryptotek.key.ECKeyPair;
 import com.kloudtek.kryptotek.key.KeyPair;
 import com.kloudtek.kryptotek.key.RSAKey;
 import com.kloudtek.kryptotek.key.RSAKeyPair;
@@ -13,7 +14,7 @@ import com.kloudtek.kryptotek.key.RSAKeyPair;
  * Created by yannick on 09/11/13.
  */
 public enum AsymmetricAlgorithm {
-    RSA(RSAKeyPair.class, "RSA", "RSA/ECB/PKCS1PADDING");
+    RSA(RSAKeyPair.class, "RSA", "RSA/ECB/PKCS1PADDING"), EC(ECKeyPair.class, "EC", CryptoEngine.ECIES);
     private final String jceId;
     private final String cryptAlg;
     private final Class<? extends KeyPair> keyPairClass;
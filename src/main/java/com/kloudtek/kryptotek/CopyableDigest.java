@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek;
+
+/**
+ * Digest which can be copied, so that a common prefix only needs to be processed once (ie. to compute the digests of
+ * several messages sharing the same header). The digests created by {@link CryptoEngine#digest(DigestAlgorithm)}
+ * generally implement this interface.
+ */
+public interface CopyableDigest extends Digest {
+    /**
+     * Create an independent copy of this digest, including the data processed so far.
+     *
+     * @return Digest copy
+     * @throws UnsupportedOperationException If the underlying implementation can't be copied
+     */
+    CopyableDigest copy();
+}
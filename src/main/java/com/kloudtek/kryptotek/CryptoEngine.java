@@ -8,18 +8,38 @@ import com.kloudtek.kryptotek.key.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.InvalidKeyException;
 import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Interface for cryptography providers
  */
 public abstract class CryptoEngine {
     public static final String AES_CBC_PKCS_5_PADDING = "AES/CBC/PKCS5Padding";
+    public static final String AES_GCM_NO_PADDING = "AES/GCM/NoPadding";
+    public static final String AES_CTR_NO_PADDING = "AES/CTR/NoPadding";
+    public static final String CHACHA20_POLY1305 = "ChaCha20-Poly1305";
+    /**
+     * Hybrid encryption using an ephemeral ECDH key agreement, the ANSI X9.63 SHA-256 KDF and AES-256/GCM.
+     */
+    public static final String ECIES = "ECIES";
     public static final String RSA_ECB_OAEPPADDING = "RSA/ECB/OAEPWithSHA1AndMGF1Padding";
     public static final String RSA_ECB_PKCS1_PADDING = "RSA/ECB/PKCS1Padding";
     public static final String PBKDF_2_WITH_HMAC_SHA_256 = "PBKDF2WithHmacSHA256";
+    private static final int BATCH_VERIFICATION_SEGMENT_SIZE = 16;
     protected boolean defaultCompatibilityMode;
+    private volatile SymmetricAlgorithm preferredSymmetricAlgorithm;
+    private volatile boolean hkdfKeyAgreementDerivation;
 
     public CryptoEngine(boolean defaultCompatibilityMode) {
         this.defaultCompatibilityMode = defaultCompatibilityMode;
@@ -43,21 +63,206 @@ public abstract class CryptoEngine {
     @NotNull
     public abstract AESKey generateAESKey(AESKeyLen keySize);
 
+    /**
+     * Generate an AES key from a key agreement. With finite field Diffie-Hellman keys, the key is derived the same way
+     * as in previous versions (PBKDF2-SHA1 with 10 iterations on the base64 encoded secret) so that it still matches
+     * the one of peers which haven't been upgraded, unless HKDF derivation is enabled (see
+     * {@link #setHkdfKeyAgreementDerivation(boolean)}). X25519 keys always use HKDF, as with
+     * {@link #generateAESKey(AESKeyLen, DHPrivateKey, DHPublicKey, byte[])} without context label.
+     *
+     * @param keySize      AES key size
+     * @param dhPrivateKey Our private key
+     * @param dhPublicKey  Peer's public key
+     * @return AES key
+     * @throws InvalidKeyException If the keys are invalid or don't match
+     */
     @NotNull
     public abstract AESKey generateAESKey(AESKeyLen keySize, DHPrivateKey dhPrivateKey, DHPublicKey dhPublicKey) throws InvalidKeyException;
 
+    /**
+     * Generate an AES key from a key agreement, turning the agreed secret into the key using HKDF-SHA256.
+     *
+     * @param keySize      AES key size
+     * @param dhPrivateKey Our private key
+     * @param dhPublicKey  Peer's public key
+     * @param info         HKDF context label (both peers must use the same one), or null to use "AES-" followed by the
+     *                     key size in bits
+     * @return AES key
+     * @throws InvalidKeyException If the keys are invalid or don't match
+     */
+    @NotNull
+    public abstract AESKey generateAESKey(AESKeyLen keySize, DHPrivateKey dhPrivateKey, DHPublicKey dhPublicKey, @Nullable byte[] info) throws InvalidKeyException;
+
+    /**
+     * Generate a 256 bit ChaCha20 key (to be used with {@link #CHACHA20_POLY1305}).
+     *
+     * @return ChaCha20 key
+     * @throws IllegalArgumentException If the crypto engine doesn't support ChaCha20
+     */
+    @NotNull
+    public abstract ChaCha20Key generateChaCha20Key();
+
+    /**
+     * Get the symmetric algorithm best suited for this host: {@link SymmetricAlgorithm#AES_GCM} when AES is hardware
+     * accelerated (or when ChaCha20 isn't supported), and {@link SymmetricAlgorithm#CHACHA20_POLY1305} otherwise.
+     * This can be overridden using {@link #setPreferredSymmetricAlgorithm(SymmetricAlgorithm)}.
+     *
+     * @return Preferred symmetric algorithm
+     */
+    @NotNull
+    public SymmetricAlgorithm getPreferredSymmetricAlgorithm() {
+        SymmetricAlgorithm algorithm = preferredSymmetricAlgorithm;
+        if (algorithm == null) {
+            algorithm = isAESHardwareAccelerated() || !isSupported(SymmetricAlgorithm.CHACHA20_POLY1305) ?
+                    SymmetricAlgorithm.AES_GCM : SymmetricAlgorithm.CHACHA20_POLY1305;
+            preferredSymmetricAlgorithm = algorithm;
+        }
+        return algorithm;
+    }
+
+    /**
+     * Override the preferred symmetric algorithm.
+     *
+     * @param preferredSymmetricAlgorithm Symmetric algorithm, or null to detect it automatically
+     */
+    public void setPreferredSymmetricAlgorithm(@Nullable SymmetricAlgorithm preferredSymmetricAlgorithm) {
+        this.preferredSymmetricAlgorithm = preferredSymmetricAlgorithm;
+    }
+
+    /**
+     * Check if AES is hardware accelerated on this host.
+     *
+     * @return True if AES is known to be accelerated, false if it isn't or it can't be determined
+     */
+    public abstract boolean isAESHardwareAccelerated();
+
+    /**
+     * Check if a symmetric algorithm is supported by this crypto engine.
+     *
+     * @param symmetricAlgorithm Symmetric algorithm
+     * @return True if supported
+     */
+    public abstract boolean isSupported(@NotNull SymmetricAlgorithm symmetricAlgorithm);
+
     @NotNull
     public abstract AESKey generatePBEAESKey(DigestAlgorithm pbkdf2DigestAlgorithm, char[] password, int iterations, byte[] salt, AESKeyLen keyLen);
 
     @NotNull
     public abstract HMACKey generatePBEHMACKey(DigestAlgorithm pbkdf2DigestAlgorithm, DigestAlgorithm hmacDigestAlgorithm, char[] password, int iterations, byte[] salt);
 
+    /**
+     * Derive several keys from a password using a single PBKDF2 run: the combined key length is derived once (which
+     * an engine may parallelize across PBKDF2 blocks) and split in the order of the key specifications.
+     * Note that unlike {@link #generatePBEHMACKey(DigestAlgorithm, DigestAlgorithm, char[], int, byte[])}, HMAC key
+     * lengths are in bytes.
+     *
+     * @param pbkdf2DigestAlgorithm PBKDF2 digest algorithm
+     * @param password              Password
+     * @param iterations            Iteration count
+     * @param salt                  Salt
+     * @param keys                  Specifications of the keys to derive
+     * @return Derived keys, in the same order as their specifications
+     */
+    @NotNull
+    public SymmetricKey[] generatePBEKeys(DigestAlgorithm pbkdf2DigestAlgorithm, char[] password, int iterations, byte[] salt, DerivedKeySpec... keys) {
+        int totalLen = 0;
+        for (DerivedKeySpec key : keys) {
+            totalLen += key.getLenBytes();
+        }
+        byte[] keyData = pbkdf2(pbkdf2DigestAlgorithm, password, iterations, salt, totalLen * 8);
+        try {
+            SymmetricKey[] result = new SymmetricKey[keys.length];
+            for (int i = 0, offset = 0; i < keys.length; i++) {
+                int len = keys[i].getLenBytes();
+                result[i] = readDerivedKey(keys[i], Arrays.copyOfRange(keyData, offset, offset + len));
+                offset += len;
+            }
+            return result;
+        } finally {
+            Arrays.fill(keyData, (byte) 0);
+        }
+    }
+
+    @NotNull
+    public AESKey generateArgon2AESKey(char[] password, int iterations, int memoryKiB, int parallelism, byte[] salt, AESKeyLen keyLen) {
+        return (AESKey) readDerivedKey(DerivedKeySpec.aes(keyLen), argon2id(password, iterations, memoryKiB, parallelism, salt, keyLen.getLenBits() / 8));
+    }
+
+    @NotNull
+    public HMACKey generateArgon2HMACKey(DigestAlgorithm hmacDigestAlgorithm, char[] password, int iterations, int memoryKiB, int parallelism, byte[] salt) {
+        DerivedKeySpec keySpec = DerivedKeySpec.hmac(hmacDigestAlgorithm);
+        return (HMACKey) readDerivedKey(keySpec, argon2id(password, iterations, memoryKiB, parallelism, salt, keySpec.getLenBytes()));
+    }
+
+    @NotNull
+    public AESKey generateScryptAESKey(char[] password, int n, int r, int p, byte[] salt, AESKeyLen keyLen) {
+        return (AESKey) readDerivedKey(DerivedKeySpec.aes(keyLen), scrypt(password, n, r, p, salt, keyLen.getLenBits() / 8));
+    }
+
+    @NotNull
+    public HMACKey generateScryptHMACKey(DigestAlgorithm hmacDigestAlgorithm, char[] password, int n, int r, int p, byte[] salt) {
+        DerivedKeySpec keySpec = DerivedKeySpec.hmac(hmacDigestAlgorithm);
+        return (HMACKey) readDerivedKey(keySpec, scrypt(password, n, r, p, salt, keySpec.getLenBytes()));
+    }
+
+    private SymmetricKey readDerivedKey(DerivedKeySpec keySpec, byte[] keyData) {
+        try {
+            return readKey(keySpec.getKeyClass(), keyData);
+        } catch (InvalidKeyException e) {
+            throw new IllegalArgumentException(e);
+        } finally {
+            Arrays.fill(keyData, (byte) 0);
+        }
+    }
+
     @NotNull
     public abstract HMACKey generateHMACKey(DigestAlgorithm digestAlgorithm);
 
+    /**
+     * Generate an HMAC key from a key agreement. With finite field Diffie-Hellman keys, the agreed secret is used as is
+     * like in previous versions, so that the key still matches the one of peers which haven't been upgraded, unless
+     * HKDF derivation is enabled (see {@link #setHkdfKeyAgreementDerivation(boolean)}). X25519 keys always use HKDF, as
+     * with {@link #generateHMACKey(DigestAlgorithm, DHPrivateKey, DHPublicKey, byte[])} without context label.
+     *
+     * @param digestAlgorithm HMAC digest algorithm
+     * @param dhPrivateKey    Our private key
+     * @param dhPublicKey     Peer's public key
+     * @return HMAC key
+     * @throws InvalidKeyException If the keys are invalid or don't match
+     */
     @NotNull
     public abstract HMACKey generateHMACKey(DigestAlgorithm digestAlgorithm, DHPrivateKey dhPrivateKey, DHPublicKey dhPublicKey) throws InvalidKeyException;
 
+    /**
+     * Generate an HMAC key from a key agreement, turning the agreed secret into the key using HKDF-SHA256.
+     *
+     * @param digestAlgorithm HMAC digest algorithm
+     * @param dhPrivateKey    Our private key
+     * @param dhPublicKey     Peer's public key
+     * @param info            HKDF context label (both peers must use the same one), or null to use "Hmac" followed by
+     *                        the digest algorithm name
+     * @return HMAC key
+     * @throws InvalidKeyException If the keys are invalid or don't match
+     */
+    @NotNull
+    public abstract HMACKey generateHMACKey(DigestAlgorithm digestAlgorithm, DHPrivateKey dhPrivateKey, DHPublicKey dhPublicKey, @Nullable byte[] info) throws InvalidKeyException;
+
+    public boolean isHkdfKeyAgreementDerivation() {
+        return hkdfKeyAgreementDerivation;
+    }
+
+    /**
+     * Set whether {@link #generateAESKey(AESKeyLen, DHPrivateKey, DHPublicKey)} and
+     * {@link #generateHMACKey(DigestAlgorithm, DHPrivateKey, DHPublicKey)} should derive keys from finite field
+     * Diffie-Hellman agreements using HKDF-SHA256 rather than the legacy derivation. This is disabled by default since
+     * the keys would no longer match the ones of peers using a version prior to HKDF support.
+     *
+     * @param hkdfKeyAgreementDerivation True to use HKDF
+     */
+    public void setHkdfKeyAgreementDerivation(boolean hkdfKeyAgreementDerivation) {
+        this.hkdfKeyAgreementDerivation = hkdfKeyAgreementDerivation;
+    }
+
     @NotNull
     public abstract Certificate generateCertificate(String subject, PublicKey publicKey);
 
@@ -72,6 +277,35 @@ public abstract class CryptoEngine {
     @NotNull
     public abstract DHKeyPair generateDHKeyPair(DHParameters parameterSpec);
 
+    /**
+     * Generate an X25519 key pair. Its keys can be used for key agreement instead of finite field Diffie-Hellman keys
+     * (see {@link #generateAESKey(AESKeyLen, DHPrivateKey, DHPublicKey)} and
+     * {@link #generateHMACKey(DigestAlgorithm, DHPrivateKey, DHPublicKey)}), and don't require generating parameters.
+     *
+     * @return X25519 key pair
+     * @throws IllegalArgumentException If the crypto engine doesn't support X25519
+     */
+    @NotNull
+    public abstract X25519KeyPair generateX25519KeyPair();
+
+    /**
+     * Generate an EC key pair, to be used for ECDSA signatures and {@link #ECIES} encryption.
+     *
+     * @param curve Elliptic curve
+     * @return EC key pair
+     */
+    @NotNull
+    public abstract ECKeyPair generateECKeyPair(ECCurve curve);
+
+    /**
+     * Generate an Ed25519 key pair. Ed25519 signatures ignore the digest algorithm passed to sign/verify methods.
+     *
+     * @return Ed25519 key pair
+     * @throws IllegalArgumentException If the crypto engine doesn't support Ed25519
+     */
+    @NotNull
+    public abstract Ed25519KeyPair generateEd25519KeyPair();
+
     @Nullable
     protected <K extends Key> K generateNonStandardKey(@NotNull Class<K> keyType, int keySize) {
         return null;
@@ -89,6 +323,14 @@ public abstract class CryptoEngine {
             return keyType.cast(generateHMACKey(DigestAlgorithm.SHA512));
         } else if (RSAKeyPair.class.isAssignableFrom(keyType)) {
             return keyType.cast(generateRSAKeyPair(keySize));
+        } else if (ChaCha20Key.class.isAssignableFrom(keyType)) {
+            return keyType.cast(generateChaCha20Key());
+        } else if (ECKeyPair.class.isAssignableFrom(keyType)) {
+            return keyType.cast(generateECKeyPair(ECCurve.getByBitLen(keySize)));
+        } else if (X25519KeyPair.class.isAssignableFrom(keyType)) {
+            return keyType.cast(generateX25519KeyPair());
+        } else if (Ed25519KeyPair.class.isAssignableFrom(keyType)) {
+            return keyType.cast(generateEd25519KeyPair());
         } else {
             K key = generateNonStandardKey(keyType, keySize);
             if (key == null) {
@@ -237,19 +479,267 @@ public abstract class CryptoEngine {
     public abstract byte[] encrypt(@NotNull EncryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm,
                                    int symmetricKeySize, @NotNull byte[] data, boolean compatibilityMode) throws EncryptionException;
 
+    public byte[] encrypt(@NotNull EncryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm,
+                          @NotNull String symmetricAlgorithmCipher, int symmetricKeySize, @NotNull byte[] data, @NotNull String cipherAlgorithm) throws EncryptionException {
+        return encrypt(key, symmetricAlgorithm, symmetricAlgorithmCipher, symmetricKeySize, data, cipherAlgorithm, EnvelopeMode.AUTO);
+    }
+
+    /**
+     * Encrypt data using either the specified key directly, or using a randomly generated symmetric key which is
+     * itself encrypted with the specified key. The resulting data starts with a short containing the length of the
+     * encrypted symmetric key (0 if the data was directly encrypted), followed by the encrypted symmetric key and the
+     * encrypted data.
+     *
+     * @param key                      Cryptographic key
+     * @param symmetricAlgorithm       Symmetric algorithm
+     * @param symmetricAlgorithmCipher Symmetric cipher algorithm
+     * @param symmetricKeySize         Symmetric key size
+     * @param data                     Data to encrypt
+     * @param cipherAlgorithm          Cipher algorithm used with the specified key
+     * @param mode                     Envelope mode, {@link EnvelopeMode#AUTO} to pick one using {@link #planEnvelope(EncryptionKey, int, String)}
+     * @return Encrypted data
+     * @throws EncryptionException If an error occurred encrypting the data (including if {@link EnvelopeMode#DIRECT}
+     *                             was forced and the data is too large for the key)
+     */
     public abstract byte[] encrypt(@NotNull EncryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm,
-                                   @NotNull String symmetricAlgorithmCipher, int symmetricKeySize, @NotNull byte[] data, @NotNull String cipherAlgorithm) throws EncryptionException;
+                                   @NotNull String symmetricAlgorithmCipher, int symmetricKeySize, @NotNull byte[] data,
+                                   @NotNull String cipherAlgorithm, @NotNull EnvelopeMode mode) throws EncryptionException;
+
+    /**
+     * Get the maximum amount of data that can be directly encrypted by a key in one operation (ie. for RSA the modulus
+     * size minus the padding overhead).
+     *
+     * @param key             Cryptographic key
+     * @param cipherAlgorithm Cipher algorithm
+     * @return Maximum data length, or -1 if there is no limit
+     * @throws InvalidKeyException If the key is invalid
+     */
+    public abstract int getMaxDirectEncryptionLength(@NotNull EncryptionKey key, @NotNull String cipherAlgorithm) throws InvalidKeyException;
+
+    /**
+     * Decide whether hybrid encryption of a payload will be done directly using the key or using a wrapped symmetric
+     * key. This is based purely on the key and payload sizes, no cryptographic operation is performed.
+     *
+     * @param key             Cryptographic key
+     * @param dataLength      Length of the data to encrypt
+     * @param cipherAlgorithm Cipher algorithm
+     * @return {@link EnvelopeMode#DIRECT} or {@link EnvelopeMode#WRAPPED_KEY}
+     * @throws InvalidKeyException If the key is invalid
+     */
+    public EnvelopeMode planEnvelope(@NotNull EncryptionKey key, int dataLength, @NotNull String cipherAlgorithm) throws InvalidKeyException {
+        int max = getMaxDirectEncryptionLength(key, cipherAlgorithm);
+        return max < 0 || dataLength <= max ? EnvelopeMode.DIRECT : EnvelopeMode.WRAPPED_KEY;
+    }
+
+    public EnvelopeMode planEnvelope(@NotNull EncryptionKey key, int dataLength) throws InvalidKeyException {
+        return planEnvelope(key, dataLength, getDefaultCipherAlgorithm(key, defaultCompatibilityMode));
+    }
 
     public abstract byte[] decrypt(@NotNull DecryptionKey key, @NotNull byte[] data, boolean compatibilityMode) throws DecryptionException;
 
     public abstract byte[] decrypt(@NotNull DecryptionKey key, @NotNull byte[] data, String cipherAlgorithm) throws DecryptionException;
 
+    /**
+     * Encrypt data using an authenticated cipher algorithm (ie. {@link #AES_GCM_NO_PADDING}), with additional
+     * authenticated data. The AAD isn't included in the encrypted data, but the same AAD must be supplied when decrypting.
+     *
+     * @param key             Cryptographic key
+     * @param data            Data to encrypt
+     * @param aad             Additional authenticated data, or null if none
+     * @param cipherAlgorithm Cipher algorithm
+     * @return Encrypted data
+     * @throws EncryptionException If an error occurred encrypting the data
+     */
+    public abstract byte[] encrypt(@NotNull EncryptionKey key, @NotNull byte[] data, @Nullable byte[] aad, @NotNull String cipherAlgorithm) throws EncryptionException;
+
+    /**
+     * Decrypt data encrypted using {@link #encrypt(EncryptionKey, byte[], byte[], String)}.
+     *
+     * @param key             Cryptographic key
+     * @param data            Encrypted data
+     * @param aad             Additional authenticated data, or null if none
+     * @param cipherAlgorithm Cipher algorithm
+     * @return Decrypted data
+     * @throws DecryptionException If an error occurred decrypting the data (including if authentication failed)
+     */
+    public abstract byte[] decrypt(@NotNull DecryptionKey key, @NotNull byte[] data, @Nullable byte[] aad, @NotNull String cipherAlgorithm) throws DecryptionException;
+
     public abstract byte[] decrypt(@NotNull DecryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm,
                                    int symmetricKeySize, @NotNull byte[] data, boolean compatibilityMode) throws DecryptionException;
 
     public abstract byte[] decrypt(@NotNull DecryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm,
                                    @NotNull String symmetricAlgorithmCipher, int symmetricKeySize, @NotNull byte[] data, @NotNull String cipherAlgorithm) throws DecryptionException;
 
+    /**
+     * Get the cipher algorithm used by default when encrypting or decrypting with the specified key.
+     *
+     * @param key               Cryptographic key
+     * @param compatibilityMode Compatibility mode (see {@link #encrypt(EncryptionKey, byte[], boolean)})
+     * @return Cipher algorithm
+     */
+    public abstract String getDefaultCipherAlgorithm(@NotNull Key key, boolean compatibilityMode);
+
+    public int getEncryptedLength(@NotNull EncryptionKey key, int dataLength) throws InvalidKeyException {
+        return getEncryptedLength(key, dataLength, getDefaultCipherAlgorithm(key, defaultCompatibilityMode));
+    }
+
+    /**
+     * Calculate the size of the output of {@link #encrypt(EncryptionKey, byte[], int, int, byte[], int, String)},
+     * including any prefixed IV.
+     *
+     * @param key             Cryptographic key
+     * @param dataLength      Length of the data to encrypt
+     * @param cipherAlgorithm Cipher algorithm
+     * @return Maximum size of the encrypted data
+     * @throws InvalidKeyException If the key is invalid
+     */
+    public abstract int getEncryptedLength(@NotNull EncryptionKey key, int dataLength, @NotNull String cipherAlgorithm) throws InvalidKeyException;
+
+    public int getMaxDecryptedLength(@NotNull DecryptionKey key, int encryptedLength) throws InvalidKeyException {
+        return getMaxDecryptedLength(key, encryptedLength, getDefaultCipherAlgorithm(key, defaultCompatibilityMode));
+    }
+
+    /**
+     * Calculate the buffer size required by {@link #decrypt(DecryptionKey, byte[], int, int, byte[], int, String)}.
+     *
+     * @param key             Cryptographic key
+     * @param encryptedLength Length of the encrypted data (including IV)
+     * @param cipherAlgorithm Cipher algorithm
+     * @return Maximum size of the decrypted data
+     * @throws InvalidKeyException If the key is invalid
+     */
+    public abstract int getMaxDecryptedLength(@NotNull DecryptionKey key, int encryptedLength, @NotNull String cipherAlgorithm) throws InvalidKeyException;
+
+    public int encrypt(@NotNull EncryptionKey key, @NotNull byte[] in, int inOffset, int inLength, @NotNull byte[] out, int outOffset) throws EncryptionException {
+        return encrypt(key, in, inOffset, inLength, out, outOffset, getDefaultCipherAlgorithm(key, defaultCompatibilityMode));
+    }
+
+    /**
+     * Encrypt part of a byte array directly into a caller provided buffer. The output format is the same as
+     * {@link #encrypt(EncryptionKey, byte[], String)} (including IV prefix where applicable), and the output buffer
+     * must have at least {@link #getEncryptedLength(EncryptionKey, int, String)} bytes available.
+     *
+     * @param key             Cryptographic key
+     * @param in              Input buffer
+     * @param inOffset        Offset of the data to encrypt
+     * @param inLength        Length of the data to encrypt
+     * @param out             Output buffer
+     * @param outOffset       Offset at which the encrypted data will be written
+     * @param cipherAlgorithm Cipher algorithm
+     * @return Number of bytes written to the output buffer
+     * @throws EncryptionException If an error occurred encrypting the data (including if the output buffer is too small)
+     */
+    public abstract int encrypt(@NotNull EncryptionKey key, @NotNull byte[] in, int inOffset, int inLength, @NotNull byte[] out,
+                                int outOffset, @NotNull String cipherAlgorithm) throws EncryptionException;
+
+    public int decrypt(@NotNull DecryptionKey key, @NotNull byte[] in, int inOffset, int inLength, @NotNull byte[] out, int outOffset) throws DecryptionException {
+        return decrypt(key, in, inOffset, inLength, out, outOffset, getDefaultCipherAlgorithm(key, defaultCompatibilityMode));
+    }
+
+    /**
+     * Decrypt part of a byte array directly into a caller provided buffer, which must have at least
+     * {@link #getMaxDecryptedLength(DecryptionKey, int, String)} bytes available.
+     *
+     * @param key             Cryptographic key
+     * @param in              Input buffer
+     * @param inOffset        Offset of the encrypted data
+     * @param inLength        Length of the encrypted data
+     * @param out             Output buffer
+     * @param outOffset       Offset at which the decrypted data will be written
+     * @param cipherAlgorithm Cipher algorithm
+     * @return Number of bytes written to the output buffer
+     * @throws DecryptionException If an error occurred decrypting the data (including if the output buffer is too small)
+     */
+    public abstract int decrypt(@NotNull DecryptionKey key, @NotNull byte[] in, int inOffset, int inLength, @NotNull byte[] out,
+                                int outOffset, @NotNull String cipherAlgorithm) throws DecryptionException;
+
+    public int encrypt(@NotNull EncryptionKey key, @NotNull ByteBuffer in, @NotNull ByteBuffer out) throws EncryptionException {
+        return encrypt(key, in, out, getDefaultCipherAlgorithm(key, defaultCompatibilityMode));
+    }
+
+    /**
+     * Encrypt all remaining bytes of a buffer into another buffer, using the same format as
+     * {@link #encrypt(EncryptionKey, byte[], String)}. Both heap and direct buffers are supported, and data isn't
+     * copied into intermediate arrays. The input buffer's position will be advanced to its limit, and the output
+     * buffer's position will be advanced by the number of bytes written.
+     *
+     * @param key             Cryptographic key
+     * @param in              Data to encrypt
+     * @param out             Buffer the encrypted data will be written to (must have at least {@link #getEncryptedLength(EncryptionKey, int, String)} bytes remaining)
+     * @param cipherAlgorithm Cipher algorithm
+     * @return Number of bytes written
+     * @throws EncryptionException If an error occurred encrypting the data
+     */
+    public abstract int encrypt(@NotNull EncryptionKey key, @NotNull ByteBuffer in, @NotNull ByteBuffer out, @NotNull String cipherAlgorithm) throws EncryptionException;
+
+    public int encrypt(@NotNull EncryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm, int symmetricKeySize,
+                       @NotNull ByteBuffer in, @NotNull ByteBuffer out) throws EncryptionException {
+        return encrypt(key, symmetricAlgorithm, symmetricAlgorithm.getDefaultCipherAlg(defaultCompatibilityMode), symmetricKeySize,
+                in, out, getDefaultCipherAlgorithm(key, defaultCompatibilityMode));
+    }
+
+    /**
+     * Buffer based equivalent of {@link #encrypt(EncryptionKey, SymmetricAlgorithm, String, int, byte[], String)}.
+     *
+     * @param key                      Cryptographic key
+     * @param symmetricAlgorithm       Symmetric algorithm used if the data is too large for the key
+     * @param symmetricAlgorithmCipher Symmetric cipher algorithm
+     * @param symmetricKeySize         Symmetric key size
+     * @param in                       Data to encrypt
+     * @param out                      Buffer the encrypted data will be written to
+     * @param cipherAlgorithm          Cipher algorithm
+     * @return Number of bytes written
+     * @throws EncryptionException If an error occurred encrypting the data
+     */
+    public int encrypt(@NotNull EncryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm, @NotNull String symmetricAlgorithmCipher,
+                       int symmetricKeySize, @NotNull ByteBuffer in, @NotNull ByteBuffer out, @NotNull String cipherAlgorithm) throws EncryptionException {
+        return encrypt(key, symmetricAlgorithm, symmetricAlgorithmCipher, symmetricKeySize, in, out, cipherAlgorithm, EnvelopeMode.AUTO);
+    }
+
+    /**
+     * Buffer based equivalent of {@link #encrypt(EncryptionKey, SymmetricAlgorithm, String, int, byte[], String, EnvelopeMode)}.
+     *
+     * @param key                      Cryptographic key
+     * @param symmetricAlgorithm       Symmetric algorithm
+     * @param symmetricAlgorithmCipher Symmetric cipher algorithm
+     * @param symmetricKeySize         Symmetric key size
+     * @param in                       Data to encrypt
+     * @param out                      Buffer the encrypted data will be written to
+     * @param cipherAlgorithm          Cipher algorithm used with the specified key
+     * @param mode                     Envelope mode, {@link EnvelopeMode#AUTO} to pick one using {@link #planEnvelope(EncryptionKey, int, String)}
+     * @return Number of bytes written
+     * @throws EncryptionException If an error occurred encrypting the data (including if {@link EnvelopeMode#DIRECT}
+     *                             was forced and the data is too large for the key)
+     */
+    public abstract int encrypt(@NotNull EncryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm, @NotNull String symmetricAlgorithmCipher,
+                                int symmetricKeySize, @NotNull ByteBuffer in, @NotNull ByteBuffer out, @NotNull String cipherAlgorithm,
+                                @NotNull EnvelopeMode mode) throws EncryptionException;
+
+    public int decrypt(@NotNull DecryptionKey key, @NotNull ByteBuffer in, @NotNull ByteBuffer out) throws DecryptionException {
+        return decrypt(key, in, out, getDefaultCipherAlgorithm(key, defaultCompatibilityMode));
+    }
+
+    /**
+     * Decrypt all remaining bytes of a buffer into another buffer (see {@link #encrypt(EncryptionKey, ByteBuffer, ByteBuffer, String)}).
+     *
+     * @param key             Cryptographic key
+     * @param in              Data to decrypt
+     * @param out             Buffer the decrypted data will be written to (must have at least {@link #getMaxDecryptedLength(DecryptionKey, int, String)} bytes remaining)
+     * @param cipherAlgorithm Cipher algorithm
+     * @return Number of bytes written
+     * @throws DecryptionException If an error occurred decrypting the data
+     */
+    public abstract int decrypt(@NotNull DecryptionKey key, @NotNull ByteBuffer in, @NotNull ByteBuffer out, @NotNull String cipherAlgorithm) throws DecryptionException;
+
+    public int decrypt(@NotNull DecryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm, int symmetricKeySize,
+                       @NotNull ByteBuffer in, @NotNull ByteBuffer out) throws DecryptionException {
+        return decrypt(key, symmetricAlgorithm, symmetricAlgorithm.getDefaultCipherAlg(defaultCompatibilityMode), symmetricKeySize,
+                in, out, getDefaultCipherAlgorithm(key, defaultCompatibilityMode));
+    }
+
+    public abstract int decrypt(@NotNull DecryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm, @NotNull String symmetricAlgorithmCipher,
+                                int symmetricKeySize, @NotNull ByteBuffer in, @NotNull ByteBuffer out, @NotNull String cipherAlgorithm) throws DecryptionException;
+
     public byte[] sign(@NotNull SigningKey key, @NotNull byte[] data) throws InvalidKeyException {
         return sign(key, null, data);
     }
@@ -260,16 +750,384 @@ public abstract class CryptoEngine {
         return sign(readRSAPrivateKey(pkcs8encodedPrivateKey), digestAlgorithms, data);
     }
 
+    public OutputStream encryptingOutputStream(@NotNull EncryptionKey key, @NotNull OutputStream out) throws EncryptionException {
+        return encryptingOutputStream(key, out, getDefaultCipherAlgorithm(key, defaultCompatibilityMode));
+    }
+
+    /**
+     * Create an output stream which encrypts all data written to it, using the same format as
+     * {@link #encrypt(EncryptionKey, byte[], String)}. Data is encrypted in fixed size chunks, so memory usage doesn't
+     * depend on the size of the payload. The stream must be closed in order for the final block to be written (closing
+     * it will also close the underlying stream).
+     * Authenticated cipher algorithms (ie. {@link #AES_GCM_NO_PADDING}) are an exception: the data is split in
+     * independently authenticated segments, so that it can be verified as it's decrypted, and can then only be
+     * decrypted using {@link #decryptingInputStream(DecryptionKey, InputStream, String, byte[])}.
+     *
+     * @param key             Cryptographic key
+     * @param out             Stream the encrypted data will be written to
+     * @param cipherAlgorithm Cipher algorithm
+     * @return Encrypting output stream
+     * @throws EncryptionException If an error occurred initializing the cipher
+     */
+    public OutputStream encryptingOutputStream(@NotNull EncryptionKey key, @NotNull OutputStream out, @NotNull String cipherAlgorithm) throws EncryptionException {
+        return encryptingOutputStream(key, out, cipherAlgorithm, null);
+    }
+
+    /**
+     * Create an encrypting output stream (see {@link #encryptingOutputStream(EncryptionKey, OutputStream, String)})
+     * using an authenticated cipher algorithm with additional authenticated data.
+     *
+     * @param key             Cryptographic key
+     * @param out             Stream the encrypted data will be written to
+     * @param cipherAlgorithm Cipher algorithm
+     * @param aad             Additional authenticated data, or null if none
+     * @return Encrypting output stream
+     * @throws EncryptionException If an error occurred initializing the cipher
+     */
+    public abstract OutputStream encryptingOutputStream(@NotNull EncryptionKey key, @NotNull OutputStream out, @NotNull String cipherAlgorithm,
+                                                        @Nullable byte[] aad) throws EncryptionException;
+
+    public InputStream decryptingInputStream(@NotNull DecryptionKey key, @NotNull InputStream in) throws DecryptionException {
+        return decryptingInputStream(key, in, getDefaultCipherAlgorithm(key, defaultCompatibilityMode));
+    }
+
+    /**
+     * Create an input stream which decrypts data read from another stream (see {@link #encryptingOutputStream(EncryptionKey, OutputStream, String)}).
+     * Decryption failures (ie. invalid padding) are reported as an {@link java.io.IOException} caused by a
+     * {@link DecryptionException}.
+     *
+     * @param key             Cryptographic key
+     * @param in              Stream to read the encrypted data from
+     * @param cipherAlgorithm Cipher algorithm
+     * @return Decrypting input stream
+     * @throws DecryptionException If an error occurred initializing the cipher
+     */
+    public InputStream decryptingInputStream(@NotNull DecryptionKey key, @NotNull InputStream in, @NotNull String cipherAlgorithm) throws DecryptionException {
+        return decryptingInputStream(key, in, cipherAlgorithm, null);
+    }
+
+    /**
+     * Create a decrypting input stream (see {@link #decryptingInputStream(DecryptionKey, InputStream, String)})
+     * using an authenticated cipher algorithm with additional authenticated data. Decrypted data is released one
+     * segment at a time, once that segment has been verified.
+     *
+     * @param key             Cryptographic key
+     * @param in              Stream to read the encrypted data from
+     * @param cipherAlgorithm Cipher algorithm
+     * @param aad             Additional authenticated data, or null if none
+     * @return Decrypting input stream
+     * @throws DecryptionException If an error occurred initializing the cipher
+     */
+    public abstract InputStream decryptingInputStream(@NotNull DecryptionKey key, @NotNull InputStream in, @NotNull String cipherAlgorithm,
+                                                      @Nullable byte[] aad) throws DecryptionException;
+
+    public OutputStream encryptingOutputStream(@NotNull EncryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm,
+                                               int symmetricKeySize, @NotNull OutputStream out) throws EncryptionException {
+        return encryptingOutputStream(key, symmetricAlgorithm, symmetricAlgorithm.getDefaultCipherAlg(defaultCompatibilityMode),
+                symmetricKeySize, out, getDefaultCipherAlgorithm(key, defaultCompatibilityMode));
+    }
+
+    /**
+     * Create an output stream which encrypts data using a randomly generated symmetric key, which is itself encrypted
+     * using the specified (asymmetric) key. The layout is the same as the one produced by
+     * {@link #encrypt(EncryptionKey, SymmetricAlgorithm, String, int, byte[], String)} for large payloads (a short
+     * containing the length of the encrypted symmetric key, the encrypted symmetric key, and then the symmetrically
+     * encrypted data), so it can be decrypted using either this class' byte array or stream based methods (except with
+     * authenticated symmetric algorithms, whose data is segmented as described in
+     * {@link #encryptingOutputStream(EncryptionKey, OutputStream, String, byte[])}).
+     * Memory usage is independent of the size of the payload. The stream must be closed in order for the final block
+     * to be written, and the symmetric key is destroyed when it is closed.
+     *
+     * @param key                      Cryptographic key used to encrypt the symmetric key
+     * @param symmetricAlgorithm       Symmetric algorithm
+     * @param symmetricAlgorithmCipher Symmetric cipher algorithm
+     * @param symmetricKeySize         Symmetric key size
+     * @param out                      Stream the encrypted data will be written to
+     * @param cipherAlgorithm          Cipher algorithm used to encrypt the symmetric key
+     * @return Encrypting output stream
+     * @throws EncryptionException If an error occurred generating or encrypting the symmetric key
+     */
+    public abstract OutputStream encryptingOutputStream(@NotNull EncryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm,
+                                                        @NotNull String symmetricAlgorithmCipher, int symmetricKeySize,
+                                                        @NotNull OutputStream out, @NotNull String cipherAlgorithm) throws EncryptionException;
+
+    public WritableByteChannel encryptingChannel(@NotNull EncryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm,
+                                                 int symmetricKeySize, @NotNull WritableByteChannel channel) throws EncryptionException {
+        return Channels.newChannel(encryptingOutputStream(key, symmetricAlgorithm, symmetricKeySize, Channels.newOutputStream(channel)));
+    }
+
+    public InputStream decryptingInputStream(@NotNull DecryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm,
+                                             @NotNull InputStream in) throws DecryptionException, IOException {
+        return decryptingInputStream(key, symmetricAlgorithm, symmetricAlgorithm.getDefaultCipherAlg(defaultCompatibilityMode),
+                in, getDefaultCipherAlgorithm(key, defaultCompatibilityMode));
+    }
+
+    /**
+     * Create an input stream which decrypts data produced by {@link #encryptingOutputStream(EncryptionKey, SymmetricAlgorithm, String, int, OutputStream, String)}
+     * or (except with authenticated symmetric algorithms) {@link #encrypt(EncryptionKey, SymmetricAlgorithm, String, int, byte[], String)}.
+     * The envelope header is read and the symmetric key decrypted before this method returns, and the symmetric key is
+     * destroyed when the stream is closed.
+     *
+     * @param key                      Cryptographic key used to decrypt the symmetric key
+     * @param symmetricAlgorithm       Symmetric algorithm
+     * @param symmetricAlgorithmCipher Symmetric cipher algorithm
+     * @param in                       Stream to read the encrypted data from
+     * @param cipherAlgorithm          Cipher algorithm used to decrypt the symmetric key
+     * @return Decrypting input stream
+     * @throws DecryptionException If an error occurred decrypting the symmetric key
+     * @throws IOException         If an error occurred reading the envelope header
+     */
+    public abstract InputStream decryptingInputStream(@NotNull DecryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm,
+                                                      @NotNull String symmetricAlgorithmCipher, @NotNull InputStream in,
+                                                      @NotNull String cipherAlgorithm) throws DecryptionException, IOException;
+
+    public ReadableByteChannel decryptingChannel(@NotNull DecryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm,
+                                                 @NotNull ReadableByteChannel channel) throws DecryptionException, IOException {
+        return Channels.newChannel(decryptingInputStream(key, symmetricAlgorithm, Channels.newInputStream(channel)));
+    }
+
+    public byte[] sign(@NotNull SigningKey key, @NotNull ByteBuffer data) throws InvalidKeyException {
+        return sign(key, null, data);
+    }
+
+    /**
+     * Sign all remaining bytes of a buffer (the buffer's position will be advanced to its limit).
+     *
+     * @param key              Signing key
+     * @param digestAlgorithms Digest algorithm (or null to use the default one)
+     * @param data             Data to sign
+     * @return Signature
+     * @throws InvalidKeyException If the key is invalid
+     */
+    public abstract byte[] sign(@NotNull SigningKey key, @Nullable DigestAlgorithm digestAlgorithms, @NotNull ByteBuffer data) throws InvalidKeyException;
+
     public void verifySignature(@NotNull SignatureVerificationKey key, @NotNull byte[] data, @NotNull byte[] signature) throws SignatureException, InvalidKeyException {
         verifySignature(key, null, data, signature);
     }
 
     public abstract void verifySignature(@NotNull SignatureVerificationKey key, @Nullable DigestAlgorithm digestAlgorithms, @NotNull byte[] data, @NotNull byte[] signature) throws SignatureException, InvalidKeyException;
 
+    public void verifySignature(@NotNull SignatureVerificationKey key, @NotNull ByteBuffer data, @NotNull byte[] signature) throws SignatureException, InvalidKeyException {
+        verifySignature(key, null, data, signature);
+    }
+
+    /**
+     * Verify the signature of all remaining bytes of a buffer (the buffer's position will be advanced to its limit).
+     *
+     * @param key              Signature verification key
+     * @param digestAlgorithms Digest algorithm (or null to use the default one)
+     * @param data             Signed data
+     * @param signature        Signature
+     * @throws SignatureException  If the signature doesn't match the data
+     * @throws InvalidKeyException If the key is invalid
+     */
+    public abstract void verifySignature(@NotNull SignatureVerificationKey key, @Nullable DigestAlgorithm digestAlgorithms, @NotNull ByteBuffer data, @NotNull byte[] signature) throws SignatureException, InvalidKeyException;
+
+    /**
+     * Verify a batch of signatures. Large batches are split across {@link CryptoUtils#forkJoinPool()}, with each worker
+     * thread reusing its own pooled primitives.
+     *
+     * @param verifications Signatures to verify
+     * @return Array with, for each verification (in the same order), true if the signature matches, or false if it
+     * doesn't or if its key is invalid
+     * @throws IllegalArgumentException If one of the keys can't be used to verify signatures
+     */
+    public boolean[] verifySignatures(@NotNull List<SignatureVerification> verifications) {
+        boolean[] results = new boolean[verifications.size()];
+        if (verifications.size() < BATCH_VERIFICATION_SEGMENT_SIZE * 2) {
+            verifySignatures(verifications, results, 0, results.length);
+        } else {
+            CryptoUtils.forkJoinPool().invoke(new BatchVerificationTask(verifications, results, 0, results.length));
+        }
+        return results;
+    }
+
+    private void verifySignatures(List<SignatureVerification> verifications, boolean[] results, int start, int end) {
+        for (int i = start; i < end; i++) {
+            SignatureVerification verification = verifications.get(i);
+            try {
+                verifySignature(verification.getKey(), verification.getDigestAlgorithm(), verification.getData(), verification.getSignature());
+                results[i] = true;
+            } catch (SignatureException e) {
+                results[i] = false;
+            } catch (InvalidKeyException e) {
+                results[i] = false;
+            }
+        }
+    }
+
+    private class BatchVerificationTask extends RecursiveAction {
+        private static final long serialVersionUID = 7302785613469528144L;
+        private final List<SignatureVerification> verifications;
+        private final boolean[] results;
+        private final int start;
+        private final int end;
+
+        BatchVerificationTask(List<SignatureVerification> verifications, boolean[] results, int start, int end) {
+            this.verifications = verifications;
+            this.results = results;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > BATCH_VERIFICATION_SEGMENT_SIZE) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new BatchVerificationTask(verifications, results, start, mid),
+                        new BatchVerificationTask(verifications, results, mid, end));
+            } else {
+                verifySignatures(verifications, results, start, end);
+            }
+        }
+    }
+
     public void rsaVerifySignature(@NotNull byte[] x509encodedPrivateKey, @NotNull DigestAlgorithm digestAlgorithms, @NotNull byte[] data, @NotNull byte[] signature) throws SignatureException, InvalidKeyException {
         verifySignature(readRSAPublicKey(x509encodedPrivateKey), digestAlgorithms, data, signature);
     }
 
+    /**
+     * Prepare an encryption operation using the default compatibility mode (see {@link #setDefaultCompatibilityMode(boolean)}).
+     *
+     * @param key Cryptographic key
+     * @return Prepared encryptor
+     * @throws InvalidKeyException If the key is invalid
+     */
+    public PreparedEncryptor prepareEncryptor(@NotNull EncryptionKey key) throws InvalidKeyException {
+        return prepareEncryptor(key, defaultCompatibilityMode);
+    }
+
+    public PreparedEncryptor prepareEncryptor(@NotNull EncryptionKey key, boolean compatibilityMode) throws InvalidKeyException {
+        return prepareEncryptor(key, getDefaultCipherAlgorithm(key, compatibilityMode));
+    }
+
+    /**
+     * Prepare an encryption operation bound to the specified key. The returned encryptor can be used to encrypt many
+     * messages without having to re-initialize the cipher with the key each time (only per-message state like the IV
+     * is reset).
+     *
+     * @param key             Cryptographic key
+     * @param cipherAlgorithm Cipher algorithm
+     * @return Prepared encryptor
+     * @throws InvalidKeyException If the key is invalid
+     */
+    public PreparedEncryptor prepareEncryptor(@NotNull final EncryptionKey key, @NotNull final String cipherAlgorithm) throws InvalidKeyException {
+        return new PreparedEncryptor() {
+            @Override
+            public byte[] encrypt(@NotNull byte[] data) throws EncryptionException {
+                return CryptoEngine.this.encrypt(key, data, cipherAlgorithm);
+            }
+
+            @Override
+            public int encrypt(@NotNull byte[] in, int inOffset, int inLength, @NotNull byte[] out, int outOffset) throws EncryptionException {
+                return CryptoEngine.this.encrypt(key, in, inOffset, inLength, out, outOffset, cipherAlgorithm);
+            }
+
+            @Override
+            public int getEncryptedLength(int dataLength) throws InvalidKeyException {
+                return CryptoEngine.this.getEncryptedLength(key, dataLength, cipherAlgorithm);
+            }
+
+            @Override
+            public void destroy() {
+            }
+        };
+    }
+
+    public PreparedDecryptor prepareDecryptor(@NotNull DecryptionKey key) throws InvalidKeyException {
+        return prepareDecryptor(key, defaultCompatibilityMode);
+    }
+
+    public PreparedDecryptor prepareDecryptor(@NotNull DecryptionKey key, boolean compatibilityMode) throws InvalidKeyException {
+        return prepareDecryptor(key, getDefaultCipherAlgorithm(key, compatibilityMode));
+    }
+
+    /**
+     * Prepare a decryption operation bound to the specified key (see {@link #prepareEncryptor(EncryptionKey, String)}).
+     *
+     * @param key             Cryptographic key
+     * @param cipherAlgorithm Cipher algorithm
+     * @return Prepared decryptor
+     * @throws InvalidKeyException If the key is invalid
+     */
+    public PreparedDecryptor prepareDecryptor(@NotNull final DecryptionKey key, @NotNull final String cipherAlgorithm) throws InvalidKeyException {
+        return new PreparedDecryptor() {
+            @Override
+            public byte[] decrypt(@NotNull byte[] data) throws DecryptionException {
+                return CryptoEngine.this.decrypt(key, data, cipherAlgorithm);
+            }
+
+            @Override
+            public int decrypt(@NotNull byte[] in, int inOffset, int inLength, @NotNull byte[] out, int outOffset) throws DecryptionException {
+                return CryptoEngine.this.decrypt(key, in, inOffset, inLength, out, outOffset, cipherAlgorithm);
+            }
+
+            @Override
+            public int getMaxDecryptedLength(int encryptedLength) throws InvalidKeyException {
+                return CryptoEngine.this.getMaxDecryptedLength(key, encryptedLength, cipherAlgorithm);
+            }
+
+            @Override
+            public void destroy() {
+            }
+        };
+    }
+
+    public PreparedSigner prepareSigner(@NotNull SigningKey key) throws InvalidKeyException {
+        return prepareSigner(key, null);
+    }
+
+    /**
+     * Prepare a signing operation bound to the specified key, so that signing multiple messages doesn't require
+     * re-initializing the key every time.
+     *
+     * @param key             Signing key
+     * @param digestAlgorithm Digest algorithm (or null to use the default one)
+     * @return Prepared signer
+     * @throws InvalidKeyException If the key is invalid
+     */
+    public PreparedSigner prepareSigner(@NotNull final SigningKey key, @Nullable final DigestAlgorithm digestAlgorithm) throws InvalidKeyException {
+        return new PreparedSigner() {
+            @Override
+            public byte[] sign(@NotNull byte[] data) throws InvalidKeyException {
+                return CryptoEngine.this.sign(key, digestAlgorithm, data);
+            }
+
+            @Override
+            public void destroy() {
+            }
+        };
+    }
+
+    public PreparedVerifier prepareVerifier(@NotNull SignatureVerificationKey key) throws InvalidKeyException {
+        return prepareVerifier(key, null);
+    }
+
+    /**
+     * Prepare a signature verification operation bound to the specified key.
+     *
+     * @param key             Signature verification key
+     * @param digestAlgorithm Digest algorithm (or null to use the default one)
+     * @return Prepared verifier
+     * @throws InvalidKeyException If the key is invalid
+     */
+    public PreparedVerifier prepareVerifier(@NotNull final SignatureVerificationKey key, @Nullable final DigestAlgorithm digestAlgorithm) throws InvalidKeyException {
+        return new PreparedVerifier() {
+            @Override
+            public void verifySignature(@NotNull byte[] data, @NotNull byte[] signature) throws SignatureException {
+                try {
+                    CryptoEngine.this.verifySignature(key, digestAlgorithm, data, signature);
+                } catch (InvalidKeyException e) {
+                    throw new SignatureException(e);
+                }
+            }
+
+            @Override
+            public void destroy() {
+            }
+        };
+    }
+
     /**
      * Create a digest from a byte array
      *
@@ -279,6 +1137,15 @@ public abstract class CryptoEngine {
      */
     public abstract byte[] digest(byte[] data, DigestAlgorithm alg);
 
+    /**
+     * Create a digest from all remaining bytes of a buffer (the buffer's position will be advanced to its limit).
+     *
+     * @param data Data to create digest from
+     * @param alg  Algorithm to use for digest
+     * @return digest value
+     */
+    public abstract byte[] digest(ByteBuffer data, DigestAlgorithm alg);
+
     public byte[] md5(byte[] data) {
         return digest(data, DigestAlgorithm.MD5);
     }
@@ -297,8 +1164,100 @@ public abstract class CryptoEngine {
 
     public abstract byte[] pbkdf2(DigestAlgorithm digestAlgorithms, char[] password, int iterations, byte[] salt, int keyLen);
 
+    /**
+     * HKDF extract step (RFC 5869): concentrate the entropy of the input keying material into a pseudorandom key.
+     *
+     * @param digestAlgorithm HMAC digest algorithm
+     * @param salt            Salt, or null to use a string of zeros as long as the digest
+     * @param ikm             Input keying material
+     * @return Pseudorandom key (as long as the digest)
+     */
+    public abstract byte[] hkdfExtract(@NotNull DigestAlgorithm digestAlgorithm, @Nullable byte[] salt, @NotNull byte[] ikm);
+
+    /**
+     * HKDF expand step (RFC 5869): expand a pseudorandom key into output keying material bound to a context.
+     *
+     * @param digestAlgorithm HMAC digest algorithm
+     * @param prk             Pseudorandom key (generally the output of {@link #hkdfExtract(DigestAlgorithm, byte[], byte[])})
+     * @param info            Context label, or null for none
+     * @param length          Output length in bytes (at most 255 times the digest length)
+     * @return Output keying material
+     */
+    public abstract byte[] hkdfExpand(@NotNull DigestAlgorithm digestAlgorithm, @NotNull byte[] prk, @Nullable byte[] info, int length);
+
+    public byte[] hkdf(@NotNull DigestAlgorithm digestAlgorithm, @Nullable byte[] salt, @NotNull byte[] ikm, @Nullable byte[] info, int length) {
+        return hkdfExpand(digestAlgorithm, hkdfExtract(digestAlgorithm, salt, ikm), info, length);
+    }
+
+    /**
+     * Derive a key from a password using Argon2id (RFC 9106). The password is UTF-8 encoded.
+     *
+     * @param password    Password
+     * @param iterations  Number of passes over the memory
+     * @param memoryKiB   Memory size in kibibytes (at least 8 times the parallelism)
+     * @param parallelism Number of lanes, which an engine may fill in parallel
+     * @param salt        Salt (at least 8 bytes)
+     * @param length      Output length in bytes (at least 4)
+     * @return Derived key
+     */
+    public abstract byte[] argon2id(char[] password, int iterations, int memoryKiB, int parallelism, byte[] salt, int length);
+
+    /**
+     * Derive a key using Argon2id (RFC 9106), with an optional secret (pepper) and associated data.
+     *
+     * @param password       Password
+     * @param iterations     Number of passes over the memory
+     * @param memoryKiB      Memory size in kibibytes (at least 8 times the parallelism)
+     * @param parallelism    Number of lanes, which an engine may fill in parallel
+     * @param salt           Salt (at least 8 bytes)
+     * @param secret         Secret value, or null for none
+     * @param associatedData Associated data, or null for none
+     * @param length         Output length in bytes (at least 4)
+     * @return Derived key
+     */
+    public abstract byte[] argon2id(byte[] password, int iterations, int memoryKiB, int parallelism, byte[] salt,
+                                    @Nullable byte[] secret, @Nullable byte[] associatedData, int length);
+
+    /**
+     * Derive a key from a password using scrypt (RFC 7914). The password is UTF-8 encoded.
+     *
+     * @param password Password
+     * @param n        CPU/memory cost parameter (a power of 2 greater than 1), memory usage is 128 * n * r bytes
+     * @param r        Block size parameter
+     * @param p        Parallelization parameter, an engine may mix the p blocks in parallel
+     * @param salt     Salt
+     * @param length   Output length in bytes
+     * @return Derived key
+     */
+    public abstract byte[] scrypt(char[] password, int n, int r, int p, byte[] salt, int length);
+
+    public abstract byte[] scrypt(byte[] password, int n, int r, int p, byte[] salt, int length);
+
     public abstract Digest digest(DigestAlgorithm alg);
 
+    /**
+     * Create a digest whose intermediate state can be exported (see {@link ResumableDigest#exportState()}). Since JCE
+     * digests can't export their state, this is a pure java implementation, which is significantly slower than
+     * {@link #digest(DigestAlgorithm)} on JVMs with SHA intrinsics, so it should only be used when resuming is needed.
+     *
+     * @param alg Digest algorithm
+     * @return Resumable digest
+     */
+    public ResumableDigest resumableDigest(DigestAlgorithm alg) {
+        return JavaDigest.create(alg);
+    }
+
+    /**
+     * Restore a digest from a state exported by {@link ResumableDigest#exportState()}.
+     *
+     * @param state Digest state
+     * @return Resumable digest
+     * @throws IllegalArgumentException If the state is invalid
+     */
+    public ResumableDigest resumeDigest(byte[] state) {
+        return JavaDigest.restore(state);
+    }
+
     /**
      * Return true this Crypto Engine is a test engine.
      *
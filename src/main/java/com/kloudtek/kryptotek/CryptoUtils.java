@@ -12,8 +12,13 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.security.auth.DestroyFailedException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.InvalidKeyException;
 import java.security.SecureRandom;
 import java.security.SignatureException;
@@ -21,6 +26,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
 
 /**
@@ -32,6 +39,7 @@ public class CryptoUtils {
     private static final Logger logger = Logger.getLogger(CryptoUtils.class.getName());
     static CryptoEngine engine;
     private static final SecureRandom rng = new SecureRandom();
+    private static volatile ForkJoinPool forkJoinPool;
 
     static {
         engine = createEngine("com.kloudtek.kryptotek.test.TestCryptoEngine");
@@ -235,6 +243,29 @@ public class CryptoUtils {
         return rng;
     }
 
+    /**
+     * Get the fork/join pool used for parallel cryptographic operations. Unless one has been set using
+     * {@link #setForkJoinPool(ForkJoinPool)}, a pool with one worker per available processor is created on first use.
+     *
+     * @return Fork/join pool
+     */
+    public static ForkJoinPool forkJoinPool() {
+        ForkJoinPool pool = forkJoinPool;
+        if (pool == null) {
+            synchronized (CryptoUtils.class) {
+                pool = forkJoinPool;
+                if (pool == null) {
+                    pool = forkJoinPool = new ForkJoinPool();
+                }
+            }
+        }
+        return pool;
+    }
+
+    public static void setForkJoinPool(ForkJoinPool pool) {
+        forkJoinPool = pool;
+    }
+
     public static char[] generateRandomPassword(int len, boolean allCaps) {
         char[] charSet = allCaps ? symbolsAllCaps : symbols;
         char[] pw = new char[len];
@@ -395,6 +426,16 @@ public class CryptoUtils {
         return engine.generateAESKey(keySize, dhPrivateKey, dhPublicKey);
     }
 
+    @NotNull
+    public static AESKey generateAESKey(AESKeyLen keySize, DHPrivateKey dhPrivateKey, DHPublicKey dhPublicKey, @Nullable byte[] info) throws InvalidKeyException {
+        return engine.generateAESKey(keySize, dhPrivateKey, dhPublicKey, info);
+    }
+
+    @NotNull
+    public static HMACKey generateHMACKey(DigestAlgorithm digestAlgorithm, DHPrivateKey dhPrivateKey, DHPublicKey dhPublicKey, @Nullable byte[] info) throws InvalidKeyException {
+        return engine.generateHMACKey(digestAlgorithm, dhPrivateKey, dhPublicKey, info);
+    }
+
     @NotNull
     public static DHParameters generateDHParameters(int keySize) {
         return engine.generateDHParameters(keySize);
@@ -488,6 +529,171 @@ public class CryptoUtils {
         engine.rsaVerifySignature(x509encodedPrivateKey, digestAlgorithms, data, signature);
     }
 
+    public static PreparedEncryptor prepareEncryptor(@NotNull EncryptionKey key, @NotNull String cipherAlgorithm) throws InvalidKeyException {
+        return engine.prepareEncryptor(key, cipherAlgorithm);
+    }
+
+    public static PreparedEncryptor prepareEncryptor(@NotNull EncryptionKey key) throws InvalidKeyException {
+        return engine.prepareEncryptor(key);
+    }
+
+    public static PreparedDecryptor prepareDecryptor(@NotNull DecryptionKey key, @NotNull String cipherAlgorithm) throws InvalidKeyException {
+        return engine.prepareDecryptor(key, cipherAlgorithm);
+    }
+
+    public static PreparedDecryptor prepareDecryptor(@NotNull DecryptionKey key) throws InvalidKeyException {
+        return engine.prepareDecryptor(key);
+    }
+
+    public static PreparedSigner prepareSigner(@NotNull SigningKey key, @Nullable DigestAlgorithm digestAlgorithm) throws InvalidKeyException {
+        return engine.prepareSigner(key, digestAlgorithm);
+    }
+
+    public static PreparedVerifier prepareVerifier(@NotNull SignatureVerificationKey key, @Nullable DigestAlgorithm digestAlgorithm) throws InvalidKeyException {
+        return engine.prepareVerifier(key, digestAlgorithm);
+    }
+
+    public static int getEncryptedLength(@NotNull EncryptionKey key, int dataLength) throws InvalidKeyException {
+        return engine.getEncryptedLength(key, dataLength);
+    }
+
+    public static int getMaxDecryptedLength(@NotNull DecryptionKey key, int encryptedLength) throws InvalidKeyException {
+        return engine.getMaxDecryptedLength(key, encryptedLength);
+    }
+
+    public static int encrypt(@NotNull EncryptionKey key, @NotNull byte[] in, int inOffset, int inLength, @NotNull byte[] out, int outOffset) throws EncryptionException {
+        return engine.encrypt(key, in, inOffset, inLength, out, outOffset);
+    }
+
+    public static int decrypt(@NotNull DecryptionKey key, @NotNull byte[] in, int inOffset, int inLength, @NotNull byte[] out, int outOffset) throws DecryptionException {
+        return engine.decrypt(key, in, inOffset, inLength, out, outOffset);
+    }
+
+    public static int encrypt(@NotNull EncryptionKey key, @NotNull ByteBuffer in, @NotNull ByteBuffer out) throws EncryptionException {
+        return engine.encrypt(key, in, out);
+    }
+
+    public static int encrypt(@NotNull EncryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm, int symmetricKeySize, @NotNull ByteBuffer in, @NotNull ByteBuffer out) throws EncryptionException {
+        return engine.encrypt(key, symmetricAlgorithm, symmetricKeySize, in, out);
+    }
+
+    public static int decrypt(@NotNull DecryptionKey key, @NotNull ByteBuffer in, @NotNull ByteBuffer out) throws DecryptionException {
+        return engine.decrypt(key, in, out);
+    }
+
+    public static int decrypt(@NotNull DecryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm, int symmetricKeySize, @NotNull ByteBuffer in, @NotNull ByteBuffer out) throws DecryptionException {
+        return engine.decrypt(key, symmetricAlgorithm, symmetricKeySize, in, out);
+    }
+
+    public static byte[] sign(@NotNull SigningKey key, @NotNull ByteBuffer data) throws InvalidKeyException {
+        return engine.sign(key, data);
+    }
+
+    public static void verifySignature(@NotNull SignatureVerificationKey key, @NotNull ByteBuffer data, @NotNull byte[] signature) throws SignatureException, InvalidKeyException {
+        engine.verifySignature(key, data, signature);
+    }
+
+    public static byte[] digest(ByteBuffer data, DigestAlgorithm alg) {
+        return engine.digest(data, alg);
+    }
+
+    public static OutputStream encryptingOutputStream(@NotNull EncryptionKey key, @NotNull OutputStream out) throws EncryptionException {
+        return engine.encryptingOutputStream(key, out);
+    }
+
+    public static InputStream decryptingInputStream(@NotNull DecryptionKey key, @NotNull InputStream in) throws DecryptionException {
+        return engine.decryptingInputStream(key, in);
+    }
+
+    public static OutputStream encryptingOutputStream(@NotNull EncryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm, int symmetricKeySize, @NotNull OutputStream out) throws EncryptionException {
+        return engine.encryptingOutputStream(key, symmetricAlgorithm, symmetricKeySize, out);
+    }
+
+    public static InputStream decryptingInputStream(@NotNull DecryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm, @NotNull InputStream in) throws DecryptionException, IOException {
+        return engine.decryptingInputStream(key, symmetricAlgorithm, in);
+    }
+
+    public static WritableByteChannel encryptingChannel(@NotNull EncryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm, int symmetricKeySize, @NotNull WritableByteChannel channel) throws EncryptionException {
+        return engine.encryptingChannel(key, symmetricAlgorithm, symmetricKeySize, channel);
+    }
+
+    public static ReadableByteChannel decryptingChannel(@NotNull DecryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm, @NotNull ReadableByteChannel channel) throws DecryptionException, IOException {
+        return engine.decryptingChannel(key, symmetricAlgorithm, channel);
+    }
+
+    public static EnvelopeMode planEnvelope(@NotNull EncryptionKey key, int dataLength) throws InvalidKeyException {
+        return engine.planEnvelope(key, dataLength);
+    }
+
+    public static byte[] encrypt(@NotNull EncryptionKey key, @NotNull byte[] data, @Nullable byte[] aad, @NotNull String cipherAlgorithm) throws EncryptionException {
+        return engine.encrypt(key, data, aad, cipherAlgorithm);
+    }
+
+    public static byte[] decrypt(@NotNull DecryptionKey key, @NotNull byte[] data, @Nullable byte[] aad, @NotNull String cipherAlgorithm) throws DecryptionException {
+        return engine.decrypt(key, data, aad, cipherAlgorithm);
+    }
+
+    public static ChaCha20Key generateChaCha20Key() {
+        return engine.generateChaCha20Key();
+    }
+
+    public static SymmetricAlgorithm getPreferredSymmetricAlgorithm() {
+        return engine.getPreferredSymmetricAlgorithm();
+    }
+
+    @NotNull
+    public static SymmetricKey[] generatePBEKeys(DigestAlgorithm pbkdf2DigestAlgorithm, char[] password, int iterations, byte[] salt, DerivedKeySpec... keys) {
+        return engine.generatePBEKeys(pbkdf2DigestAlgorithm, password, iterations, salt, keys);
+    }
+
+    public static byte[] argon2id(char[] password, int iterations, int memoryKiB, int parallelism, byte[] salt, int length) {
+        return engine.argon2id(password, iterations, memoryKiB, parallelism, salt, length);
+    }
+
+    @NotNull
+    public static AESKey generateArgon2AESKey(char[] password, int iterations, int memoryKiB, int parallelism, byte[] salt, AESKeyLen keyLen) {
+        return engine.generateArgon2AESKey(password, iterations, memoryKiB, parallelism, salt, keyLen);
+    }
+
+    @NotNull
+    public static HMACKey generateArgon2HMACKey(DigestAlgorithm hmacDigestAlgorithm, char[] password, int iterations, int memoryKiB, int parallelism, byte[] salt) {
+        return engine.generateArgon2HMACKey(hmacDigestAlgorithm, password, iterations, memoryKiB, parallelism, salt);
+    }
+
+    public static byte[] scrypt(char[] password, int n, int r, int p, byte[] salt, int length) {
+        return engine.scrypt(password, n, r, p, salt, length);
+    }
+
+    @NotNull
+    public static AESKey generateScryptAESKey(char[] password, int n, int r, int p, byte[] salt, AESKeyLen keyLen) {
+        return engine.generateScryptAESKey(password, n, r, p, salt, keyLen);
+    }
+
+    @NotNull
+    public static HMACKey generateScryptHMACKey(DigestAlgorithm hmacDigestAlgorithm, char[] password, int n, int r, int p, byte[] salt) {
+        return engine.generateScryptHMACKey(hmacDigestAlgorithm, password, n, r, p, salt);
+    }
+
+    public static byte[] hkdf(@NotNull DigestAlgorithm digestAlgorithm, @Nullable byte[] salt, @NotNull byte[] ikm, @Nullable byte[] info, int length) {
+        return engine.hkdf(digestAlgorithm, salt, ikm, info, length);
+    }
+
+    public static X25519KeyPair generateX25519KeyPair() {
+        return engine.generateX25519KeyPair();
+    }
+
+    public static ECKeyPair generateECKeyPair(ECCurve curve) {
+        return engine.generateECKeyPair(curve);
+    }
+
+    public static Ed25519KeyPair generateEd25519KeyPair() {
+        return engine.generateEd25519KeyPair();
+    }
+
+    public static boolean[] verifySignatures(@NotNull List<SignatureVerification> verifications) {
+        return engine.verifySignatures(verifications);
+    }
+
     public static boolean isTestEngine() {
         return engine.isTestEngine();
     }
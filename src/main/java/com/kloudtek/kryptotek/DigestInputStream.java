@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream which updates a digest with the bits going through the stream (the input counterpart of
+ * {@link DigestOutputStream}), so that data can be verified while it's being consumed.
+ */
+public class DigestInputStream extends FilterInputStream {
+    private boolean on = true;
+
+    /**
+     * The message digest associated with this stream.
+     */
+    protected Digest digest;
+
+    /**
+     * Creates a digest input stream, using the specified input stream
+     * and message digest.
+     *
+     * @param stream the input stream.
+     * @param digest the message digest to associate with this stream.
+     */
+    public DigestInputStream(InputStream stream, Digest digest) {
+        super(stream);
+        setMessageDigest(digest);
+    }
+
+    /**
+     * Returns the message digest associated with this stream.
+     *
+     * @return the message digest associated with this stream.
+     * @see #setMessageDigest(Digest)
+     */
+    public Digest getDigest() {
+        return digest;
+    }
+
+    /**
+     * Associates the specified message digest with this stream.
+     *
+     * @param digest the message digest to be associated with this stream.
+     * @see #getDigest()
+     */
+    public void setMessageDigest(Digest digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * Reads a byte, and updates the message digest (if the digest
+     * function is on) with it.
+     *
+     * @return the byte read, or -1 if the end of the stream is reached.
+     * @exception IOException if an I/O error occurs.
+     */
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (on && b != -1) {
+            digest.update((byte) b);
+        }
+        return b;
+    }
+
+    /**
+     * Reads into a byte array, and updates the message digest (if the
+     * digest function is on) with the bytes read.
+     *
+     * @param b   the array into which the data is read.
+     * @param off the starting offset into {@code b} of where the
+     *            data should be placed.
+     * @param len the maximum number of bytes to be read from the input
+     *            stream into b, starting at offset {@code off}.
+     * @return the actual number of bytes read, or -1 if the end of the
+     * stream is reached.
+     * @exception IOException if an I/O error occurs.
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int result = in.read(b, off, len);
+        if (on && result > 0) {
+            digest.update(b, off, result);
+        }
+        return result;
+    }
+
+    /**
+     * Skipped bytes are read (and digested if the digest function is on) rather than skipped by the underlying
+     * stream, so that the digest covers the whole stream.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        if (!on) {
+            return in.skip(n);
+        }
+        byte[] buffer = new byte[(int) Math.min(n, DigestUtils.BUFSZ)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    /**
+     * Mark/reset isn't supported since bytes read again would be digested twice.
+     */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Turns the digest function on or off. The default is on.  When
+     * it is on, a call to one of the {@code read} methods results in an
+     * update on the message digest.  But when it is off, the message
+     * digest is not updated.
+     *
+     * @param on true to turn the digest function on, false to turn it
+     *           off.
+     */
+    public void on(boolean on) {
+        this.on = on;
+    }
+
+    /**
+     * Prints a string representation of this digest input stream and
+     * its associated message digest object.
+     */
+    public String toString() {
+        return "[Digest Input Stream] " + digest.toString();
+    }
+}
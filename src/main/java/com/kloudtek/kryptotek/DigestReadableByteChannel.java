@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Readable channel which updates a digest with the bytes read from an underlying channel. It can be passed as the
+ * source of {@link java.nio.channels.FileChannel#transferFrom(ReadableByteChannel, long, long)} in order to digest
+ * data while it's being written to a file.
+ */
+public class DigestReadableByteChannel implements ReadableByteChannel {
+    private final ReadableByteChannel channel;
+    private final Digest digest;
+    private boolean on = true;
+
+    public DigestReadableByteChannel(ReadableByteChannel channel, Digest digest) {
+        this.channel = channel;
+        this.digest = digest;
+    }
+
+    public Digest getDigest() {
+        return digest;
+    }
+
+    /**
+     * Turns the digest function on or off. The default is on.
+     *
+     * @param on true to turn the digest function on, false to turn it off.
+     */
+    public void on(boolean on) {
+        this.on = on;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int position = dst.position();
+        int read = channel.read(dst);
+        if (on && read > 0) {
+            ByteBuffer readData = dst.duplicate();
+            readData.limit(position + read);
+            readData.position(position);
+            digest.update(readData);
+        }
+        return read;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
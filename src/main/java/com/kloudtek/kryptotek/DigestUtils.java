@@ -5,13 +5,26 @@
 package com.kloudtek.kryptotek;
 
 import com.kloudtek.util.StringUtils;
+import com.kloudtek.util.UnexpectedException;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -24,6 +37,22 @@ public class DigestUtils {
     private static final Logger logger = Logger.getLogger(DigestUtils.class.getName());
     private static final SecureRandom random = new SecureRandom();
     public static final int BUFSZ = 8192;
+    /**
+     * Default size of the windows in which files are mapped into memory for digesting.
+     */
+    public static final int DEFAULT_MAP_WINDOW = 64 * 1024 * 1024;
+    /**
+     * Maximum size of the direct buffer used to read files that can't be mapped into memory.
+     */
+    private static final int MAX_READ_BUFFER = 1024 * 1024;
+    /**
+     * Minimum chunk size from which several digests of the same data are computed in parallel.
+     */
+    private static final int PARALLEL_DIGEST_THRESHOLD = 1024 * 1024;
+    /**
+     * Default size of the leaf chunks of tree digests.
+     */
+    public static final int DEFAULT_TREE_LEAF_SIZE = 1024 * 1024;
 
     /**
      * Create a digest object
@@ -35,6 +64,29 @@ public class DigestUtils {
         return CryptoUtils.engine.digest(alg);
     }
 
+    /**
+     * Create a digest whose intermediate state can be exported (see {@link CryptoEngine#resumableDigest(DigestAlgorithm)}).
+     * Please note that it is implemented in pure java, and so is slower than the digests returned by
+     * {@link #digest(DigestAlgorithm)}, which can use the JVM's SHA intrinsics.
+     *
+     * @param alg Digest algorithm
+     * @return Resumable digest
+     */
+    public static ResumableDigest resumableDigest(DigestAlgorithm alg) {
+        return CryptoUtils.engine.resumableDigest(alg);
+    }
+
+    /**
+     * Restore a digest from a state exported by {@link ResumableDigest#exportState()}.
+     *
+     * @param state Digest state
+     * @return Resumable digest
+     * @throws IllegalArgumentException If the state is invalid
+     */
+    public static ResumableDigest resumeDigest(byte[] state) {
+        return CryptoUtils.engine.resumeDigest(state);
+    }
+
     /**
      * Create a digest from a byte array
      *
@@ -47,7 +99,7 @@ public class DigestUtils {
     }
 
     /**
-     * Create a digest from a file
+     * Create a digest from a file. The file is mapped into memory by windows of {@link #DEFAULT_MAP_WINDOW} bytes.
      *
      * @param file File from which to create digest from
      * @param alg  Algorithm to use for digest
@@ -55,9 +107,92 @@ public class DigestUtils {
      * @throws java.io.IOException If an error occurs while reading the file
      */
     public static byte[] digest(File file, DigestAlgorithm alg) throws IOException {
+        return digest(file, alg, DEFAULT_MAP_WINDOW);
+    }
+
+    /**
+     * Create a digest from a file, which is mapped into memory by windows of the specified size.
+     *
+     * @param file       File from which to create digest from
+     * @param alg        Algorithm to use for digest
+     * @param windowSize Maximum number of bytes mapped into memory at a time
+     * @return digest value
+     * @throws java.io.IOException If an error occurs while reading the file
+     */
+    public static byte[] digest(File file, DigestAlgorithm alg, int windowSize) throws IOException {
+        FileInputStream is = new FileInputStream(file);
+        try {
+            return digest(is.getChannel(), alg, windowSize);
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Create a digest from the content of a file channel, from its current position to its end. The content is mapped
+     * into memory by windows of the specified size and each window is passed directly to the digest. Files that can't
+     * be mapped (or that don't report their size, like some special files) are read instead, using a direct buffer.
+     *
+     * @param channel    File channel
+     * @param alg        Algorithm to use for digest
+     * @param windowSize Maximum number of bytes mapped into memory at a time
+     * @return digest value
+     * @throws java.io.IOException If an error occurs while reading the file
+     */
+    public static byte[] digest(FileChannel channel, DigestAlgorithm alg, int windowSize) throws IOException {
+        Digest digest = digest(alg);
+        update(channel, windowSize, digest);
+        return digest.digest();
+    }
+
+    /**
+     * Copy the content of a file channel to another channel while digesting it (see
+     * {@link #transfer(FileChannel, WritableByteChannel, Digest, int)}), mapping windows of {@link #DEFAULT_MAP_WINDOW} bytes.
+     *
+     * @param source File channel to copy from
+     * @param target Channel to copy to
+     * @param digest Digest to update with the copied data
+     * @return Number of bytes copied
+     * @throws java.io.IOException If an error occurs while reading or writing
+     */
+    public static long transfer(FileChannel source, WritableByteChannel target, Digest digest) throws IOException {
+        return transfer(source, target, digest, DEFAULT_MAP_WINDOW);
+    }
+
+    /**
+     * Copy the content of a file channel, from its current position to its end, to another channel while digesting
+     * it. The content is mapped into memory by windows of the specified size, and each window is passed directly to
+     * the digest and then written to the target, so the data is never copied to the heap (unlike
+     * {@link FileChannel#transferTo(long, long, WritableByteChannel)} with a {@link DigestWritableByteChannel}).
+     * Files that can't be mapped are read instead, using a direct buffer.
+     *
+     * @param source     File channel to copy from
+     * @param target     Channel to copy to
+     * @param digest     Digest to update with the copied data
+     * @param windowSize Maximum number of bytes mapped into memory at a time
+     * @return Number of bytes copied
+     * @throws java.io.IOException If an error occurs while reading or writing
+     */
+    public static long transfer(FileChannel source, WritableByteChannel target, Digest digest, int windowSize) throws IOException {
+        return update(source, windowSize, target, digest);
+    }
+
+    /**
+     * Compute several digests of a file while reading it only once (see {@link #digestAll(FileChannel, int, DigestAlgorithm...)}).
+     *
+     * @param file File from which to create the digests
+     * @param algs Digest algorithms
+     * @return Digest values
+     * @throws java.io.IOException If an error occurs while reading the file
+     */
+    public static Map<DigestAlgorithm, byte[]> digestAll(File file, DigestAlgorithm... algs) throws IOException {
         FileInputStream is = new FileInputStream(file);
         try {
-            return digest(is, alg);
+            return digestAll(is.getChannel(), DEFAULT_MAP_WINDOW, algs);
         } finally {
             try {
                 is.close();
@@ -67,6 +202,196 @@ public class DigestUtils {
         }
     }
 
+    /**
+     * Compute several digests of the content of a file channel (from its current position to its end) while reading it
+     * only once. The content is mapped into memory by windows, and each window is passed to all digests (which are
+     * computed in parallel using {@link CryptoUtils#forkJoinPool()} when the window is large enough).
+     *
+     * @param channel    File channel
+     * @param windowSize Maximum number of bytes mapped into memory at a time
+     * @param algs       Digest algorithms
+     * @return Digest values
+     * @throws java.io.IOException If an error occurs while reading the file
+     */
+    public static Map<DigestAlgorithm, byte[]> digestAll(FileChannel channel, int windowSize, DigestAlgorithm... algs) throws IOException {
+        Digest[] digests = digests(algs);
+        update(channel, windowSize, digests);
+        return results(algs, digests);
+    }
+
+    /**
+     * Compute several digests of a stream while reading it only once. When there is more than one digest, each
+     * chunk is digested by all algorithms in parallel (using {@link CryptoUtils#forkJoinPool()}) while the next chunk is
+     * being read.
+     *
+     * @param inputStream Data stream
+     * @param algs        Digest algorithms
+     * @return Digest values
+     * @throws IOException If an error occurs reading from the stream
+     */
+    public static Map<DigestAlgorithm, byte[]> digestAll(InputStream inputStream, DigestAlgorithm... algs) throws IOException {
+        Digest[] digests = digests(algs);
+        if (digests.length == 1) {
+            byte[] buffer = new byte[BUFSZ];
+            for (int i = inputStream.read(buffer, 0, BUFSZ); i != -1; i = inputStream.read(buffer, 0, BUFSZ)) {
+                digests[0].update(buffer, 0, i);
+            }
+        } else {
+            // two buffers: one being digested while the other one is filled
+            byte[][] buffers = new byte[][]{new byte[PARALLEL_DIGEST_THRESHOLD], new byte[PARALLEL_DIGEST_THRESHOLD]};
+            int current = 0;
+            int len = readFully(inputStream, buffers[current]);
+            while (len > 0) {
+                List<ForkJoinTask<Void>> tasks = submitUpdates(ByteBuffer.wrap(buffers[current], 0, len), digests);
+                current ^= 1;
+                try {
+                    len = readFully(inputStream, buffers[current]);
+                } finally {
+                    for (ForkJoinTask<Void> task : tasks) {
+                        task.join();
+                    }
+                }
+            }
+        }
+        return results(algs, digests);
+    }
+
+    /**
+     * Compute several digests of the remaining content of a buffer, in parallel if the buffer is large enough. The
+     * buffer's position is moved to its limit.
+     *
+     * @param data Data
+     * @param algs Digest algorithms
+     * @return Digest values
+     */
+    public static Map<DigestAlgorithm, byte[]> digestAll(ByteBuffer data, DigestAlgorithm... algs) {
+        Digest[] digests = digests(algs);
+        update(data, digests);
+        return results(algs, digests);
+    }
+
+    private static Digest[] digests(DigestAlgorithm... algs) {
+        if (algs.length == 0) {
+            throw new IllegalArgumentException("At least one digest algorithm must be specified");
+        }
+        Digest[] digests = new Digest[algs.length];
+        for (int i = 0; i < algs.length; i++) {
+            digests[i] = digest(algs[i]);
+        }
+        return digests;
+    }
+
+    private static Map<DigestAlgorithm, byte[]> results(DigestAlgorithm[] algs, Digest[] digests) {
+        EnumMap<DigestAlgorithm, byte[]> results = new EnumMap<DigestAlgorithm, byte[]>(DigestAlgorithm.class);
+        for (int i = 0; i < algs.length; i++) {
+            results.put(algs[i], digests[i].digest());
+        }
+        return results;
+    }
+
+    /**
+     * Update digests with the content of a file channel (see {@link #digest(FileChannel, DigestAlgorithm, int)}).
+     */
+    private static void update(FileChannel channel, int windowSize, Digest... digests) throws IOException {
+        update(channel, windowSize, null, digests);
+    }
+
+    /**
+     * Update digests with the content of a file channel, also writing it to the target channel if there is one.
+     *
+     * @return Number of bytes read
+     */
+    private static long update(FileChannel channel, int windowSize, WritableByteChannel target, Digest... digests) throws IOException {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size must be positive");
+        }
+        long start = channel.position();
+        long position = start;
+        long size = channel.size();
+        boolean mapped = size > 0;
+        while (mapped && position < size) {
+            MappedByteBuffer window;
+            try {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, size - position));
+            } catch (IOException e) {
+                mapped = false;
+                break;
+            } catch (UnsupportedOperationException e) {
+                mapped = false;
+                break;
+            }
+            position += window.remaining();
+            update(window, target, digests);
+        }
+        if (mapped) {
+            channel.position(position);
+        } else {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(Math.min(windowSize, MAX_READ_BUFFER));
+            channel.position(position);
+            for (int read = channel.read(buffer); read != -1; read = channel.read(buffer)) {
+                position += read;
+                buffer.flip();
+                update(buffer, target, digests);
+                buffer.clear();
+            }
+        }
+        return position - start;
+    }
+
+    private static void update(ByteBuffer data, WritableByteChannel target, Digest... digests) throws IOException {
+        ByteBuffer output = target != null ? data.duplicate() : null;
+        update(data, digests);
+        if (output != null) {
+            while (output.hasRemaining()) {
+                target.write(output);
+            }
+        }
+    }
+
+    /**
+     * Update digests with the remaining content of a buffer, each digest being updated in parallel if there are more
+     * than one and the buffer is large enough.
+     */
+    private static void update(ByteBuffer data, Digest... digests) {
+        if (digests.length == 1 || data.remaining() < PARALLEL_DIGEST_THRESHOLD) {
+            for (Digest digest : digests) {
+                digest.update(data.duplicate());
+            }
+        } else {
+            for (ForkJoinTask<Void> task : submitUpdates(data, digests)) {
+                task.join();
+            }
+        }
+        data.position(data.limit());
+    }
+
+    private static List<ForkJoinTask<Void>> submitUpdates(ByteBuffer data, Digest... digests) {
+        ArrayList<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>(digests.length);
+        for (final Digest digest : digests) {
+            final ByteBuffer buffer = data.duplicate();
+            tasks.add(CryptoUtils.forkJoinPool().submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    digest.update(buffer);
+                    return null;
+                }
+            }));
+        }
+        return tasks;
+    }
+
+    private static int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+        int len = 0;
+        while (len < buffer.length) {
+            int read = inputStream.read(buffer, len, buffer.length - len);
+            if (read == -1) {
+                break;
+            }
+            len += read;
+        }
+        return len;
+    }
+
     /**
      * Read all data from a stream and create a digest from it
      *
@@ -84,6 +409,194 @@ public class DigestUtils {
         return digest.digest();
     }
 
+    /**
+     * Compute a tree (Merkle) digest of a file. The file is split in fixed-size leaf chunks which are digested in
+     * parallel using {@link CryptoUtils#forkJoinPool()}, and the leaf digests are then combined into a binary tree
+     * using the same structure and domain separation as RFC 6962: a leaf digest is H(0x00 || chunk), an interior node
+     * is H(0x01 || left || right), and the root of an empty file is H() (see {@link #treeRootDigest(List, DigestAlgorithm)}).
+     *
+     * @param file       File
+     * @param alg        Digest algorithm
+     * @param leafSize   Leaf chunk size in bytes (ie. {@link #DEFAULT_TREE_LEAF_SIZE})
+     * @param keepLeaves True if the leaf digests should be included in the result
+     * @return Tree digest
+     * @throws IOException If an error occurs while reading the file
+     */
+    public static TreeDigest treeDigest(File file, DigestAlgorithm alg, int leafSize, boolean keepLeaves) throws IOException {
+        FileInputStream is = new FileInputStream(file);
+        try {
+            FileChannel channel = is.getChannel();
+            return treeDigest(null, channel, channel.size(), alg, leafSize, keepLeaves);
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Compute a tree (Merkle) digest of the remaining content of a buffer (see {@link #treeDigest(File, DigestAlgorithm, int, boolean)}).
+     * The buffer's position isn't modified.
+     *
+     * @param data       Data
+     * @param alg        Digest algorithm
+     * @param leafSize   Leaf chunk size in bytes
+     * @param keepLeaves True if the leaf digests should be included in the result
+     * @return Tree digest
+     */
+    public static TreeDigest treeDigest(ByteBuffer data, DigestAlgorithm alg, int leafSize, boolean keepLeaves) {
+        try {
+            return treeDigest(data, null, data.remaining(), alg, leafSize, keepLeaves);
+        } catch (IOException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    private static TreeDigest treeDigest(ByteBuffer data, FileChannel channel, long length, DigestAlgorithm alg, int leafSize, boolean keepLeaves) throws IOException {
+        if (leafSize <= 0) {
+            throw new IllegalArgumentException("Leaf size must be positive");
+        }
+        long leafCount = (length + leafSize - 1) / leafSize;
+        if (leafCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Leaf size is too small for " + length + " bytes");
+        }
+        byte[][] leaves = new byte[(int) leafCount][];
+        if (leaves.length > 0) {
+            LeafDigestTask task = new LeafDigestTask(data, channel, length, alg, leafSize, leaves, 0, leaves.length,
+                    Math.max(1, leaves.length / (CryptoUtils.forkJoinPool().getParallelism() * 4)));
+            try {
+                CryptoUtils.forkJoinPool().invoke(task);
+            } catch (RuntimeException e) {
+                for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                }
+                throw e;
+            }
+        }
+        List<byte[]> leafList = Arrays.asList(leaves);
+        return new TreeDigest(alg, leafSize, treeRootDigest(leafList, alg), keepLeaves ? leafList : null);
+    }
+
+    /**
+     * Compute the digest of a tree leaf, which can be used to verify a chunk against the leaves of a {@link TreeDigest}.
+     *
+     * @param chunk Leaf chunk (its remaining content is digested, and its position moved to its limit)
+     * @param alg   Digest algorithm
+     * @return Leaf digest: H(0x00 || chunk)
+     */
+    public static byte[] treeLeafDigest(ByteBuffer chunk, DigestAlgorithm alg) {
+        Digest digest = digest(alg);
+        digest.update((byte) 0);
+        digest.update(chunk);
+        return digest.digest();
+    }
+
+    /**
+     * Compute the root of a tree from its leaf digests. As in RFC 6962, a tree of n &gt; 1 leaves is split after the
+     * largest power of two lower than n, and the root is H(0x01 || left root || right root).
+     *
+     * @param leafDigests Leaf digests
+     * @param alg         Digest algorithm
+     * @return Root digest
+     */
+    public static byte[] treeRootDigest(List<byte[]> leafDigests, DigestAlgorithm alg) {
+        if (leafDigests.isEmpty()) {
+            return digest(new byte[0], alg);
+        }
+        return treeNodeDigest(leafDigests, 0, leafDigests.size(), digest(alg));
+    }
+
+    private static byte[] treeNodeDigest(List<byte[]> leafDigests, int from, int to, Digest digest) {
+        int count = to - from;
+        if (count == 1) {
+            return leafDigests.get(from);
+        }
+        int split = Integer.highestOneBit(count - 1);
+        byte[] left = treeNodeDigest(leafDigests, from, from + split, digest);
+        byte[] right = treeNodeDigest(leafDigests, from + split, to, digest);
+        digest.update((byte) 1);
+        digest.update(left);
+        digest.update(right);
+        return digest.digest();
+    }
+
+    /**
+     * Computes the digests of a range of leaves, splitting the range in sub-tasks down to a minimum number of leaves.
+     */
+    private static class LeafDigestTask extends RecursiveAction {
+        private static final long serialVersionUID = -2964148317209530911L;
+        private final ByteBuffer data;
+        private final FileChannel channel;
+        private final long length;
+        private final DigestAlgorithm alg;
+        private final int leafSize;
+        private final byte[][] leaves;
+        private final int from;
+        private final int to;
+        private final int batchSize;
+
+        private LeafDigestTask(ByteBuffer data, FileChannel channel, long length, DigestAlgorithm alg, int leafSize,
+                               byte[][] leaves, int from, int to, int batchSize) {
+            this.data = data;
+            this.channel = channel;
+            this.length = length;
+            this.alg = alg;
+            this.leafSize = leafSize;
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > batchSize) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new LeafDigestTask(data, channel, length, alg, leafSize, leaves, from, mid, batchSize),
+                        new LeafDigestTask(data, channel, length, alg, leafSize, leaves, mid, to, batchSize));
+                return;
+            }
+            ByteBuffer buffer = channel != null ? ByteBuffer.allocateDirect(leafSize) : null;
+            for (int i = from; i < to; i++) {
+                long offset = (long) i * leafSize;
+                int len = (int) Math.min(leafSize, length - offset);
+                ByteBuffer chunk;
+                if (channel != null) {
+                    buffer.clear();
+                    buffer.limit(len);
+                    try {
+                        while (buffer.hasRemaining()) {
+                            if (channel.read(buffer, offset + buffer.position()) == -1) {
+                                throw new EOFException("File was truncated while being digested");
+                            }
+                        }
+                    } catch (IOException e) {
+                        throw new TreeDigestException(e);
+                    }
+                    buffer.flip();
+                    chunk = buffer;
+                } else {
+                    chunk = data.duplicate();
+                    chunk.position(data.position() + (int) offset);
+                    chunk.limit(chunk.position() + len);
+                }
+                leaves[i] = treeLeafDigest(chunk, alg);
+            }
+        }
+    }
+
+    private static class TreeDigestException extends RuntimeException {
+        private static final long serialVersionUID = 5519703362574103238L;
+
+        private TreeDigestException(IOException cause) {
+            super(cause);
+        }
+    }
+
     /**
      * Create a salted digest from the provided data
      *
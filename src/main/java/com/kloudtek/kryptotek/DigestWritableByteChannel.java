@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writable channel which updates a digest with the bytes written to an underlying channel. Please note that when it
+ * is used as the target of {@link java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)}, the
+ * file is generally read into small heap buffers before being written, so
+ * {@link DigestUtils#transfer(java.nio.channels.FileChannel, WritableByteChannel, Digest)} should be used instead to
+ * copy and digest a file through mapped buffers.
+ */
+public class DigestWritableByteChannel implements WritableByteChannel {
+    private final WritableByteChannel channel;
+    private final Digest digest;
+    private boolean on = true;
+
+    public DigestWritableByteChannel(WritableByteChannel channel, Digest digest) {
+        this.channel = channel;
+        this.digest = digest;
+    }
+
+    public Digest getDigest() {
+        return digest;
+    }
+
+    /**
+     * Turns the digest function on or off. The default is on.
+     *
+     * @param on true to turn the digest function on, false to turn it off.
+     */
+    public void on(boolean on) {
+        this.on = on;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ByteBuffer written = src.duplicate();
+        int count = channel.write(src);
+        if (on && count > 0) {
+            written.limit(written.position() + count);
+            digest.update(written);
+        }
+        return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek;
+
+/**
+ * How data is encrypted by the hybrid (asymmetric + symmetric) encryption functions, such as
+ * {@link CryptoEngine#encrypt(com.kloudtek.kryptotek.key.EncryptionKey, SymmetricAlgorithm, String, int, byte[], String, EnvelopeMode)}.
+ */
+public enum EnvelopeMode {
+    /**
+     * Pick {@link #DIRECT} or {@link #WRAPPED_KEY} based on the payload size (see {@link CryptoEngine#planEnvelope(com.kloudtek.kryptotek.key.EncryptionKey, int, String)}).
+     */
+    AUTO,
+    /**
+     * Data is directly encrypted using the key.
+     */
+    DIRECT,
+    /**
+     * Data is encrypted using a randomly generated symmetric key, which is itself encrypted using the key.
+     */
+    WRAPPED_KEY
+}
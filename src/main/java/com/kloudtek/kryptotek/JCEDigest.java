@@ -11,7 +11,7 @@ import java.security.MessageDigest;
 /**
  * Created by yannick on 19/08/2014.
  */
-public class JCEDigest implements Digest {
+public class JCEDigest implements CopyableDigest {
     private MessageDigest messageDigest;
 
     public JCEDigest(MessageDigest messageDigest) {
@@ -67,4 +67,13 @@ public class JCEDigest implements Digest {
     public void update(byte input) {
         messageDigest.update(input);
     }
+
+    @Override
+    public JCEDigest copy() {
+        try {
+            return new JCEDigest((MessageDigest) messageDigest.clone());
+        } catch (CloneNotSupportedException e) {
+            throw new UnsupportedOperationException("Digest provider doesn't support cloning " + messageDigest.getAlgorithm());
+        }
+    }
 }
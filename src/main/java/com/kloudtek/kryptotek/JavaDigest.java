@@ -0,0 +1,591 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek;
+
+import com.kloudtek.util.UnexpectedException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+
+/**
+ * Pure java implementations of the supported digest algorithms, which unlike the JCE's allow their intermediate
+ * state to be exported and restored.
+ */
+abstract class JavaDigest implements ResumableDigest, Cloneable {
+    private static final int STATE_VERSION = 1;
+    private final DigestAlgorithm algorithm;
+    private final int blockSize;
+    private byte[] buffer;
+    private int bufferLen;
+    private long byteCount;
+
+    private JavaDigest(DigestAlgorithm algorithm, int blockSize) {
+        this.algorithm = algorithm;
+        this.blockSize = blockSize;
+        buffer = new byte[blockSize];
+    }
+
+    static JavaDigest create(DigestAlgorithm algorithm) {
+        switch (algorithm) {
+            case MD5:
+                return new MD5();
+            case SHA1:
+                return new SHA1();
+            case SHA256:
+                return new SHA256();
+            case SHA512:
+                return new SHA512();
+            default:
+                throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm);
+        }
+    }
+
+    static JavaDigest restore(byte[] state) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+            if (in.readUnsignedByte() != STATE_VERSION) {
+                throw new IllegalArgumentException("Unsupported digest state version");
+            }
+            // the algorithm is identified by name, since enum ordinals aren't stable across versions
+            DigestAlgorithm algorithm;
+            try {
+                algorithm = DigestAlgorithm.valueOf(in.readUTF());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid digest state", e);
+            }
+            JavaDigest digest = create(algorithm);
+            digest.byteCount = in.readLong();
+            digest.bufferLen = in.readUnsignedShort();
+            if (digest.byteCount < 0 || digest.bufferLen >= digest.blockSize || digest.byteCount % digest.blockSize != digest.bufferLen) {
+                throw new IllegalArgumentException("Invalid digest state");
+            }
+            in.readFully(digest.buffer, 0, digest.bufferLen);
+            digest.readState(in);
+            if (in.read() != -1) {
+                throw new IllegalArgumentException("Invalid digest state");
+            }
+            return digest;
+        } catch (EOFException e) {
+            throw new IllegalArgumentException("Invalid digest state");
+        } catch (UTFDataFormatException e) {
+            throw new IllegalArgumentException("Invalid digest state");
+        } catch (IOException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public byte[] exportState() {
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            out.writeByte(STATE_VERSION);
+            out.writeUTF(algorithm.name());
+            out.writeLong(byteCount);
+            out.writeShort(bufferLen);
+            out.write(buffer, 0, bufferLen);
+            writeState(out);
+            out.close();
+            return buf.toByteArray();
+        } catch (IOException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public JavaDigest copy() {
+        try {
+            JavaDigest copy = (JavaDigest) clone();
+            copy.buffer = buffer.clone();
+            copy.cloneState();
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public void restore(ResumableDigest digest) {
+        if (!(digest instanceof JavaDigest) || ((JavaDigest) digest).algorithm != algorithm) {
+            throw new IllegalArgumentException("Can only restore the state of a " + algorithm.name() + " digest");
+        }
+        JavaDigest other = (JavaDigest) digest;
+        System.arraycopy(other.buffer, 0, buffer, 0, other.bufferLen);
+        bufferLen = other.bufferLen;
+        byteCount = other.byteCount;
+        restoreState(other);
+    }
+
+    @Override
+    public byte[] digest() {
+        byte[] result = new byte[algorithm.getHashLen()];
+        finish(result, 0);
+        return result;
+    }
+
+    @Override
+    public int digest(byte[] buf, int offset, int len) throws DigestException {
+        if (len < algorithm.getHashLen()) {
+            throw new DigestException("Output buffer too small");
+        }
+        finish(buf, offset);
+        return algorithm.getHashLen();
+    }
+
+    @Override
+    public byte[] digest(byte[] input) {
+        update(input);
+        return digest();
+    }
+
+    @Override
+    public void reset() {
+        bufferLen = 0;
+        byteCount = 0;
+        resetState();
+    }
+
+    @Override
+    public int getDigestLength() {
+        return algorithm.getHashLen();
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return algorithm.getJceId();
+    }
+
+    @Override
+    public void update(ByteBuffer input) {
+        if (input.hasArray()) {
+            update(input.array(), input.arrayOffset() + input.position(), input.remaining());
+            input.position(input.limit());
+        } else {
+            byte[] chunk = new byte[Math.min(input.remaining(), 64 * blockSize)];
+            while (input.hasRemaining()) {
+                int len = Math.min(input.remaining(), chunk.length);
+                input.get(chunk, 0, len);
+                update(chunk, 0, len);
+            }
+        }
+    }
+
+    @Override
+    public void update(byte[] input) {
+        update(input, 0, input.length);
+    }
+
+    @Override
+    public void update(byte[] input, int offset, int len) {
+        byteCount += len;
+        if (bufferLen > 0) {
+            int chunk = Math.min(len, blockSize - bufferLen);
+            System.arraycopy(input, offset, buffer, bufferLen, chunk);
+            bufferLen += chunk;
+            offset += chunk;
+            len -= chunk;
+            if (bufferLen < blockSize) {
+                return;
+            }
+            processBlock(buffer, 0);
+            bufferLen = 0;
+        }
+        while (len >= blockSize) {
+            processBlock(input, offset);
+            offset += blockSize;
+            len -= blockSize;
+        }
+        System.arraycopy(input, offset, buffer, 0, len);
+        bufferLen = len;
+    }
+
+    @Override
+    public void update(byte input) {
+        byteCount++;
+        buffer[bufferLen++] = input;
+        if (bufferLen == blockSize) {
+            processBlock(buffer, 0);
+            bufferLen = 0;
+        }
+    }
+
+    private void finish(byte[] out, int offset) {
+        // MD-strengthening: 0x80, zeros, and the message length in bits (SHA-512 uses a 128 bits length)
+        long count = byteCount;
+        int lengthSize = blockSize / 8;
+        update((byte) 0x80);
+        while (bufferLen != blockSize - lengthSize) {
+            update((byte) 0);
+        }
+        byte[] length = new byte[lengthSize];
+        for (int i = 0; i < 8; i++) {
+            length[lengthSize - 1 - i] = (byte) ((count << 3) >>> (i * 8));
+        }
+        if (lengthSize > 8) {
+            length[lengthSize - 9] = (byte) (count >>> 61);
+        }
+        if (isLittleEndian()) {
+            for (int i = 0; i < lengthSize / 2; i++) {
+                byte b = length[i];
+                length[i] = length[lengthSize - 1 - i];
+                length[lengthSize - 1 - i] = b;
+            }
+        }
+        update(length);
+        output(out, offset);
+        reset();
+    }
+
+    protected boolean isLittleEndian() {
+        return false;
+    }
+
+    protected abstract void processBlock(byte[] data, int offset);
+
+    protected abstract void output(byte[] out, int offset);
+
+    protected abstract void resetState();
+
+    protected abstract void cloneState();
+
+    protected abstract void restoreState(JavaDigest other);
+
+    protected abstract void writeState(DataOutputStream out) throws IOException;
+
+    protected abstract void readState(DataInputStream in) throws IOException;
+
+    private static int bigEndianInt(byte[] data, int offset) {
+        return data[offset] << 24 | (data[offset + 1] & 0xFF) << 16 | (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+    }
+
+    private static void writeBigEndianInt(int value, byte[] out, int offset) {
+        out[offset] = (byte) (value >>> 24);
+        out[offset + 1] = (byte) (value >>> 16);
+        out[offset + 2] = (byte) (value >>> 8);
+        out[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Base class for digests whose state is made of 32 bits words.
+     */
+    private abstract static class IntStateDigest extends JavaDigest {
+        private final int[] iv;
+        protected int[] h;
+        protected int[] w;
+
+        private IntStateDigest(DigestAlgorithm algorithm, int[] iv, int scheduleLen) {
+            super(algorithm, 64);
+            this.iv = iv;
+            h = new int[iv.length];
+            w = new int[scheduleLen];
+            reset();
+        }
+
+        @Override
+        protected void resetState() {
+            System.arraycopy(iv, 0, h, 0, iv.length);
+        }
+
+        @Override
+        protected void cloneState() {
+            h = h.clone();
+            w = new int[w.length];
+        }
+
+        @Override
+        protected void restoreState(JavaDigest other) {
+            System.arraycopy(((IntStateDigest) other).h, 0, h, 0, h.length);
+        }
+
+        @Override
+        protected void writeState(DataOutputStream out) throws IOException {
+            for (int word : h) {
+                out.writeInt(word);
+            }
+        }
+
+        @Override
+        protected void readState(DataInputStream in) throws IOException {
+            for (int i = 0; i < h.length; i++) {
+                h[i] = in.readInt();
+            }
+        }
+    }
+
+    private static class MD5 extends IntStateDigest {
+        private static final int[] K = new int[64];
+        private static final int[] S = {7, 12, 17, 22, 5, 9, 14, 20, 4, 11, 16, 23, 6, 10, 15, 21};
+
+        static {
+            for (int i = 0; i < 64; i++) {
+                K[i] = (int) (long) StrictMath.floor(StrictMath.abs(StrictMath.sin(i + 1)) * 4294967296.0);
+            }
+        }
+
+        private MD5() {
+            super(DigestAlgorithm.MD5, new int[]{0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476}, 16);
+        }
+
+        @Override
+        protected boolean isLittleEndian() {
+            return true;
+        }
+
+        @Override
+        protected void processBlock(byte[] data, int offset) {
+            for (int i = 0; i < 16; i++) {
+                int o = offset + i * 4;
+                w[i] = (data[o] & 0xFF) | (data[o + 1] & 0xFF) << 8 | (data[o + 2] & 0xFF) << 16 | data[o + 3] << 24;
+            }
+            int a = h[0], b = h[1], c = h[2], d = h[3];
+            for (int i = 0; i < 64; i++) {
+                int f;
+                int g;
+                if (i < 16) {
+                    f = (b & c) | (~b & d);
+                    g = i;
+                } else if (i < 32) {
+                    f = (d & b) | (~d & c);
+                    g = (5 * i + 1) & 15;
+                } else if (i < 48) {
+                    f = b ^ c ^ d;
+                    g = (3 * i + 5) & 15;
+                } else {
+                    f = c ^ (b | ~d);
+                    g = (7 * i) & 15;
+                }
+                f += a + K[i] + w[g];
+                a = d;
+                d = c;
+                c = b;
+                b += Integer.rotateLeft(f, S[(i >>> 4) * 4 + (i & 3)]);
+            }
+            h[0] += a;
+            h[1] += b;
+            h[2] += c;
+            h[3] += d;
+        }
+
+        @Override
+        protected void output(byte[] out, int offset) {
+            for (int i = 0; i < 16; i++) {
+                out[offset + i] = (byte) (h[i >>> 2] >>> ((i & 3) * 8));
+            }
+        }
+    }
+
+    private static class SHA1 extends IntStateDigest {
+        private SHA1() {
+            super(DigestAlgorithm.SHA1, new int[]{0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476, 0xc3d2e1f0}, 80);
+        }
+
+        @Override
+        protected void processBlock(byte[] data, int offset) {
+            for (int i = 0; i < 16; i++) {
+                w[i] = bigEndianInt(data, offset + i * 4);
+            }
+            for (int i = 16; i < 80; i++) {
+                w[i] = Integer.rotateLeft(w[i - 3] ^ w[i - 8] ^ w[i - 14] ^ w[i - 16], 1);
+            }
+            int a = h[0], b = h[1], c = h[2], d = h[3], e = h[4];
+            for (int i = 0; i < 80; i++) {
+                int f;
+                if (i < 20) {
+                    f = ((b & c) | (~b & d)) + 0x5a827999;
+                } else if (i < 40) {
+                    f = (b ^ c ^ d) + 0x6ed9eba1;
+                } else if (i < 60) {
+                    f = ((b & c) | (b & d) | (c & d)) + 0x8f1bbcdc;
+                } else {
+                    f = (b ^ c ^ d) + 0xca62c1d6;
+                }
+                int temp = Integer.rotateLeft(a, 5) + f + e + w[i];
+                e = d;
+                d = c;
+                c = Integer.rotateLeft(b, 30);
+                b = a;
+                a = temp;
+            }
+            h[0] += a;
+            h[1] += b;
+            h[2] += c;
+            h[3] += d;
+            h[4] += e;
+        }
+
+        @Override
+        protected void output(byte[] out, int offset) {
+            for (int i = 0; i < 5; i++) {
+                writeBigEndianInt(h[i], out, offset + i * 4);
+            }
+        }
+    }
+
+    private static class SHA256 extends IntStateDigest {
+        private static final int[] K = {
+                0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+                0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+                0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+                0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+                0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+                0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+                0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+                0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2};
+
+        private SHA256() {
+            super(DigestAlgorithm.SHA256, new int[]{0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f,
+                    0x9b05688c, 0x1f83d9ab, 0x5be0cd19}, 64);
+        }
+
+        @Override
+        protected void processBlock(byte[] data, int offset) {
+            for (int i = 0; i < 16; i++) {
+                w[i] = bigEndianInt(data, offset + i * 4);
+            }
+            for (int i = 16; i < 64; i++) {
+                int s0 = Integer.rotateRight(w[i - 15], 7) ^ Integer.rotateRight(w[i - 15], 18) ^ (w[i - 15] >>> 3);
+                int s1 = Integer.rotateRight(w[i - 2], 17) ^ Integer.rotateRight(w[i - 2], 19) ^ (w[i - 2] >>> 10);
+                w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+            }
+            int a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], hh = h[7];
+            for (int i = 0; i < 64; i++) {
+                int t1 = hh + (Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25))
+                        + ((e & f) ^ (~e & g)) + K[i] + w[i];
+                int t2 = (Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22))
+                        + ((a & b) ^ (a & c) ^ (b & c));
+                hh = g;
+                g = f;
+                f = e;
+                e = d + t1;
+                d = c;
+                c = b;
+                b = a;
+                a = t1 + t2;
+            }
+            h[0] += a;
+            h[1] += b;
+            h[2] += c;
+            h[3] += d;
+            h[4] += e;
+            h[5] += f;
+            h[6] += g;
+            h[7] += hh;
+        }
+
+        @Override
+        protected void output(byte[] out, int offset) {
+            for (int i = 0; i < 8; i++) {
+                writeBigEndianInt(h[i], out, offset + i * 4);
+            }
+        }
+    }
+
+    private static class SHA512 extends JavaDigest {
+        private static final long[] IV = {0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL,
+                0xa54ff53a5f1d36f1L, 0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L};
+        private static final long[] K = {
+                0x428a2f98d728ae22L, 0x7137449123ef65cdL, 0xb5c0fbcfec4d3b2fL, 0xe9b5dba58189dbbcL,
+                0x3956c25bf348b538L, 0x59f111f1b605d019L, 0x923f82a4af194f9bL, 0xab1c5ed5da6d8118L,
+                0xd807aa98a3030242L, 0x12835b0145706fbeL, 0x243185be4ee4b28cL, 0x550c7dc3d5ffb4e2L,
+                0x72be5d74f27b896fL, 0x80deb1fe3b1696b1L, 0x9bdc06a725c71235L, 0xc19bf174cf692694L,
+                0xe49b69c19ef14ad2L, 0xefbe4786384f25e3L, 0x0fc19dc68b8cd5b5L, 0x240ca1cc77ac9c65L,
+                0x2de92c6f592b0275L, 0x4a7484aa6ea6e483L, 0x5cb0a9dcbd41fbd4L, 0x76f988da831153b5L,
+                0x983e5152ee66dfabL, 0xa831c66d2db43210L, 0xb00327c898fb213fL, 0xbf597fc7beef0ee4L,
+                0xc6e00bf33da88fc2L, 0xd5a79147930aa725L, 0x06ca6351e003826fL, 0x142929670a0e6e70L,
+                0x27b70a8546d22ffcL, 0x2e1b21385c26c926L, 0x4d2c6dfc5ac42aedL, 0x53380d139d95b3dfL,
+                0x650a73548baf63deL, 0x766a0abb3c77b2a8L, 0x81c2c92e47edaee6L, 0x92722c851482353bL,
+                0xa2bfe8a14cf10364L, 0xa81a664bbc423001L, 0xc24b8b70d0f89791L, 0xc76c51a30654be30L,
+                0xd192e819d6ef5218L, 0xd69906245565a910L, 0xf40e35855771202aL, 0x106aa07032bbd1b8L,
+                0x19a4c116b8d2d0c8L, 0x1e376c085141ab53L, 0x2748774cdf8eeb99L, 0x34b0bcb5e19b48a8L,
+                0x391c0cb3c5c95a63L, 0x4ed8aa4ae3418acbL, 0x5b9cca4f7763e373L, 0x682e6ff3d6b2b8a3L,
+                0x748f82ee5defb2fcL, 0x78a5636f43172f60L, 0x84c87814a1f0ab72L, 0x8cc702081a6439ecL,
+                0x90befffa23631e28L, 0xa4506cebde82bde9L, 0xbef9a3f7b2c67915L, 0xc67178f2e372532bL,
+                0xca273eceea26619cL, 0xd186b8c721c0c207L, 0xeada7dd6cde0eb1eL, 0xf57d4f7fee6ed178L,
+                0x06f067aa72176fbaL, 0x0a637dc5a2c898a6L, 0x113f9804bef90daeL, 0x1b710b35131c471bL,
+                0x28db77f523047d84L, 0x32caab7b40c72493L, 0x3c9ebe0a15c9bebcL, 0x431d67c49c100d4cL,
+                0x4cc5d4becb3e42b6L, 0x597f299cfc657e2aL, 0x5fcb6fab3ad6faecL, 0x6c44198c4a475817L};
+        private long[] h = new long[8];
+        private long[] w = new long[80];
+
+        private SHA512() {
+            super(DigestAlgorithm.SHA512, 128);
+            reset();
+        }
+
+        @Override
+        protected void processBlock(byte[] data, int offset) {
+            for (int i = 0; i < 16; i++) {
+                w[i] = (long) bigEndianInt(data, offset + i * 8) << 32 | (bigEndianInt(data, offset + i * 8 + 4) & 0xFFFFFFFFL);
+            }
+            for (int i = 16; i < 80; i++) {
+                long s0 = Long.rotateRight(w[i - 15], 1) ^ Long.rotateRight(w[i - 15], 8) ^ (w[i - 15] >>> 7);
+                long s1 = Long.rotateRight(w[i - 2], 19) ^ Long.rotateRight(w[i - 2], 61) ^ (w[i - 2] >>> 6);
+                w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+            }
+            long a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], hh = h[7];
+            for (int i = 0; i < 80; i++) {
+                long t1 = hh + (Long.rotateRight(e, 14) ^ Long.rotateRight(e, 18) ^ Long.rotateRight(e, 41))
+                        + ((e & f) ^ (~e & g)) + K[i] + w[i];
+                long t2 = (Long.rotateRight(a, 28) ^ Long.rotateRight(a, 34) ^ Long.rotateRight(a, 39))
+                        + ((a & b) ^ (a & c) ^ (b & c));
+                hh = g;
+                g = f;
+                f = e;
+                e = d + t1;
+                d = c;
+                c = b;
+                b = a;
+                a = t1 + t2;
+            }
+            h[0] += a;
+            h[1] += b;
+            h[2] += c;
+            h[3] += d;
+            h[4] += e;
+            h[5] += f;
+            h[6] += g;
+            h[7] += hh;
+        }
+
+        @Override
+        protected void output(byte[] out, int offset) {
+            for (int i = 0; i < 8; i++) {
+                writeBigEndianInt((int) (h[i] >>> 32), out, offset + i * 8);
+                writeBigEndianInt((int) h[i], out, offset + i * 8 + 4);
+            }
+        }
+
+        @Override
+        protected void resetState() {
+            System.arraycopy(IV, 0, h, 0, 8);
+        }
+
+        @Override
+        protected void cloneState() {
+            h = h.clone();
+            w = new long[80];
+        }
+
+        @Override
+        protected void restoreState(JavaDigest other) {
+            System.arraycopy(((SHA512) other).h, 0, h, 0, 8);
+        }
+
+        @Override
+        protected void writeState(DataOutputStream out) throws IOException {
+            for (long word : h) {
+                out.writeLong(word);
+            }
+        }
+
+        @Override
+        protected void readState(DataInputStream in) throws IOException {
+            for (int i = 0; i < 8; i++) {
+                h[i] = in.readLong();
+            }
+        }
+    }
+}
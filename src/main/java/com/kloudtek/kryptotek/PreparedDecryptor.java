@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.security.InvalidKeyException;
+
+/**
+ * Decryption operation bound to a key, which keeps the initialized cryptographic state between messages (see
+ * {@link CryptoEngine#prepareDecryptor(com.kloudtek.kryptotek.key.DecryptionKey, String)}).
+ * Instances are not thread safe and must be confined to a single thread.
+ */
+public interface PreparedDecryptor extends Destroyable {
+    /**
+     * Decrypt data.
+     *
+     * @param data Data to decrypt
+     * @return Decrypted data
+     * @throws DecryptionException If an error occurred decrypting the data
+     */
+    byte[] decrypt(@NotNull byte[] data) throws DecryptionException;
+
+    /**
+     * Decrypt part of a byte array directly into a caller provided buffer.
+     *
+     * @param in        Input buffer
+     * @param inOffset  Offset of the encrypted data
+     * @param inLength  Length of the encrypted data
+     * @param out       Output buffer (must have at least {@link #getMaxDecryptedLength(int)} bytes available)
+     * @param outOffset Offset at which the decrypted data will be written
+     * @return Number of bytes written to the output buffer
+     * @throws DecryptionException If an error occurred decrypting the data
+     */
+    int decrypt(@NotNull byte[] in, int inOffset, int inLength, @NotNull byte[] out, int outOffset) throws DecryptionException;
+
+    int getMaxDecryptedLength(int encryptedLength) throws InvalidKeyException;
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.security.InvalidKeyException;
+
+/**
+ * Encryption operation bound to a key, which keeps the initialized cryptographic state between messages (see
+ * {@link CryptoEngine#prepareEncryptor(com.kloudtek.kryptotek.key.EncryptionKey, String)}).
+ * Instances are not thread safe and must be confined to a single thread.
+ */
+public interface PreparedEncryptor extends Destroyable {
+    /**
+     * Encrypt data. The output is identical to what {@link CryptoEngine#encrypt(com.kloudtek.kryptotek.key.EncryptionKey, byte[], String)} produces.
+     *
+     * @param data Data to encrypt
+     * @return Encrypted data
+     * @throws EncryptionException If an error occurred encrypting the data
+     */
+    byte[] encrypt(@NotNull byte[] data) throws EncryptionException;
+
+    /**
+     * Encrypt part of a byte array directly into a caller provided buffer.
+     *
+     * @param in        Input buffer
+     * @param inOffset  Offset of the data to encrypt
+     * @param inLength  Length of the data to encrypt
+     * @param out       Output buffer (must have at least {@link #getEncryptedLength(int)} bytes available)
+     * @param outOffset Offset at which the encrypted data will be written
+     * @return Number of bytes written to the output buffer
+     * @throws EncryptionException If an error occurred encrypting the data
+     */
+    int encrypt(@NotNull byte[] in, int inOffset, int inLength, @NotNull byte[] out, int outOffset) throws EncryptionException;
+
+    int getEncryptedLength(int dataLength) throws InvalidKeyException;
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.security.InvalidKeyException;
+
+/**
+ * Signing operation bound to a key, which keeps the initialized cryptographic state between messages (see
+ * {@link CryptoEngine#prepareSigner(com.kloudtek.kryptotek.key.SigningKey, DigestAlgorithm)}).
+ * Instances are not thread safe and must be confined to a single thread.
+ */
+public interface PreparedSigner extends Destroyable {
+    /**
+     * Sign data.
+     *
+     * @param data Data to sign
+     * @return Signature
+     * @throws InvalidKeyException If the key failed to sign the data
+     */
+    byte[] sign(@NotNull byte[] data) throws InvalidKeyException;
+}
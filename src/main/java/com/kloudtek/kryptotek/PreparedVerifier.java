@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.security.SignatureException;
+
+/**
+ * Signature verification operation bound to a key, which keeps the initialized cryptographic state between messages (see
+ * {@link CryptoEngine#prepareVerifier(com.kloudtek.kryptotek.key.SignatureVerificationKey, DigestAlgorithm)}).
+ * Instances are not thread safe and must be confined to a single thread.
+ */
+public interface PreparedVerifier extends Destroyable {
+    /**
+     * Verify a signature.
+     *
+     * @param data      Signed data
+     * @param signature Signature
+     * @throws SignatureException If the signature doesn't match the data
+     */
+    void verifySignature(@NotNull byte[] data, @NotNull byte[] signature) throws SignatureException;
+}
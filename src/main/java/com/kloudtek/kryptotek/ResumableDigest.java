@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek;
+
+/**
+ * Digest whose intermediate state can be exported, so that hashing can be resumed later (possibly on another
+ * system) using {@link CryptoEngine#resumeDigest(byte[])}, without having to process the previous data again.
+ */
+public interface ResumableDigest extends CopyableDigest {
+    /**
+     * Export the digest's current state. The state includes the data buffered since the last complete block, so
+     * it must be handled as sensitively as the data being digested.
+     *
+     * @return Serialized state
+     */
+    byte[] exportState();
+
+    /**
+     * Replace this digest's state with a copy of another one's. Unlike {@link #copy()} this doesn't allocate, so a
+     * loop which keeps restarting from the same intermediate state can reuse a single instance.
+     *
+     * @param digest Digest whose state should be copied
+     * @throws IllegalArgumentException If the digest uses another algorithm or implementation
+     */
+    void restore(ResumableDigest digest);
+
+    @Override
+    ResumableDigest copy();
+}
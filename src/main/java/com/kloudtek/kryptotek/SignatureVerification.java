@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek;
+
+import com.kloudtek.kryptotek.key.SignatureVerificationKey;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A signature to be checked as part of a batch (see {@link CryptoEngine#verifySignatures(java.util.List)}).
+ */
+public class SignatureVerification {
+    private final SignatureVerificationKey key;
+    private final DigestAlgorithm digestAlgorithm;
+    private final byte[] data;
+    private final byte[] signature;
+
+    public SignatureVerification(@NotNull SignatureVerificationKey key, @NotNull byte[] data, @NotNull byte[] signature) {
+        this(key, null, data, signature);
+    }
+
+    public SignatureVerification(@NotNull SignatureVerificationKey key, @Nullable DigestAlgorithm digestAlgorithm,
+                                 @NotNull byte[] data, @NotNull byte[] signature) {
+        this.key = key;
+        this.digestAlgorithm = digestAlgorithm;
+        this.data = data;
+        this.signature = signature;
+    }
+
+    @NotNull
+    public SignatureVerificationKey getKey() {
+        return key;
+    }
+
+    @Nullable
+    public DigestAlgorithm getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    @NotNull
+    public byte[] getData() {
+        return data;
+    }
+
+    @NotNull
+    public byte[] getSignature() {
+        return signature;
+    }
+}
@@ -5,15 +5,21 @@
 package com.kloudtek.kryptotek;
 
 import com.kloudtek.kryptotek.key.AESKey;
+import com.kloudtek.kryptotek.key.ChaCha20Key;
 import com.kloudtek.kryptotek.key.SymmetricKey;
 
 import static com.kloudtek.kryptotek.CryptoEngine.AES_CBC_PKCS_5_PADDING;
+import static com.kloudtek.kryptotek.CryptoEngine.AES_CTR_NO_PADDING;
+import static com.kloudtek.kryptotek.CryptoEngine.AES_GCM_NO_PADDING;
 
 /**
  * Created by yannick on 09/11/13.
  */
 public enum SymmetricAlgorithm {
-    AES(AESKey.class, AES_CBC_PKCS_5_PADDING);
+    AES(AESKey.class, AES_CBC_PKCS_5_PADDING),
+    AES_GCM(AESKey.class, "AES", AES_GCM_NO_PADDING, AES_GCM_NO_PADDING),
+    AES_CTR(AESKey.class, "AES", AES_CTR_NO_PADDING, AES_CTR_NO_PADDING),
+    CHACHA20_POLY1305(ChaCha20Key.class, "ChaCha20", CryptoEngine.CHACHA20_POLY1305, CryptoEngine.CHACHA20_POLY1305);
     private final String jceId;
     private final Class<? extends SymmetricKey> keyClass;
     private final String defaultCompatCipherAlg;
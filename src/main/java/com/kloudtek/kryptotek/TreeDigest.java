@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a tree (Merkle) digest computed by {@link DigestUtils#treeDigest(java.io.File, DigestAlgorithm, int, boolean)}:
+ * the root digest, and optionally the digests of each leaf chunk so that individual ranges can be verified later.
+ */
+public class TreeDigest {
+    private final DigestAlgorithm algorithm;
+    private final int leafSize;
+    private final byte[] root;
+    private final List<byte[]> leaves;
+
+    public TreeDigest(@NotNull DigestAlgorithm algorithm, int leafSize, @NotNull byte[] root, @Nullable List<byte[]> leaves) {
+        this.algorithm = algorithm;
+        this.leafSize = leafSize;
+        this.root = root;
+        this.leaves = leaves != null ? Collections.unmodifiableList(leaves) : null;
+    }
+
+    @NotNull
+    public DigestAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Get the size of the leaf chunks (the last one may be shorter).
+     *
+     * @return Leaf size in bytes
+     */
+    public int getLeafSize() {
+        return leafSize;
+    }
+
+    @NotNull
+    public byte[] getRoot() {
+        return root;
+    }
+
+    /**
+     * Get the digests of the leaf chunks, in order.
+     *
+     * @return Leaf digests, or null if they weren't kept
+     */
+    @Nullable
+    public List<byte[]> getLeaves() {
+        return leaves;
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.kryptotek.CryptoUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Argon2id (RFC 9106, version 0x13) implementation. The memory blocks are held in a direct buffer which is reused
+ * between derivations (see {@link JCECryptoEngine#releaseArgon2Memory()}), and the lanes of each slice are filled in
+ * parallel on the fork/join pool.
+ */
+class JCEArgon2 {
+    private static final int VERSION = 0x13;
+    private static final int TYPE_ARGON2ID = 2;
+    private static final int SYNC_POINTS = 4;
+    private static final int BLOCK_SIZE = 1024;
+    private static final int BLOCK_LONGS = BLOCK_SIZE / 8;
+    private final LongBuffer memory;
+    private final int lanes;
+    private final int laneLength;
+    private final int segmentLength;
+    private final int memoryBlocks;
+    private final int passes;
+
+    private JCEArgon2(LongBuffer memory, int lanes, int laneLength, int passes) {
+        this.memory = memory;
+        this.lanes = lanes;
+        this.laneLength = laneLength;
+        this.passes = passes;
+        segmentLength = laneLength / SYNC_POINTS;
+        memoryBlocks = laneLength * lanes;
+    }
+
+    /**
+     * Compute an Argon2id tag.
+     *
+     * @param password       Password
+     * @param salt           Salt (at least 8 bytes)
+     * @param secret         Optional secret value
+     * @param associatedData Optional associated data
+     * @param iterations     Number of passes
+     * @param memoryKiB      Memory size in kibibytes (at least 8 times the parallelism)
+     * @param parallelism    Number of lanes
+     * @param tagLen         Tag length in bytes
+     * @param arena          Holds the idle memory buffer between derivations
+     * @param parallel       True if the lanes should be filled in parallel
+     * @return Tag
+     */
+    static byte[] argon2id(byte[] password, byte[] salt, byte[] secret, byte[] associatedData, int iterations,
+                           int memoryKiB, int parallelism, int tagLen, AtomicReference<ByteBuffer> arena, boolean parallel) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Iteration count must be positive");
+        }
+        if (parallelism < 1 || parallelism > 0xFFFFFF) {
+            throw new IllegalArgumentException("Parallelism must be between 1 and 2^24-1");
+        }
+        if (memoryKiB < 8 * parallelism) {
+            throw new IllegalArgumentException("Memory size must be at least 8 times the parallelism");
+        }
+        if (memoryKiB > Integer.MAX_VALUE / BLOCK_SIZE) {
+            throw new IllegalArgumentException("Memory size must not exceed " + Integer.MAX_VALUE / BLOCK_SIZE + " KiB");
+        }
+        if (salt.length < 8) {
+            throw new IllegalArgumentException("Salt must be at least 8 bytes long");
+        }
+        if (tagLen < 4) {
+            throw new IllegalArgumentException("Tag length must be at least 4 bytes");
+        }
+        byte[] h0 = new byte[72];
+        new JCEBlake2b(64).updateInt(parallelism).updateInt(tagLen).updateInt(memoryKiB).updateInt(iterations)
+                .updateInt(VERSION).updateInt(TYPE_ARGON2ID)
+                .updateInt(password.length).update(password)
+                .updateInt(salt.length).update(salt)
+                .updateInt(secret != null ? secret.length : 0).update(secret != null ? secret : new byte[0])
+                .updateInt(associatedData != null ? associatedData.length : 0).update(associatedData != null ? associatedData : new byte[0])
+                .digest(h0, 0);
+        int laneLength = (memoryKiB / (SYNC_POINTS * parallelism)) * SYNC_POINTS;
+        int size = laneLength * parallelism * BLOCK_SIZE;
+        ByteBuffer buffer = arena.getAndSet(null);
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        }
+        JCEArgon2 argon2 = new JCEArgon2(buffer.asLongBuffer(), parallelism, laneLength, iterations);
+        try {
+            return argon2.compute(h0, tagLen, parallel);
+        } finally {
+            Arrays.fill(h0, (byte) 0);
+            argon2.wipe();
+            ByteBuffer idle = arena.get();
+            if (idle == null || idle.capacity() < buffer.capacity()) {
+                arena.compareAndSet(idle, buffer);
+            }
+        }
+    }
+
+    private byte[] compute(byte[] h0, int tagLen, boolean parallel) {
+        byte[] blockBytes = new byte[BLOCK_SIZE];
+        long[] block = new long[BLOCK_LONGS];
+        for (int lane = 0; lane < lanes; lane++) {
+            for (int i = 0; i < 2; i++) {
+                writeInt(h0, 64, i);
+                writeInt(h0, 68, lane);
+                hashLong(h0, blockBytes, BLOCK_SIZE);
+                toLongs(blockBytes, block);
+                memory.position((lane * laneLength + i) * BLOCK_LONGS);
+                memory.put(block);
+            }
+        }
+        final Lane[] laneFillers = new Lane[lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            laneFillers[lane] = new Lane(lane);
+        }
+        parallel = parallel && lanes > 1;
+        for (int pass = 0; pass < passes; pass++) {
+            for (int slice = 0; slice < SYNC_POINTS; slice++) {
+                if (parallel) {
+                    // lanes are only synchronized at the end of each slice
+                    ArrayList<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>(lanes - 1);
+                    for (int lane = 1; lane < lanes; lane++) {
+                        final Lane laneFiller = laneFillers[lane];
+                        final int p = pass;
+                        final int s = slice;
+                        tasks.add(CryptoUtils.forkJoinPool().submit(new Callable<Void>() {
+                            @Override
+                            public Void call() {
+                                laneFiller.fillSegment(p, s);
+                                return null;
+                            }
+                        }));
+                    }
+                    laneFillers[0].fillSegment(pass, slice);
+                    for (ForkJoinTask<Void> task : tasks) {
+                        task.join();
+                    }
+                } else {
+                    for (Lane laneFiller : laneFillers) {
+                        laneFiller.fillSegment(pass, slice);
+                    }
+                }
+            }
+        }
+        long[] last = new long[BLOCK_LONGS];
+        Arrays.fill(block, 0);
+        for (int lane = 0; lane < lanes; lane++) {
+            memory.position((lane * laneLength + laneLength - 1) * BLOCK_LONGS);
+            memory.get(last);
+            for (int i = 0; i < BLOCK_LONGS; i++) {
+                block[i] ^= last[i];
+            }
+        }
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            blockBytes[i] = (byte) (block[i >>> 3] >>> ((i & 7) * 8));
+        }
+        byte[] tag = new byte[tagLen];
+        hashLong(blockBytes, tag, tagLen);
+        Arrays.fill(blockBytes, (byte) 0);
+        Arrays.fill(block, 0);
+        Arrays.fill(last, 0);
+        return tag;
+    }
+
+    private void wipe() {
+        long[] zero = new long[BLOCK_LONGS];
+        memory.clear();
+        for (int i = 0; i < memoryBlocks; i++) {
+            memory.put(zero);
+        }
+    }
+
+    /**
+     * Fills the segments of a lane, using its own view of the memory and scratch blocks.
+     */
+    private class Lane {
+        private final int lane;
+        private final LongBuffer view = memory.duplicate();
+        private long[] prev = new long[BLOCK_LONGS];
+        private long[] next = new long[BLOCK_LONGS];
+        private final long[] ref = new long[BLOCK_LONGS];
+        private final long[] r = new long[BLOCK_LONGS];
+        private final long[] tmp = new long[BLOCK_LONGS];
+        private final long[] addressInput = new long[BLOCK_LONGS];
+        private final long[] addresses = new long[BLOCK_LONGS];
+        private final long[] zero = new long[BLOCK_LONGS];
+
+        private Lane(int lane) {
+            this.lane = lane;
+        }
+
+        private void fillSegment(int pass, int slice) {
+            boolean dataIndependent = pass == 0 && slice < SYNC_POINTS / 2;
+            if (dataIndependent) {
+                Arrays.fill(addressInput, 0);
+                addressInput[0] = pass;
+                addressInput[1] = lane;
+                addressInput[2] = slice;
+                addressInput[3] = memoryBlocks;
+                addressInput[4] = passes;
+                addressInput[5] = TYPE_ARGON2ID;
+            }
+            int startIndex = 0;
+            if (pass == 0 && slice == 0) {
+                startIndex = 2;
+                if (dataIndependent) {
+                    nextAddresses();
+                }
+            }
+            int currOffset = lane * laneLength + slice * segmentLength + startIndex;
+            int prevOffset = currOffset % laneLength == 0 ? currOffset + laneLength - 1 : currOffset - 1;
+            read(prevOffset, prev);
+            for (int i = startIndex; i < segmentLength; i++, currOffset++) {
+                long pseudoRand;
+                if (dataIndependent) {
+                    if (i % BLOCK_LONGS == 0) {
+                        nextAddresses();
+                    }
+                    pseudoRand = addresses[i % BLOCK_LONGS];
+                } else {
+                    pseudoRand = prev[0];
+                }
+                int refLane = pass == 0 && slice == 0 ? lane : (int) ((pseudoRand >>> 32) % lanes);
+                int refIndex = indexAlpha(pass, slice, i, pseudoRand & 0xFFFFFFFFL, refLane == lane);
+                read(refLane * laneLength + refIndex, ref);
+                if (pass > 0) {
+                    read(currOffset, next);
+                }
+                fillBlock(prev, ref, next, pass > 0);
+                view.position(currOffset * BLOCK_LONGS);
+                view.put(next);
+                long[] swap = prev;
+                prev = next;
+                next = swap;
+            }
+        }
+
+        private int indexAlpha(int pass, int slice, int index, long pseudoRand, boolean sameLane) {
+            long referenceAreaSize;
+            if (pass == 0) {
+                if (slice == 0) {
+                    referenceAreaSize = index - 1;
+                } else if (sameLane) {
+                    referenceAreaSize = slice * segmentLength + index - 1;
+                } else {
+                    referenceAreaSize = slice * segmentLength + (index == 0 ? -1 : 0);
+                }
+            } else if (sameLane) {
+                referenceAreaSize = laneLength - segmentLength + index - 1;
+            } else {
+                referenceAreaSize = laneLength - segmentLength + (index == 0 ? -1 : 0);
+            }
+            long relativePosition = (pseudoRand * pseudoRand) >>> 32;
+            relativePosition = referenceAreaSize - 1 - ((referenceAreaSize * relativePosition) >>> 32);
+            long startPosition = pass != 0 && slice != SYNC_POINTS - 1 ? (slice + 1) * segmentLength : 0;
+            return (int) ((startPosition + relativePosition) % laneLength);
+        }
+
+        private void nextAddresses() {
+            addressInput[6]++;
+            fillBlock(zero, addressInput, addresses, false);
+            fillBlock(zero, addresses, addresses, false);
+        }
+
+        private void read(int blockIndex, long[] block) {
+            view.position(blockIndex * BLOCK_LONGS);
+            view.get(block);
+        }
+
+        /**
+         * Compression function G: next = P(prev ^ ref) ^ prev ^ ref (also xored with next's previous content if requested).
+         */
+        private void fillBlock(long[] x, long[] y, long[] out, boolean withXor) {
+            for (int i = 0; i < BLOCK_LONGS; i++) {
+                r[i] = x[i] ^ y[i];
+                tmp[i] = withXor ? r[i] ^ out[i] : r[i];
+            }
+            for (int i = 0; i < 8; i++) {
+                int o = i * 16;
+                permute(o, o + 1, o + 2, o + 3, o + 4, o + 5, o + 6, o + 7, o + 8, o + 9, o + 10, o + 11, o + 12, o + 13, o + 14, o + 15);
+            }
+            for (int i = 0; i < 8; i++) {
+                int o = i * 2;
+                permute(o, o + 1, o + 16, o + 17, o + 32, o + 33, o + 48, o + 49, o + 64, o + 65, o + 80, o + 81, o + 96, o + 97, o + 112, o + 113);
+            }
+            for (int i = 0; i < BLOCK_LONGS; i++) {
+                out[i] = tmp[i] ^ r[i];
+            }
+        }
+
+        private void permute(int v0, int v1, int v2, int v3, int v4, int v5, int v6, int v7,
+                             int v8, int v9, int v10, int v11, int v12, int v13, int v14, int v15) {
+            gb(v0, v4, v8, v12);
+            gb(v1, v5, v9, v13);
+            gb(v2, v6, v10, v14);
+            gb(v3, v7, v11, v15);
+            gb(v0, v5, v10, v15);
+            gb(v1, v6, v11, v12);
+            gb(v2, v7, v8, v13);
+            gb(v3, v4, v9, v14);
+        }
+
+        private void gb(int a, int b, int c, int d) {
+            long[] v = r;
+            v[a] = fBlaMka(v[a], v[b]);
+            v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+            v[c] = fBlaMka(v[c], v[d]);
+            v[b] = Long.rotateRight(v[b] ^ v[c], 24);
+            v[a] = fBlaMka(v[a], v[b]);
+            v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+            v[c] = fBlaMka(v[c], v[d]);
+            v[b] = Long.rotateRight(v[b] ^ v[c], 63);
+        }
+    }
+
+    private static long fBlaMka(long x, long y) {
+        return x + y + 2 * (x & 0xFFFFFFFFL) * (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Variable-length hash function H' from the Argon2 specification.
+     */
+    private static void hashLong(byte[] input, byte[] out, int outLen) {
+        if (outLen <= 64) {
+            new JCEBlake2b(outLen).updateInt(outLen).update(input).digest(out, 0);
+            return;
+        }
+        byte[] v = new byte[64];
+        new JCEBlake2b(64).updateInt(outLen).update(input).digest(v, 0);
+        System.arraycopy(v, 0, out, 0, 32);
+        int pos = 32;
+        while (outLen - pos > 64) {
+            new JCEBlake2b(64).update(v).digest(v, 0);
+            System.arraycopy(v, 0, out, pos, 32);
+            pos += 32;
+        }
+        new JCEBlake2b(outLen - pos).update(v).digest(out, pos);
+        Arrays.fill(v, (byte) 0);
+    }
+
+    private static void toLongs(byte[] data, long[] longs) {
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = JCEBlake2b.littleEndianLong(data, i * 8);
+        }
+    }
+
+    private static void writeInt(byte[] data, int off, int value) {
+        data[off] = (byte) value;
+        data[off + 1] = (byte) (value >>> 8);
+        data[off + 2] = (byte) (value >>> 16);
+        data[off + 3] = (byte) (value >>> 24);
+    }
+}
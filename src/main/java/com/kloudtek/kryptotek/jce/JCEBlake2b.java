@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import java.util.Arrays;
+
+/**
+ * Unkeyed BLAKE2b (RFC 7693) with a variable output length, which isn't provided by the JCE but is required by Argon2.
+ */
+class JCEBlake2b {
+    private static final long[] IV = {0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+            0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L};
+    private static final byte[][] SIGMA = {
+            {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15},
+            {14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3},
+            {11, 8, 12, 0, 5, 2, 15, 13, 10, 14, 3, 6, 7, 1, 9, 4},
+            {7, 9, 3, 1, 13, 12, 11, 14, 2, 6, 5, 10, 4, 0, 15, 8},
+            {9, 0, 5, 7, 2, 4, 10, 15, 14, 1, 11, 12, 6, 8, 3, 13},
+            {2, 12, 6, 10, 0, 11, 8, 3, 4, 13, 7, 5, 15, 14, 1, 9},
+            {12, 5, 1, 15, 14, 13, 4, 10, 0, 7, 6, 3, 9, 2, 8, 11},
+            {13, 11, 7, 14, 12, 1, 3, 9, 5, 0, 15, 4, 8, 6, 2, 10},
+            {6, 15, 14, 9, 11, 3, 0, 8, 12, 2, 13, 7, 1, 4, 10, 5},
+            {10, 2, 8, 4, 7, 6, 1, 5, 15, 11, 9, 14, 3, 12, 13, 0},
+            {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15},
+            {14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3}};
+    private static final int BLOCK_SIZE = 128;
+    private final long[] h = new long[8];
+    private final long[] v = new long[16];
+    private final long[] m = new long[16];
+    private final byte[] buffer = new byte[BLOCK_SIZE];
+    private final int outLen;
+    private int bufferLen;
+    private long counter;
+
+    JCEBlake2b(int outLen) {
+        if (outLen < 1 || outLen > 64) {
+            throw new IllegalArgumentException("BLAKE2b output length must be between 1 and 64 bytes");
+        }
+        this.outLen = outLen;
+        System.arraycopy(IV, 0, h, 0, 8);
+        h[0] ^= 0x01010000L ^ outLen;
+    }
+
+    JCEBlake2b update(byte[] data) {
+        return update(data, 0, data.length);
+    }
+
+    JCEBlake2b update(byte[] data, int off, int len) {
+        while (len > 0) {
+            // the last block must be kept in the buffer since it's compressed differently
+            if (bufferLen == BLOCK_SIZE) {
+                counter += BLOCK_SIZE;
+                compress(buffer, false);
+                bufferLen = 0;
+            }
+            int chunk = Math.min(len, BLOCK_SIZE - bufferLen);
+            System.arraycopy(data, off, buffer, bufferLen, chunk);
+            bufferLen += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+        return this;
+    }
+
+    JCEBlake2b updateInt(int value) {
+        return update(new byte[]{(byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24)});
+    }
+
+    void digest(byte[] out, int off) {
+        counter += bufferLen;
+        Arrays.fill(buffer, bufferLen, BLOCK_SIZE, (byte) 0);
+        compress(buffer, true);
+        for (int i = 0; i < outLen; i++) {
+            out[off + i] = (byte) (h[i >>> 3] >>> ((i & 7) * 8));
+        }
+        Arrays.fill(buffer, (byte) 0);
+        Arrays.fill(h, 0);
+        Arrays.fill(v, 0);
+        Arrays.fill(m, 0);
+    }
+
+    byte[] digest() {
+        byte[] out = new byte[outLen];
+        digest(out, 0);
+        return out;
+    }
+
+    private void compress(byte[] block, boolean last) {
+        for (int i = 0; i < 16; i++) {
+            m[i] = littleEndianLong(block, i * 8);
+        }
+        System.arraycopy(h, 0, v, 0, 8);
+        System.arraycopy(IV, 0, v, 8, 8);
+        v[12] ^= counter;
+        if (last) {
+            v[14] = ~v[14];
+        }
+        for (byte[] s : SIGMA) {
+            g(0, 4, 8, 12, m[s[0]], m[s[1]]);
+            g(1, 5, 9, 13, m[s[2]], m[s[3]]);
+            g(2, 6, 10, 14, m[s[4]], m[s[5]]);
+            g(3, 7, 11, 15, m[s[6]], m[s[7]]);
+            g(0, 5, 10, 15, m[s[8]], m[s[9]]);
+            g(1, 6, 11, 12, m[s[10]], m[s[11]]);
+            g(2, 7, 8, 13, m[s[12]], m[s[13]]);
+            g(3, 4, 9, 14, m[s[14]], m[s[15]]);
+        }
+        for (int i = 0; i < 8; i++) {
+            h[i] ^= v[i] ^ v[i + 8];
+        }
+    }
+
+    private void g(int a, int b, int c, int d, long x, long y) {
+        v[a] += v[b] + x;
+        v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+        v[c] += v[d];
+        v[b] = Long.rotateRight(v[b] ^ v[c], 24);
+        v[a] += v[b] + y;
+        v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+        v[c] += v[d];
+        v[b] = Long.rotateRight(v[b] ^ v[c], 63);
+    }
+
+    static long littleEndianLong(byte[] data, int off) {
+        return (data[off] & 0xFFL) | (data[off + 1] & 0xFFL) << 8 | (data[off + 2] & 0xFFL) << 16 | (data[off + 3] & 0xFFL) << 24
+                | (data[off + 4] & 0xFFL) << 32 | (data[off + 5] & 0xFFL) << 40 | (data[off + 6] & 0xFFL) << 48 | (data[off + 7] & 0xFFL) << 56;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.kryptotek.EncodedKey;
+import com.kloudtek.kryptotek.InvalidKeyEncodingException;
+import com.kloudtek.kryptotek.key.ChaCha20Key;
+import com.kloudtek.kryptotek.key.KeyType;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+
+/**
+ * JCE ChaCha20 key (requires a provider supporting ChaCha20-Poly1305, which is the case of Java 11+).
+ */
+public class JCEChaCha20Key extends JCESecretKey implements ChaCha20Key {
+    public JCEChaCha20Key() {
+    }
+
+    public JCEChaCha20Key(JCECryptoEngine cryptoEngine, SecretKey secretKey) {
+        super(cryptoEngine, secretKey);
+    }
+
+    public JCEChaCha20Key(JCECryptoEngine cryptoEngine, EncodedKey encodedKey) throws InvalidKeyException, InvalidKeyEncodingException {
+        super(cryptoEngine, encodedKey);
+    }
+
+    public JCEChaCha20Key(JCECryptoEngine cryptoEngine, byte[] rawEncodedKey) {
+        super(cryptoEngine);
+        setDefaultEncoded(rawEncodedKey);
+    }
+
+    @Override
+    public KeyType getType() {
+        return KeyType.CHACHA20;
+    }
+
+    @Override
+    public EncodedKey.Format getDefaultEncoding() {
+        return EncodedKey.Format.RAW;
+    }
+
+    @Override
+    public void setDefaultEncoded(byte[] encodedKey) {
+        if (encodedKey.length != 32) {
+            throw new IllegalArgumentException("ChaCha20 key must be 32 bytes");
+        }
+        key = new SecretKeySpec(encodedKey, "ChaCha20");
+    }
+
+    @Override
+    public byte[] getDefaultEncoded() {
+        return key.getEncoded();
+    }
+
+    @Override
+    public String getJceCryptAlgorithm(boolean compatibilityMode) {
+        return JCECryptoEngine.CHACHA20_POLY1305;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.kryptotek.DecryptionException;
+import com.kloudtek.util.UnexpectedException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+
+/**
+ * Input stream which decrypts data produced by {@link JCECipherOutputStream} (or
+ * {@link JCECryptoEngine#encrypt(com.kloudtek.kryptotek.EncryptionKey, byte[], String)}). Unlike
+ * {@link javax.crypto.CipherInputStream}, padding and integrity failures aren't silently ignored, but are reported as
+ * an {@link IOException} caused by a {@link DecryptionException}.
+ * <p>
+ * With authenticated ciphers (ie. AES/GCM), the stream is made of independently authenticated segments (see
+ * {@link JCECipherOutputStream}), and each segment's data is only released once it has been verified.
+ * </p>
+ */
+public class JCECipherInputStream extends FilterInputStream {
+    private final Cipher cipher;
+    private final String cipherAlgorithm;
+    private final boolean authenticated;
+    private Key key;
+    private byte[] aad;
+    private byte[] inBuffer = new byte[JCECipherOutputStream.BUFFER_SIZE];
+    private byte[] outBuffer;
+    private int outPos;
+    private int outLen;
+    private boolean eof;
+    private byte[] noncePrefix;
+    private int inLen;
+    private int segmentIndex;
+    private com.kloudtek.kryptotek.Key ownedKey;
+
+    public JCECipherInputStream(@NotNull InputStream in, @NotNull Cipher cipher, @NotNull String cipherAlgorithm,
+                                @NotNull Key key) throws InvalidKeyException {
+        this(in, cipher, cipherAlgorithm, key, null);
+    }
+
+    public JCECipherInputStream(@NotNull InputStream in, @NotNull Cipher cipher, @NotNull String cipherAlgorithm,
+                                @NotNull Key key, @Nullable byte[] aad) throws InvalidKeyException {
+        super(in);
+        this.cipher = cipher;
+        this.cipherAlgorithm = cipherAlgorithm;
+        authenticated = JCECryptoEngine.isAuthenticated(cipherAlgorithm);
+        if (authenticated) {
+            // each segment is decrypted with its own nonce, so the key is kept until the last one
+            this.key = key;
+            this.aad = aad;
+            // one extra byte is read ahead, to find out whether a segment is the last one
+            inBuffer = new byte[JCECipherOutputStream.SEGMENT_SIZE + JCECipherOutputStream.SEGMENT_TAG_LENGTH + 1];
+        } else if (JCECryptoEngine.getIvLength(cipherAlgorithm) > 0) {
+            // IV will be read from the stream before the first block is decrypted
+            this.key = key;
+            this.aad = aad;
+        } else {
+            cipher.init(Cipher.DECRYPT_MODE, key);
+            JCECryptoEngine.updateAAD(cipher, cipherAlgorithm, aad);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int read;
+        do {
+            read = read(b, 0, 1);
+        } while (read == 0);
+        return read < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(@NotNull byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (outPos >= outLen) {
+            if (eof) {
+                return -1;
+            }
+            fill();
+        }
+        int count = Math.min(len, outLen - outPos);
+        System.arraycopy(outBuffer, outPos, b, off, count);
+        outPos += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        byte[] b = new byte[JCECipherOutputStream.BUFFER_SIZE];
+        while (skipped < n) {
+            int read = read(b, 0, (int) Math.min(b.length, n - skipped));
+            if (read < 0) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return outLen - outPos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            key = null;
+            if (ownedKey != null) {
+                ownedKey.destroy();
+                ownedKey = null;
+            }
+        }
+    }
+
+    /**
+     * Set a key which will be destroyed when the stream is closed (used for the symmetric key of an envelope).
+     *
+     * @param ownedKey Key to destroy on close
+     */
+    void destroyOnClose(com.kloudtek.kryptotek.Key ownedKey) {
+        this.ownedKey = ownedKey;
+    }
+
+    /**
+     * Read the IV (for cipher algorithms which require one) and initialize the cipher now rather than when the stream
+     * is first read, so that the key doesn't need to remain valid afterwards. Authenticated streams only read their
+     * nonce prefix, since they still need the key to decrypt each segment.
+     *
+     * @throws IOException If an error occurred reading the IV or initializing the cipher
+     */
+    void init() throws IOException {
+        if (authenticated) {
+            if (noncePrefix == null) {
+                noncePrefix = readHeader(JCECipherOutputStream.SEGMENT_NONCE_PREFIX_LENGTH);
+            }
+        } else if (key != null) {
+            readIv();
+        }
+    }
+
+    private void fill() throws IOException {
+        init();
+        if (authenticated) {
+            fillSegment();
+            return;
+        }
+        int read = in.read(inBuffer);
+        outPos = 0;
+        try {
+            if (read < 0) {
+                eof = true;
+                outBuffer = cipher.doFinal();
+                outLen = outBuffer.length;
+            } else {
+                int size = cipher.getOutputSize(read);
+                if (outBuffer == null || outBuffer.length < size) {
+                    outBuffer = new byte[size];
+                }
+                outLen = cipher.update(inBuffer, 0, read, outBuffer, 0);
+            }
+        } catch (IllegalBlockSizeException e) {
+            throw new IOException(new DecryptionException(e));
+        } catch (BadPaddingException e) {
+            throw new IOException(new DecryptionException(e));
+        } catch (ShortBufferException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    /**
+     * Read, verify and decrypt the next segment of an authenticated stream.
+     */
+    private void fillSegment() throws IOException {
+        int segmentLen = JCECipherOutputStream.SEGMENT_SIZE + JCECipherOutputStream.SEGMENT_TAG_LENGTH;
+        while (inLen < inBuffer.length) {
+            int read = in.read(inBuffer, inLen, inBuffer.length - inLen);
+            if (read < 0) {
+                break;
+            }
+            inLen += read;
+        }
+        // a segment is the last one if the stream ends before the byte read ahead
+        boolean last = inLen < inBuffer.length;
+        if (outBuffer == null) {
+            outBuffer = new byte[JCECipherOutputStream.SEGMENT_SIZE];
+        }
+        outPos = 0;
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, JCECryptoEngine.getCipherParameters(cipherAlgorithm,
+                    JCECipherOutputStream.segmentIv(noncePrefix, segmentIndex, last), 0));
+            JCECryptoEngine.updateAAD(cipher, cipherAlgorithm, aad);
+            outLen = cipher.doFinal(inBuffer, 0, last ? inLen : segmentLen, outBuffer, 0);
+        } catch (InvalidKeyException e) {
+            throw new IOException(new DecryptionException(e));
+        } catch (IllegalBlockSizeException e) {
+            throw new IOException(new DecryptionException(e));
+        } catch (BadPaddingException e) {
+            throw new IOException(new DecryptionException(e));
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new UnexpectedException(e);
+        } catch (ShortBufferException e) {
+            throw new UnexpectedException(e);
+        }
+        segmentIndex++;
+        if (last) {
+            eof = true;
+            key = null;
+            aad = null;
+        } else {
+            inBuffer[0] = inBuffer[segmentLen];
+            inLen = 1;
+        }
+    }
+
+    private byte[] readHeader(int length) throws IOException {
+        byte[] header = new byte[length];
+        int pos = 0;
+        while (pos < length) {
+            int read = in.read(header, pos, length - pos);
+            if (read < 0) {
+                throw new EOFException("Encrypted data is too short");
+            }
+            pos += read;
+        }
+        return header;
+    }
+
+    private void readIv() throws IOException {
+        byte[] iv = readHeader(JCECryptoEngine.getIvLength(cipherAlgorithm));
+        try {
+            JCECryptoEngine.initDecrypt(cipher, cipherAlgorithm, key, iv, 0);
+        } catch (InvalidKeyException e) {
+            throw new IOException(new DecryptionException(e));
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new UnexpectedException(e);
+        }
+        JCECryptoEngine.updateAAD(cipher, cipherAlgorithm, aad);
+        key = null;
+        aad = null;
+    }
+}
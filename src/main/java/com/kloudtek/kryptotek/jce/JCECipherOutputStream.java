@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.kryptotek.CryptoUtils;
+import com.kloudtek.kryptotek.EncryptionException;
+import com.kloudtek.util.UnexpectedException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.util.Arrays;
+
+/**
+ * Output stream which encrypts data written to it, producing the same format as
+ * {@link JCECryptoEngine#encrypt(com.kloudtek.kryptotek.EncryptionKey, byte[], String)} (the IV followed by the cipher
+ * text). Data is processed in fixed size chunks, so memory usage doesn't depend on the size of the payload.
+ * The stream must be closed for the final block to be written. An optional header can be supplied, which will be
+ * written before the IV (this is used to write the wrapped key of an envelope).
+ * <p>
+ * Authenticated ciphers (ie. AES/GCM) use a different format, so that the data can be verified and released by the
+ * reader as it is decrypted: the payload is split in segments of {@link #SEGMENT_SIZE} bytes which are each encrypted
+ * and authenticated independently, and the stream starts with a random nonce prefix instead of an IV. The nonce of
+ * each segment is made of that prefix, the segment's index, and a flag set on the last segment (so that reordered or
+ * truncated segments are detected).
+ * </p>
+ */
+public class JCECipherOutputStream extends FilterOutputStream {
+    static final int BUFFER_SIZE = 8192;
+    static final int SEGMENT_SIZE = 64 * 1024;
+    static final int SEGMENT_TAG_LENGTH = JCECryptoEngine.GCM_TAG_LENGTH_BITS / 8;
+    static final int SEGMENT_NONCE_PREFIX_LENGTH = 8;
+    private static final int MAX_SEGMENTS = Integer.MAX_VALUE;
+    private final Cipher cipher;
+    private final String cipherAlgorithm;
+    private byte[] header;
+    private byte[] iv;
+    private byte[] buffer;
+    private boolean closed;
+    private Key key;
+    private byte[] aad;
+    private byte[] noncePrefix;
+    private byte[] segment;
+    private int segmentLen;
+    private int segmentIndex;
+    private com.kloudtek.kryptotek.Key ownedKey;
+
+    public JCECipherOutputStream(@NotNull OutputStream out, @NotNull Cipher cipher, @NotNull String cipherAlgorithm,
+                                 @NotNull Key key) throws InvalidKeyException {
+        this(out, cipher, cipherAlgorithm, key, null, null);
+    }
+
+    public JCECipherOutputStream(@NotNull OutputStream out, @NotNull Cipher cipher, @NotNull String cipherAlgorithm,
+                                 @NotNull Key key, @Nullable byte[] header, @Nullable byte[] aad) throws InvalidKeyException {
+        super(out);
+        this.cipher = cipher;
+        this.cipherAlgorithm = cipherAlgorithm;
+        this.header = header;
+        int ivLength = JCECryptoEngine.getIvLength(cipherAlgorithm);
+        try {
+            if (JCECryptoEngine.isAuthenticated(cipherAlgorithm)) {
+                noncePrefix = CryptoUtils.genSalt(SEGMENT_NONCE_PREFIX_LENGTH);
+                // segments are encrypted as they are completed, but the key is checked now (using the nonce of an
+                // index which is never reached, since some providers refuse to encrypt twice using the same nonce)
+                cipher.init(Cipher.ENCRYPT_MODE, key, JCECryptoEngine.getCipherParameters(cipherAlgorithm,
+                        segmentIv(noncePrefix, MAX_SEGMENTS, false), 0));
+                this.key = key;
+                this.aad = aad;
+                iv = noncePrefix;
+                segment = new byte[SEGMENT_SIZE];
+                buffer = new byte[SEGMENT_SIZE + SEGMENT_TAG_LENGTH];
+                return;
+            } else if (ivLength > 0) {
+                iv = CryptoUtils.genSalt(ivLength);
+                cipher.init(Cipher.ENCRYPT_MODE, key, JCECryptoEngine.getCipherParameters(cipherAlgorithm, iv, 0));
+            } else {
+                cipher.init(Cipher.ENCRYPT_MODE, key);
+            }
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new UnexpectedException(e);
+        }
+        JCECryptoEngine.updateAAD(cipher, cipherAlgorithm, aad);
+        buffer = new byte[cipher.getOutputSize(BUFFER_SIZE)];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(@NotNull byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        writePrefix();
+        if (segment != null) {
+            while (len > 0) {
+                // a full segment is only encrypted once more data arrives, since the last one must be flagged
+                if (segmentLen == SEGMENT_SIZE) {
+                    encryptSegment(false);
+                }
+                int chunk = Math.min(len, SEGMENT_SIZE - segmentLen);
+                System.arraycopy(b, off, segment, segmentLen, chunk);
+                segmentLen += chunk;
+                off += chunk;
+                len -= chunk;
+            }
+            return;
+        }
+        while (len > 0) {
+            int chunk = Math.min(len, BUFFER_SIZE);
+            try {
+                out.write(buffer, 0, cipher.update(b, off, chunk, buffer, 0));
+            } catch (ShortBufferException e) {
+                throw new UnexpectedException(e);
+            }
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writePrefix();
+            if (segment != null) {
+                encryptSegment(true);
+            } else {
+                out.write(cipher.doFinal());
+            }
+            out.flush();
+        } catch (IllegalBlockSizeException e) {
+            throw new IOException(new EncryptionException(e));
+        } catch (BadPaddingException e) {
+            throw new IOException(new EncryptionException(e));
+        } finally {
+            if (segment != null) {
+                Arrays.fill(segment, (byte) 0);
+            }
+            buffer = null;
+            segment = null;
+            key = null;
+            if (ownedKey != null) {
+                ownedKey.destroy();
+                ownedKey = null;
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * Set a key which will be destroyed when the stream is closed (used for the symmetric key of an envelope).
+     *
+     * @param ownedKey Key to destroy on close
+     */
+    void destroyOnClose(com.kloudtek.kryptotek.Key ownedKey) {
+        this.ownedKey = ownedKey;
+    }
+
+    private void encryptSegment(boolean last) throws IOException {
+        if (segmentIndex == MAX_SEGMENTS) {
+            throw new IOException("Too much data for an authenticated stream");
+        }
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, JCECryptoEngine.getCipherParameters(cipherAlgorithm,
+                    segmentIv(noncePrefix, segmentIndex, last), 0));
+            JCECryptoEngine.updateAAD(cipher, cipherAlgorithm, aad);
+            out.write(buffer, 0, cipher.doFinal(segment, 0, segmentLen, buffer, 0));
+        } catch (InvalidKeyException e) {
+            throw new IOException(new EncryptionException(e));
+        } catch (IllegalBlockSizeException e) {
+            throw new IOException(new EncryptionException(e));
+        } catch (BadPaddingException e) {
+            throw new IOException(new EncryptionException(e));
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new UnexpectedException(e);
+        } catch (ShortBufferException e) {
+            throw new UnexpectedException(e);
+        }
+        segmentIndex++;
+        segmentLen = 0;
+    }
+
+    /**
+     * Compute the nonce of a segment of an authenticated stream.
+     *
+     * @param noncePrefix Random nonce prefix written at the start of the stream
+     * @param index       Segment index
+     * @param last        True if it's the last segment
+     * @return Nonce
+     */
+    static byte[] segmentIv(byte[] noncePrefix, int index, boolean last) {
+        byte[] iv = Arrays.copyOf(noncePrefix, JCECryptoEngine.GCM_IV_LENGTH);
+        iv[8] = (byte) (index >>> 24 | (last ? 0x80 : 0));
+        iv[9] = (byte) (index >>> 16);
+        iv[10] = (byte) (index >>> 8);
+        iv[11] = (byte) index;
+        return iv;
+    }
+
+    private void writePrefix() throws IOException {
+        if (header != null) {
+            out.write(header);
+            header = null;
+        }
+        if (iv != null) {
+            out.write(iv);
+            iv = null;
+        }
+    }
+}
@@ -11,23 +11,30 @@ import com.kloudtek.kryptotek.key.PublicKey;
 import com.kloudtek.ktserializer.ClassMapper;
 import com.kloudtek.ktserializer.InvalidSerializedDataException;
 import com.kloudtek.ktserializer.SerializationEngine;
-import com.kloudtek.util.ArrayUtils;
 import com.kloudtek.util.StringUtils;
 import com.kloudtek.util.UnexpectedException;
 import com.kloudtek.util.io.ByteArrayDataInputStream;
-import com.kloudtek.util.io.ByteArrayDataOutputStream;
+import com.kloudtek.util.io.IOUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.crypto.*;
 import javax.crypto.spec.DHParameterSpec;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.security.*;
 import java.security.spec.*;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.kloudtek.kryptotek.EncodedKey.Format.*;
 
@@ -38,8 +45,23 @@ public class JCECryptoEngine extends CryptoEngine {
     private static ThreadLocal<JCECryptoEngine> ctxEngine = new ThreadLocal<JCECryptoEngine>();
     private static final ClassMapper classMapper = new ClassMapper(JCEAESKey.class, JCEHMACSHA1Key.class,
             JCEHMACSHA256Key.class, JCEHMACSHA512Key.class, JCERSAPrivateKey.class, JCERSAPublicKey.class, JCERSAKeyPair.class,
-            JCECertificate.class, JCEDHKeyPair.class, JCEDHPrivateKey.class, JCEDHPublicKey.class);
+            JCECertificate.class, JCEDHKeyPair.class, JCEDHPrivateKey.class, JCEDHPublicKey.class, JCEChaCha20Key.class,
+            JCEEd25519PrivateKey.class, JCEEd25519PublicKey.class, JCEEd25519KeyPair.class, JCEECPrivateKey.class,
+            JCEECPublicKey.class, JCEECKeyPair.class, JCEX25519PrivateKey.class, JCEX25519PublicKey.class, JCEX25519KeyPair.class);
     final SerializationEngine serializer = new SerializationEngine(classMapper);
+    private final JCEPrimitivePool primitivePool = new JCEPrimitivePool();
+    static final String ED25519 = "Ed25519";
+    static final String X25519 = "X25519";
+    static final int GCM_IV_LENGTH = 12;
+    static final int GCM_TAG_LENGTH_BITS = 128;
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 4 * 1024 * 1024;
+    public static final int DEFAULT_PARALLEL_SEGMENT_SIZE = 1024 * 1024;
+    private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private volatile boolean optimizedPbkdf2 = true;
+    private volatile JCEDerivedKeyCache derivedKeyCache;
+    private final AtomicReference<ByteBuffer> argon2Arena = new AtomicReference<ByteBuffer>();
+    private volatile int parallelSegmentSize = DEFAULT_PARALLEL_SEGMENT_SIZE;
+    private static volatile Boolean aesHardwareAccelerated;
 
     public static String getRSAEncryptionAlgorithm(boolean compatibilityMode) {
         return compatibilityMode ? RSA_ECB_PKCS1_PADDING : RSA_ECB_OAEPPADDING;
@@ -57,6 +79,98 @@ public class JCECryptoEngine extends CryptoEngine {
         return ctxEngine.get();
     }
 
+    /**
+     * Get the pool of JCA primitives used by this engine (can be used to disable pooling or retrieve pool statistics).
+     *
+     * @return Primitive pool
+     */
+    public JCEPrimitivePool getPrimitivePool() {
+        return primitivePool;
+    }
+
+    /**
+     * Free the off-heap memory kept by this engine for reuse by Argon2 derivations (it will be allocated again by the
+     * next derivation).
+     */
+    public void releaseArgon2Memory() {
+        argon2Arena.set(null);
+    }
+
+    @Nullable
+    public JCEDerivedKeyCache getDerivedKeyCache() {
+        return derivedKeyCache;
+    }
+
+    /**
+     * Set a cache for password-derived keys. All PBKDF2 derivations (including the ones performed by
+     * {@link #generatePBEAESKey(DigestAlgorithm, char[], int, byte[], AESKeyLen)} and
+     * {@link #generatePBEHMACKey(DigestAlgorithm, DigestAlgorithm, char[], int, byte[])}) will go through it.
+     *
+     * @param derivedKeyCache Cache, or null to disable caching (the default)
+     */
+    public void setDerivedKeyCache(@Nullable JCEDerivedKeyCache derivedKeyCache) {
+        this.derivedKeyCache = derivedKeyCache;
+    }
+
+    public boolean isOptimizedPbkdf2() {
+        return optimizedPbkdf2;
+    }
+
+    /**
+     * Select the PBKDF2 implementation. The optimized implementation (used by default) produces the same keys as the
+     * JCE's PBKDF2WithHmac algorithms, but precomputes the HMAC pad digest states so that each iteration only has to
+     * clone them.
+     *
+     * @param optimizedPbkdf2 True to use the optimized implementation, false to use the JCE's SecretKeyFactory
+     */
+    public void setOptimizedPbkdf2(boolean optimizedPbkdf2) {
+        this.optimizedPbkdf2 = optimizedPbkdf2;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Set the minimum payload size from which operations that support it (counter mode encryption and decryption, and
+     * CBC decryption) will be processed in parallel using {@link CryptoUtils#forkJoinPool()}.
+     *
+     * @param parallelThreshold Minimum payload size, or -1 to disable parallel processing (this also disables the
+     *                          parallel computation of multi-block PBKDF2 keys, Argon2 lanes and
+     *                          scrypt blocks)
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public int getParallelSegmentSize() {
+        return parallelSegmentSize;
+    }
+
+    /**
+     * Set the size of the segments a payload will be split into when processed in parallel.
+     *
+     * @param parallelSegmentSize Segment size (must be a positive multiple of the 16 bytes block size)
+     */
+    public void setParallelSegmentSize(int parallelSegmentSize) {
+        if (parallelSegmentSize <= 0 || parallelSegmentSize % JCEParallelCipher.AES_BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException("Segment size must be a positive multiple of " + JCEParallelCipher.AES_BLOCK_SIZE);
+        }
+        this.parallelSegmentSize = parallelSegmentSize;
+    }
+
+    private boolean isParallel(String cipherAlgorithm, boolean encrypt, int length) {
+        int threshold = parallelThreshold;
+        if (threshold < 0 || length < threshold || length <= parallelSegmentSize) {
+            return false;
+        } else if (cipherAlgorithm.startsWith("AES/CTR")) {
+            return true;
+        } else {
+            // invalid lengths are left to the serial path, which will report the error
+            return !encrypt && cipherAlgorithm.startsWith("AES/CBC") && (length - getIvLength(cipherAlgorithm)) % JCEParallelCipher.AES_BLOCK_SIZE == 0;
+        }
+    }
+
     // New crypto abstraction API
 
     @NotNull
@@ -74,11 +188,77 @@ public class JCECryptoEngine extends CryptoEngine {
     @NotNull
     @Override
     public AESKey generateAESKey(AESKeyLen keySize, DHPrivateKey dhPrivateKey, DHPublicKey dhPublicKey) throws InvalidKeyException {
+        if (isHkdfKeyAgreementDerivation() || dhPrivateKey instanceof X25519PrivateKey) {
+            return generateAESKey(keySize, dhPrivateKey, dhPublicKey, null);
+        }
         final byte[] keyData = agreeDHKey(dhPrivateKey, dhPublicKey);
         return generatePBEAESKey(DigestAlgorithm.SHA1, StringUtils.base64Encode(keyData).toCharArray(), 10,
                 Arrays.copyOf(keyData, keyData.length > 30 ? 30 : keyData.length), keySize);
     }
 
+    @NotNull
+    @Override
+    public AESKey generateAESKey(AESKeyLen keySize, DHPrivateKey dhPrivateKey, DHPublicKey dhPublicKey, @Nullable byte[] info) throws InvalidKeyException {
+        final byte[] keyData = agreeDHKey(dhPrivateKey, dhPublicKey);
+        if (info == null) {
+            info = StringUtils.utf8("AES-" + keySize.getLenBits());
+        }
+        byte[] aesKeyData = hkdf(DigestAlgorithm.SHA256, null, keyData, info, keySize.getLenBits() / 8);
+        Arrays.fill(keyData, (byte) 0);
+        return new JCEAESKey(this, new SecretKeySpec(aesKeyData, "AES"));
+    }
+
+    @NotNull
+    @Override
+    public ChaCha20Key generateChaCha20Key() {
+        try {
+            return new JCEChaCha20Key(this, KeyGenerator.getInstance("ChaCha20").generateKey());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("ChaCha20 isn't supported by the JCE provider");
+        }
+    }
+
+    @Override
+    public boolean isAESHardwareAccelerated() {
+        Boolean accelerated = aesHardwareAccelerated;
+        if (accelerated == null) {
+            accelerated = aesHardwareAccelerated = "true".equals(getHotSpotVMOption("UseAES"))
+                    && "true".equals(getHotSpotVMOption("UseAESIntrinsics"));
+        }
+        return accelerated;
+    }
+
+    /**
+     * Retrieve a HotSpot VM option. Reflection is used so that this still works (by returning null) on VMs which don't
+     * have the HotSpot diagnostic management bean.
+     */
+    @Nullable
+    private static String getHotSpotVMOption(String name) {
+        try {
+            Class<?> mxBeanClass = Class.forName("com.sun.management.HotSpotDiagnosticMXBean");
+            Class<?> managementFactory = Class.forName("java.lang.management.ManagementFactory");
+            Object mxBean = managementFactory.getMethod("getPlatformMXBean", Class.class).invoke(null, mxBeanClass);
+            Object option = mxBeanClass.getMethod("getVMOption", String.class).invoke(mxBean, name);
+            return (String) option.getClass().getMethod("getValue").invoke(option);
+        } catch (Exception e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isSupported(@NotNull SymmetricAlgorithm symmetricAlgorithm) {
+        try {
+            Cipher.getInstance(symmetricAlgorithm.getDefaultCipherAlg());
+            return true;
+        } catch (NoSuchAlgorithmException e) {
+            return false;
+        } catch (NoSuchPaddingException e) {
+            return false;
+        }
+    }
+
     @NotNull
     @Override
     public HMACKey generateHMACKey(DigestAlgorithm digestAlgorithm) {
@@ -93,10 +273,25 @@ public class JCECryptoEngine extends CryptoEngine {
     @NotNull
     @Override
     public HMACKey generateHMACKey(DigestAlgorithm digestAlgorithm, DHPrivateKey dhPrivateKey, DHPublicKey dhPublicKey) throws InvalidKeyException {
+        if (isHkdfKeyAgreementDerivation() || dhPrivateKey instanceof X25519PrivateKey) {
+            return generateHMACKey(digestAlgorithm, dhPrivateKey, dhPublicKey, null);
+        }
         final byte[] keyData = agreeDHKey(dhPrivateKey, dhPublicKey);
         return createHmacKey(digestAlgorithm, new SecretKeySpec(keyData, "HMAC"));
     }
 
+    @NotNull
+    @Override
+    public HMACKey generateHMACKey(DigestAlgorithm digestAlgorithm, DHPrivateKey dhPrivateKey, DHPublicKey dhPublicKey, @Nullable byte[] info) throws InvalidKeyException {
+        final byte[] keyData = agreeDHKey(dhPrivateKey, dhPublicKey);
+        if (info == null) {
+            info = StringUtils.utf8("Hmac" + digestAlgorithm.name());
+        }
+        byte[] hmacKeyData = hkdf(DigestAlgorithm.SHA256, null, keyData, info, digestAlgorithm.getHmacKeyLen());
+        Arrays.fill(keyData, (byte) 0);
+        return createHmacKey(digestAlgorithm, new SecretKeySpec(hmacKeyData, "HMAC"));
+    }
+
     @NotNull
     @Override
     public RSAKeyPair generateRSAKeyPair(int keySize) {
@@ -109,6 +304,40 @@ public class JCECryptoEngine extends CryptoEngine {
         }
     }
 
+    @NotNull
+    @Override
+    public ECKeyPair generateECKeyPair(ECCurve curve) {
+        try {
+            KeyPairGenerator ecKeyGen = KeyPairGenerator.getInstance(AsymmetricAlgorithm.EC.getJceId());
+            ecKeyGen.initialize(new ECGenParameterSpec(curve.getName()), CryptoUtils.rng());
+            return new JCEECKeyPair(this, ecKeyGen.generateKeyPair());
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new IllegalArgumentException("Curve " + curve.getName() + " isn't supported by the JCE provider");
+        }
+    }
+
+    @NotNull
+    @Override
+    public X25519KeyPair generateX25519KeyPair() {
+        try {
+            return new JCEX25519KeyPair(this, KeyPairGenerator.getInstance(X25519).generateKeyPair());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("X25519 isn't supported by the JCE provider");
+        }
+    }
+
+    @NotNull
+    @Override
+    public Ed25519KeyPair generateEd25519KeyPair() {
+        try {
+            return new JCEEd25519KeyPair(this, KeyPairGenerator.getInstance(ED25519).generateKeyPair());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Ed25519 isn't supported by the JCE provider");
+        }
+    }
+
     @NotNull
     @Override
     public Certificate generateCertificate(String subject, PublicKey publicKey) {
@@ -175,6 +404,8 @@ public class JCECryptoEngine extends CryptoEngine {
             try {
                 if (AESKey.class.isAssignableFrom(keyType) && encodedKey.getFormat() == RAW) {
                     return keyType.cast(new JCEAESKey(this, encodedKeyData));
+                } else if (ChaCha20Key.class.isAssignableFrom(keyType) && encodedKey.getFormat() == RAW) {
+                    return keyType.cast(new JCEChaCha20Key(this, encodedKeyData));
                 } else if (HMACSHA1Key.class.isAssignableFrom(keyType) && (encodedKey.getFormat() == RAW)) {
                     return keyType.cast(new JCEHMACSHA1Key(this, encodedKeyData));
                 } else if (HMACSHA256Key.class.isAssignableFrom(keyType) && (encodedKey.getFormat() == RAW)) {
@@ -187,6 +418,24 @@ public class JCECryptoEngine extends CryptoEngine {
                 } else if (RSAPublicKey.class.isAssignableFrom(keyType) && (encodedKey.getFormat() == X509)) {
                     return keyType.cast(new JCERSAPublicKey(this, KeyFactory.getInstance("RSA")
                             .generatePublic(new X509EncodedKeySpec(encodedKeyData))));
+                } else if (ECPrivateKey.class.isAssignableFrom(keyType) && (encodedKey.getFormat() == PKCS8)) {
+                    return keyType.cast(new JCEECPrivateKey(this, KeyFactory.getInstance("EC")
+                            .generatePrivate(new PKCS8EncodedKeySpec(encodedKeyData))));
+                } else if (ECPublicKey.class.isAssignableFrom(keyType) && (encodedKey.getFormat() == X509)) {
+                    return keyType.cast(new JCEECPublicKey(this, KeyFactory.getInstance("EC")
+                            .generatePublic(new X509EncodedKeySpec(encodedKeyData))));
+                } else if (Ed25519PrivateKey.class.isAssignableFrom(keyType) && (encodedKey.getFormat() == PKCS8)) {
+                    return keyType.cast(new JCEEd25519PrivateKey(this, KeyFactory.getInstance(ED25519)
+                            .generatePrivate(new PKCS8EncodedKeySpec(encodedKeyData))));
+                } else if (Ed25519PublicKey.class.isAssignableFrom(keyType) && (encodedKey.getFormat() == X509)) {
+                    return keyType.cast(new JCEEd25519PublicKey(this, KeyFactory.getInstance(ED25519)
+                            .generatePublic(new X509EncodedKeySpec(encodedKeyData))));
+                } else if (X25519PrivateKey.class.isAssignableFrom(keyType) && (encodedKey.getFormat() == PKCS8)) {
+                    return keyType.cast(new JCEX25519PrivateKey(this, KeyFactory.getInstance(X25519)
+                            .generatePrivate(new PKCS8EncodedKeySpec(encodedKeyData))));
+                } else if (X25519PublicKey.class.isAssignableFrom(keyType) && (encodedKey.getFormat() == X509)) {
+                    return keyType.cast(new JCEX25519PublicKey(this, KeyFactory.getInstance(X25519)
+                            .generatePublic(new X509EncodedKeySpec(encodedKeyData))));
                 } else if (DHPrivateKey.class.isAssignableFrom(keyType) && (encodedKey.getFormat() == PKCS8)) {
                     return keyType.cast(new JCEDHPrivateKey(this, KeyFactory.getInstance("DH")
                             .generatePrivate(new PKCS8EncodedKeySpec(encodedKeyData))));
@@ -206,7 +455,7 @@ public class JCECryptoEngine extends CryptoEngine {
 
     @Override
     public <K extends com.kloudtek.kryptotek.Key> K readKey(@NotNull Class<K> keyType, @NotNull byte[] encodedKey) throws InvalidKeyException {
-        if (AESKey.class.isAssignableFrom(keyType) || HMACKey.class.isAssignableFrom(keyType)) {
+        if (AESKey.class.isAssignableFrom(keyType) || HMACKey.class.isAssignableFrom(keyType) || ChaCha20Key.class.isAssignableFrom(keyType)) {
             return readKey(keyType, new EncodedKey(encodedKey, RAW));
         } else if (RSAPrivateKey.class.isAssignableFrom(keyType)) {
             return readKey(keyType, EncodedKey.rsaPrivatePkcs8(encodedKey));
@@ -214,6 +463,20 @@ public class JCECryptoEngine extends CryptoEngine {
             return readKey(keyType, EncodedKey.rsaPublicX509(encodedKey));
         } else if (RSAKeyPair.class.isAssignableFrom(keyType)) {
             return readKey(keyType, new EncodedKey(encodedKey, EncodedKey.Format.SERIALIZED));
+        } else if (ECPrivateKey.class.isAssignableFrom(keyType)) {
+            return readKey(keyType, new EncodedKey(encodedKey, PKCS8));
+        } else if (ECPublicKey.class.isAssignableFrom(keyType)) {
+            return readKey(keyType, new EncodedKey(encodedKey, X509));
+        } else if (ECKeyPair.class.isAssignableFrom(keyType)) {
+            return readKey(keyType, new EncodedKey(encodedKey, EncodedKey.Format.SERIALIZED));
+        } else if (Ed25519PrivateKey.class.isAssignableFrom(keyType)) {
+            return readKey(keyType, new EncodedKey(encodedKey, PKCS8));
+        } else if (Ed25519PublicKey.class.isAssignableFrom(keyType)) {
+            return readKey(keyType, new EncodedKey(encodedKey, X509));
+        } else if (Ed25519KeyPair.class.isAssignableFrom(keyType)) {
+            return readKey(keyType, new EncodedKey(encodedKey, EncodedKey.Format.SERIALIZED));
+        } else if (X25519KeyPair.class.isAssignableFrom(keyType)) {
+            return readKey(keyType, new EncodedKey(encodedKey, EncodedKey.Format.SERIALIZED));
         } else if (DHPrivateKey.class.isAssignableFrom(keyType)) {
             return readKey(keyType, EncodedKey.rsaPrivatePkcs8(encodedKey));
         } else if (DHPublicKey.class.isAssignableFrom(keyType)) {
@@ -259,34 +522,40 @@ public class JCECryptoEngine extends CryptoEngine {
     }
 
     @Override
-    public byte[] encrypt(@NotNull EncryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm, @NotNull String symmetricAlgorithmCipher, int symmetricKeySize, @NotNull byte[] data, @NotNull String cipherAlgorithm) throws EncryptionException {
+    public byte[] encrypt(@NotNull EncryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm, @NotNull String symmetricAlgorithmCipher,
+                          int symmetricKeySize, @NotNull byte[] data, @NotNull String cipherAlgorithm, @NotNull EnvelopeMode mode) throws EncryptionException {
         checkJceKey(key);
-        ByteArrayDataOutputStream buf = new ByteArrayDataOutputStream();
         try {
-            try {
+            if (mode == EnvelopeMode.AUTO) {
+                mode = planEnvelope(key, data.length, cipherAlgorithm);
+            }
+            if (mode == EnvelopeMode.DIRECT) {
                 byte[] encryptedData = crypt(key, data, true, cipherAlgorithm);
-                buf.writeShort(0);
-                buf.write(encryptedData);
-            } catch (IllegalBlockSizeException e) {
-                // TODO Use a better to check for payload larger than algorithm can handle
-                if (symmetricAlgorithm != SymmetricAlgorithm.AES) {
-                    throw new IllegalArgumentException("Unsupported asymmetric cryptography");
-                }
-                AESKey sKey = generateKey(AESKey.class, symmetricKeySize);
+                byte[] result = new byte[2 + encryptedData.length];
+                System.arraycopy(encryptedData, 0, result, 2, encryptedData.length);
+                return result;
+            }
+            // symmetric encryption is done straight into the result, to avoid holding extra copies of the payload
+            SymmetricKey sKey = generateKey(symmetricAlgorithm.getKeyClass(), symmetricKeySize);
+            try {
                 byte[] encryptedSecretKey = encrypt(key, sKey.getEncoded().getEncodedKey(), cipherAlgorithm);
-                buf.writeShort(encryptedSecretKey.length);
-                buf.write(encryptedSecretKey);
-                buf.write(encrypt(sKey, data, symmetricAlgorithmCipher));
+                int headerLen = 2 + encryptedSecretKey.length;
+                byte[] result = new byte[headerLen + getEncryptedLength((EncryptionKey) sKey, data.length, symmetricAlgorithmCipher)];
+                result[0] = (byte) (encryptedSecretKey.length >> 8);
+                result[1] = (byte) encryptedSecretKey.length;
+                System.arraycopy(encryptedSecretKey, 0, result, 2, encryptedSecretKey.length);
+                int len = encrypt((EncryptionKey) sKey, data, 0, data.length, result, headerLen, symmetricAlgorithmCipher);
+                return headerLen + len == result.length ? result : Arrays.copyOf(result, headerLen + len);
+            } finally {
                 sKey.destroy();
-            } catch (InvalidKeyException e) {
-                throw new EncryptionException(e);
-            } catch (BadPaddingException e) {
-                throw new EncryptionException(e);
             }
-        } catch (IOException e) {
-            throw new UnexpectedException(e);
+        } catch (InvalidKeyException e) {
+            throw new EncryptionException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new EncryptionException(e);
+        } catch (BadPaddingException e) {
+            throw new EncryptionException(e);
         }
-        return buf.toByteArray();
     }
 
     @Override
@@ -294,6 +563,40 @@ public class JCECryptoEngine extends CryptoEngine {
         return decrypt(key, data, getJceDefaultAlg(key, compatibilityMode));
     }
 
+    @Override
+    public byte[] encrypt(@NotNull EncryptionKey key, @NotNull byte[] data, @Nullable byte[] aad, @NotNull String cipherAlgorithm) throws EncryptionException {
+        try {
+            return crypt(cipherAlgorithm, getJCECryptKey(key, true), data, aad, true);
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        } catch (NoSuchPaddingException e) {
+            throw new UnexpectedException(e);
+        } catch (InvalidKeyException e) {
+            throw new EncryptionException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new EncryptionException(e);
+        } catch (BadPaddingException e) {
+            throw new EncryptionException(e);
+        }
+    }
+
+    @Override
+    public byte[] decrypt(@NotNull DecryptionKey key, @NotNull byte[] data, @Nullable byte[] aad, @NotNull String cipherAlgorithm) throws DecryptionException {
+        try {
+            return crypt(cipherAlgorithm, getJCECryptKey(key, false), data, aad, false);
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        } catch (NoSuchPaddingException e) {
+            throw new UnexpectedException(e);
+        } catch (InvalidKeyException e) {
+            throw new DecryptionException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new DecryptionException(e);
+        } catch (BadPaddingException e) {
+            throw new DecryptionException(e);
+        }
+    }
+
     @Override
     public byte[] decrypt(@NotNull DecryptionKey key, @NotNull byte[] data, String cipherAlgorithm) throws DecryptionException {
         try {
@@ -347,117 +650,890 @@ public class JCECryptoEngine extends CryptoEngine {
         }
     }
 
-    private byte[] crypt(com.kloudtek.kryptotek.Key key, byte[] data, boolean encryptMode, String cipherAlgorithm) throws BadPaddingException, InvalidKeyException, IllegalBlockSizeException {
+    @Override
+    public int encrypt(@NotNull EncryptionKey key, @NotNull ByteBuffer in, @NotNull ByteBuffer out, @NotNull String cipherAlgorithm) throws EncryptionException {
         try {
-            checkJceKey(key);
-            if (key instanceof JCESecretKey) {
-                return crypt(cipherAlgorithm, ((JCESecretKey) key).getSecretKey(), data, encryptMode);
-            } else if (key instanceof JCEKeyPair) {
-                java.security.KeyPair keyPair = ((JCEKeyPair) key).getJCEKeyPair();
-                return crypt(cipherAlgorithm, encryptMode ? keyPair.getPublic() : keyPair.getPrivate(), data, encryptMode);
-            } else if (key instanceof JCEPublicKey) {
-                return crypt(cipherAlgorithm, ((JCEPublicKey) key).getJCEPublicKey(), data, encryptMode);
-            } else if (key instanceof JCEPrivateKey) {
-                return crypt(cipherAlgorithm, ((JCEPrivateKey) key).getJCEPrivateKey(), data, encryptMode);
-            } else {
-                throw new IllegalArgumentException("Unable to perform de/encryption operation using key of type " + key.getClass().getName());
-            }
-        } catch (NoSuchAlgorithmException e) {
-            throw new UnexpectedException(e);
-        } catch (NoSuchPaddingException e) {
-            throw new UnexpectedException(e);
+            return crypt(key, cipherAlgorithm, true, in, out);
+        } catch (InvalidKeyException e) {
+            throw new EncryptionException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new EncryptionException(e);
+        } catch (BadPaddingException e) {
+            throw new EncryptionException(e);
+        } catch (ShortBufferException e) {
+            throw new EncryptionException(e);
         }
     }
 
-    private byte[] crypt(@NotNull String cipherAlgorithm, @NotNull java.security.Key key, @NotNull byte[] data,
-                         boolean encrypt) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+    @Override
+    public int encrypt(@NotNull EncryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm, @NotNull String symmetricAlgorithmCipher,
+                       int symmetricKeySize, @NotNull ByteBuffer in, @NotNull ByteBuffer out, @NotNull String cipherAlgorithm,
+                       @NotNull EnvelopeMode mode) throws EncryptionException {
+        checkJceKey(key);
         try {
-            Cipher cipher = Cipher.getInstance(cipherAlgorithm);
-            if (cipherAlgorithm.startsWith("AES/CBC")) {
-                if (encrypt) {
-                    byte[] iv = CryptoUtils.genSalt(16);
-                    cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
-                    final byte[] encryptedData = cipher.doFinal(data);
-                    return ArrayUtils.concat(iv, encryptedData);
-                } else {
-                    CryptoUtils.DataAndSalt dataAndSalt = CryptoUtils.splitSalt(data, 16);
-                    cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(dataAndSalt.getSalt()));
-                    return cipher.doFinal(dataAndSalt.getData());
-                }
+            if (mode == EnvelopeMode.AUTO) {
+                mode = planEnvelope(key, in.remaining(), cipherAlgorithm);
+            }
+            if (mode == EnvelopeMode.DIRECT) {
+                out.putShort((short) 0);
+                return 2 + crypt(key, cipherAlgorithm, true, in, out);
             } else {
-                cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, key);
-                return cipher.doFinal(data);
+                SymmetricKey sKey = generateKey(symmetricAlgorithm.getKeyClass(), symmetricKeySize);
+                try {
+                    byte[] encryptedSecretKey = encrypt(key, sKey.getEncoded().getEncodedKey(), cipherAlgorithm);
+                    out.putShort((short) encryptedSecretKey.length);
+                    out.put(encryptedSecretKey);
+                    return 2 + encryptedSecretKey.length + crypt(sKey, symmetricAlgorithmCipher, true, in, out);
+                } finally {
+                    sKey.destroy();
+                }
             }
-        } catch (InvalidAlgorithmParameterException e) {
-            throw new UnexpectedException(e);
+        } catch (BufferOverflowException e) {
+            throw new EncryptionException(new ShortBufferException("Output buffer too small"));
+        } catch (InvalidKeyException e) {
+            throw new EncryptionException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new EncryptionException(e);
+        } catch (BadPaddingException e) {
+            throw new EncryptionException(e);
+        } catch (ShortBufferException e) {
+            throw new EncryptionException(e);
         }
     }
 
     @Override
-    public byte[] sign(@NotNull SigningKey key, @Nullable DigestAlgorithm digestAlgorithm, @NotNull byte[] data) throws InvalidKeyException {
+    public int decrypt(@NotNull DecryptionKey key, @NotNull ByteBuffer in, @NotNull ByteBuffer out, @NotNull String cipherAlgorithm) throws DecryptionException {
         try {
-            if (digestAlgorithm == null) {
-                digestAlgorithm = DigestAlgorithm.SHA256;
-            }
-            if (key instanceof JCERSAKeyPair) {
-                RSAPrivateKey rsaPrivateKey = getRSAPrivateKey(key);
-                if (rsaPrivateKey != null) {
-                    return sign(rsaPrivateKey, digestAlgorithm, data);
-                }
-            } else if (key instanceof JCERSAPrivateKey) {
-                Signature signature = Signature.getInstance(digestAlgorithm.name() + "withRSA");
-                signature.initSign(((JCERSAPrivateKey) key).getJCEPrivateKey());
-                signature.update(data);
-                return signature.sign();
-            } else if (key instanceof JCEHMACKey) {
-                Mac mac = Mac.getInstance("Hmac" + ((JCEHMACKey) key).getDigestAlgorithm().name());
-                mac.init(((JCEHMACKey) key).getSecretKey());
-                return mac.doFinal(data);
-            }
-            throw new IllegalArgumentException("Unable to sign using key type " + key.getClass().getName() + " with digest " + digestAlgorithm.name());
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalArgumentException("Unable to sign using key type " + key.getClass().getName() + " with digest " + digestAlgorithm.name());
-        } catch (SignatureException e) {
-            throw new InvalidKeyException(e);
+            return crypt(key, cipherAlgorithm, false, in, out);
+        } catch (InvalidKeyException e) {
+            throw new DecryptionException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new DecryptionException(e);
+        } catch (BadPaddingException e) {
+            throw new DecryptionException(e);
+        } catch (ShortBufferException e) {
+            throw new DecryptionException(e);
         }
     }
 
     @Override
-    public void verifySignature(@NotNull SignatureVerificationKey key, @Nullable DigestAlgorithm digestAlgorithm, @NotNull byte[] data, @NotNull byte[] signature) throws SignatureException, InvalidKeyException {
+    public int decrypt(@NotNull DecryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm, @NotNull String symmetricAlgorithmCipher,
+                       int symmetricKeySize, @NotNull ByteBuffer in, @NotNull ByteBuffer out, @NotNull String cipherAlgorithm) throws DecryptionException {
+        checkJceKey(key);
+        if (in.remaining() < 3) {
+            throw new IllegalArgumentException("Encrypted data is invalid");
+        }
         try {
-            if (key instanceof JCEHMACKey) {
-                Mac mac = Mac.getInstance("Hmac" + ((JCEHMACKey) key).getDigestAlgorithm().name());
-                mac.init(((JCEHMACKey) key).getSecretKey());
-                if (!Arrays.equals(mac.doFinal(data), signature)) {
-                    throw new SignatureException("Signature does not match data");
-                }
-            } else if (key instanceof JCERSAKey) {
-                if (digestAlgorithm == null) {
-                    digestAlgorithm = DigestAlgorithm.SHA256;
+            short skeyLen = in.getShort();
+            if (skeyLen <= 0) {
+                return crypt(key, cipherAlgorithm, false, in, out);
+            } else {
+                if (in.remaining() < skeyLen) {
+                    throw new IllegalArgumentException("Encrypted data is invalid");
                 }
-                JCERSAPublicKey publicKey = getRSAPublicKey(key);
-                if (publicKey != null) {
-                    Signature sig = Signature.getInstance(digestAlgorithm.name() + "withRSA");
-                    sig.initVerify(publicKey.getJCEPublicKey());
-                    sig.update(data);
-                    if (!sig.verify(signature)) {
-                        throw new SignatureException();
-                    }
+                byte[] encodedSKeyData = new byte[skeyLen];
+                in.get(encodedSKeyData);
+                byte[] encodedSKey = crypt(key, encodedSKeyData, false, cipherAlgorithm);
+                com.kloudtek.kryptotek.Key sKey = readKey(symmetricAlgorithm.getKeyClass(), encodedSKey);
+                try {
+                    return crypt(sKey, symmetricAlgorithmCipher, false, in, out);
+                } finally {
+                    sKey.destroy();
                 }
-            } else {
-                throw new IllegalArgumentException("Unable to verify signature using key type " + key.getClass().getName() +
-                        (digestAlgorithm == null ? "" : (" with digest " + digestAlgorithm.name())));
             }
+        } catch (InvalidKeyException e) {
+            throw new DecryptionException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new DecryptionException(e);
+        } catch (BadPaddingException e) {
+            throw new DecryptionException(e);
+        } catch (ShortBufferException e) {
+            throw new DecryptionException(e);
+        }
+    }
+
+    @Override
+    public OutputStream encryptingOutputStream(@NotNull EncryptionKey key, @NotNull OutputStream out, @NotNull String cipherAlgorithm,
+                                               @Nullable byte[] aad) throws EncryptionException {
+        if (JCEECIES.isECIES(cipherAlgorithm)) {
+            throw new IllegalArgumentException("ECIES can only be streamed as an envelope (using a symmetric algorithm)");
+        }
+        try {
+            return new JCECipherOutputStream(out, Cipher.getInstance(cipherAlgorithm), cipherAlgorithm, getJCECryptKey(key, true), null, aad);
+        } catch (InvalidKeyException e) {
+            throw new EncryptionException(e);
         } catch (NoSuchAlgorithmException e) {
             throw new UnexpectedException(e);
+        } catch (NoSuchPaddingException e) {
+            throw new UnexpectedException(e);
         }
     }
 
-    @NotNull
     @Override
-    public AESKey generatePBEAESKey(DigestAlgorithm pbkdf2DigestAlgorithm, char[] password, int iterations, byte[] salt, AESKeyLen keyLen) {
-        byte[] encoded = pbkdf2(pbkdf2DigestAlgorithm, password, iterations, salt, keyLen.getLenBits());
-        return new JCEAESKey(this, new SecretKeySpec(encoded, "AES"));
+    public InputStream decryptingInputStream(@NotNull DecryptionKey key, @NotNull InputStream in, @NotNull String cipherAlgorithm,
+                                             @Nullable byte[] aad) throws DecryptionException {
+        try {
+            return new JCECipherInputStream(in, Cipher.getInstance(cipherAlgorithm), cipherAlgorithm, getJCECryptKey(key, false), aad);
+        } catch (InvalidKeyException e) {
+            throw new DecryptionException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        } catch (NoSuchPaddingException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public OutputStream encryptingOutputStream(@NotNull EncryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm,
+                                               @NotNull String symmetricAlgorithmCipher, int symmetricKeySize,
+                                               @NotNull OutputStream out, @NotNull String cipherAlgorithm) throws EncryptionException {
+        checkJceKey(key);
+        SymmetricKey sKey = generateKey(symmetricAlgorithm.getKeyClass(), symmetricKeySize);
+        try {
+            byte[] encryptedSecretKey = encrypt(key, sKey.getEncoded().getEncodedKey(), cipherAlgorithm);
+            byte[] header = new byte[2 + encryptedSecretKey.length];
+            header[0] = (byte) (encryptedSecretKey.length >> 8);
+            header[1] = (byte) encryptedSecretKey.length;
+            System.arraycopy(encryptedSecretKey, 0, header, 2, encryptedSecretKey.length);
+            JCECipherOutputStream cipherOutputStream = new JCECipherOutputStream(out, Cipher.getInstance(symmetricAlgorithmCipher),
+                    symmetricAlgorithmCipher, getJCECryptKey(sKey, true), header, null);
+            // authenticated streams need the symmetric key for each segment, so it's only destroyed on close
+            cipherOutputStream.destroyOnClose(sKey);
+            sKey = null;
+            return cipherOutputStream;
+        } catch (InvalidKeyException e) {
+            throw new EncryptionException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        } catch (NoSuchPaddingException e) {
+            throw new UnexpectedException(e);
+        } finally {
+            if (sKey != null) {
+                sKey.destroy();
+            }
+        }
+    }
+
+    @Override
+    public InputStream decryptingInputStream(@NotNull DecryptionKey key, @NotNull SymmetricAlgorithm symmetricAlgorithm,
+                                             @NotNull String symmetricAlgorithmCipher, @NotNull InputStream in,
+                                             @NotNull String cipherAlgorithm) throws DecryptionException, IOException {
+        checkJceKey(key);
+        DataInputStream dis = new DataInputStream(in);
+        short skeyLen = dis.readShort();
+        if (skeyLen <= 0) {
+            if (JCEECIES.isECIES(cipherAlgorithm)) {
+                // directly encrypted ECIES payloads are only produced from in-memory data
+                return new ByteArrayInputStream(decrypt(key, IOUtils.toByteArray(in), cipherAlgorithm));
+            }
+            return decryptingInputStream(key, in, cipherAlgorithm);
+        }
+        byte[] encodedSKeyData = new byte[skeyLen];
+        dis.readFully(encodedSKeyData);
+        com.kloudtek.kryptotek.Key sKey;
+        try {
+            sKey = readKey(symmetricAlgorithm.getKeyClass(), crypt(key, encodedSKeyData, false, cipherAlgorithm));
+        } catch (InvalidKeyException e) {
+            throw new DecryptionException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new DecryptionException(e);
+        } catch (BadPaddingException e) {
+            throw new DecryptionException(e);
+        }
+        try {
+            JCECipherInputStream cipherInputStream = new JCECipherInputStream(in, Cipher.getInstance(symmetricAlgorithmCipher),
+                    symmetricAlgorithmCipher, getJCECryptKey(sKey, false));
+            cipherInputStream.init();
+            // authenticated streams need the symmetric key for each segment, so it's only destroyed on close
+            cipherInputStream.destroyOnClose(sKey);
+            sKey = null;
+            return cipherInputStream;
+        } catch (InvalidKeyException e) {
+            throw new DecryptionException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        } catch (NoSuchPaddingException e) {
+            throw new UnexpectedException(e);
+        } finally {
+            if (sKey != null) {
+                sKey.destroy();
+            }
+        }
+    }
+
+    @Override
+    public PreparedEncryptor prepareEncryptor(@NotNull EncryptionKey key, @NotNull String cipherAlgorithm) throws InvalidKeyException {
+        if (JCEECIES.isECIES(cipherAlgorithm)) {
+            return super.prepareEncryptor(key, cipherAlgorithm);
+        }
+        return prepareCipher(key, cipherAlgorithm, true);
+    }
+
+    @Override
+    public PreparedDecryptor prepareDecryptor(@NotNull DecryptionKey key, @NotNull String cipherAlgorithm) throws InvalidKeyException {
+        if (JCEECIES.isECIES(cipherAlgorithm)) {
+            return super.prepareDecryptor(key, cipherAlgorithm);
+        }
+        return prepareCipher(key, cipherAlgorithm, false);
+    }
+
+    private JCEPreparedCipher prepareCipher(com.kloudtek.kryptotek.Key key, String cipherAlgorithm, boolean encryptMode) throws InvalidKeyException {
+        try {
+            return new JCEPreparedCipher(cipherAlgorithm, getJCECryptKey(key, encryptMode), encryptMode);
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        } catch (NoSuchPaddingException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public PreparedSigner prepareSigner(@NotNull SigningKey key, @Nullable DigestAlgorithm digestAlgorithm) throws InvalidKeyException {
+        if (digestAlgorithm == null) {
+            digestAlgorithm = DigestAlgorithm.SHA256;
+        }
+        try {
+            if (key instanceof JCEHMACKey) {
+                Mac mac = Mac.getInstance("Hmac" + ((JCEHMACKey) key).getDigestAlgorithm().name());
+                mac.init(((JCEHMACKey) key).getSecretKey());
+                return new JCEPreparedSigner(mac);
+            } else if (key instanceof JCERSAKey) {
+                JCERSAPrivateKey privateKey = getRSAPrivateKey(key);
+                if (privateKey != null) {
+                    Signature signature = Signature.getInstance(digestAlgorithm.name() + "withRSA");
+                    signature.initSign(privateKey.getJCEPrivateKey());
+                    return new JCEPreparedSigner(signature);
+                }
+            } else if (key instanceof ECKey) {
+                Signature signature = Signature.getInstance(digestAlgorithm.name() + "withECDSA");
+                signature.initSign(getJCEPrivateKey(key));
+                return new JCEPreparedSigner(signature);
+            } else if (key instanceof Ed25519Key) {
+                Signature signature = Signature.getInstance(ED25519);
+                signature.initSign(getJCEPrivateKey(key));
+                return new JCEPreparedSigner(signature);
+            }
+            throw new IllegalArgumentException("Unable to sign using key type " + key.getClass().getName() + " with digest " + digestAlgorithm.name());
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public PreparedVerifier prepareVerifier(@NotNull SignatureVerificationKey key, @Nullable DigestAlgorithm digestAlgorithm) throws InvalidKeyException {
+        if (digestAlgorithm == null) {
+            digestAlgorithm = DigestAlgorithm.SHA256;
+        }
+        try {
+            if (key instanceof JCEHMACKey) {
+                Mac mac = Mac.getInstance("Hmac" + ((JCEHMACKey) key).getDigestAlgorithm().name());
+                mac.init(((JCEHMACKey) key).getSecretKey());
+                return new JCEPreparedVerifier(mac);
+            } else if (key instanceof JCERSAKey) {
+                JCERSAPublicKey publicKey = getRSAPublicKey(key);
+                if (publicKey != null) {
+                    Signature signature = Signature.getInstance(digestAlgorithm.name() + "withRSA");
+                    signature.initVerify(publicKey.getJCEPublicKey());
+                    return new JCEPreparedVerifier(signature);
+                }
+            } else if (key instanceof ECKey) {
+                Signature signature = Signature.getInstance(digestAlgorithm.name() + "withECDSA");
+                signature.initVerify(getJCEPublicKey(key));
+                return new JCEPreparedVerifier(signature);
+            } else if (key instanceof Ed25519Key) {
+                Signature signature = Signature.getInstance(ED25519);
+                signature.initVerify(getJCEPublicKey(key));
+                return new JCEPreparedVerifier(signature);
+            }
+            throw new IllegalArgumentException("Unable to verify signature using key type " + key.getClass().getName() + " with digest " + digestAlgorithm.name());
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    private byte[] crypt(com.kloudtek.kryptotek.Key key, byte[] data, boolean encryptMode, String cipherAlgorithm) throws BadPaddingException, InvalidKeyException, IllegalBlockSizeException {
+        try {
+            return crypt(cipherAlgorithm, getJCECryptKey(key, encryptMode), data, encryptMode);
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        } catch (NoSuchPaddingException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    private java.security.Key getJCECryptKey(com.kloudtek.kryptotek.Key key, boolean encryptMode) {
+        checkJceKey(key);
+        if (key instanceof JCESecretKey) {
+            return ((JCESecretKey) key).getSecretKey();
+        } else if (key instanceof JCEKeyPair) {
+            java.security.KeyPair keyPair = ((JCEKeyPair) key).getJCEKeyPair();
+            return encryptMode ? keyPair.getPublic() : keyPair.getPrivate();
+        } else if (key instanceof JCEPublicKey) {
+            return ((JCEPublicKey) key).getJCEPublicKey();
+        } else if (key instanceof JCEPrivateKey) {
+            return ((JCEPrivateKey) key).getJCEPrivateKey();
+        } else {
+            throw new IllegalArgumentException("Unable to perform de/encryption operation using key of type " + key.getClass().getName());
+        }
+    }
+
+    /**
+     * Get the length of the IV which is prefixed to the data encrypted with the specified cipher algorithm.
+     *
+     * @param cipherAlgorithm Cipher algorithm
+     * @return IV length, or 0 if the algorithm doesn't use an IV
+     */
+    static int getIvLength(String cipherAlgorithm) {
+        if (cipherAlgorithm.startsWith("AES/CBC") || cipherAlgorithm.startsWith("AES/CTR")) {
+            return 16;
+        } else if (cipherAlgorithm.startsWith("AES/GCM") || cipherAlgorithm.equals(CHACHA20_POLY1305)) {
+            return GCM_IV_LENGTH;
+        } else {
+            return 0;
+        }
+    }
+
+    static AlgorithmParameterSpec getCipherParameters(String cipherAlgorithm, byte[] iv, int ivOffset) {
+        if (cipherAlgorithm.startsWith("AES/GCM")) {
+            return new GCMParameterSpec(GCM_TAG_LENGTH_BITS, iv, ivOffset, GCM_IV_LENGTH);
+        } else {
+            return new IvParameterSpec(iv, ivOffset, getIvLength(cipherAlgorithm));
+        }
+    }
+
+    /**
+     * Check if a cipher algorithm is an authenticated one (which supports additional authenticated data).
+     *
+     * @param cipherAlgorithm Cipher algorithm
+     * @return True if the algorithm is authenticated
+     */
+    static boolean isAuthenticated(String cipherAlgorithm) {
+        return cipherAlgorithm.startsWith("AES/GCM") || cipherAlgorithm.equals(CHACHA20_POLY1305);
+    }
+
+    static void updateAAD(Cipher cipher, String cipherAlgorithm, @Nullable byte[] aad) {
+        if (aad != null) {
+            if (!isAuthenticated(cipherAlgorithm)) {
+                throw new IllegalArgumentException("Cipher algorithm " + cipherAlgorithm + " doesn't support additional authenticated data");
+            }
+            cipher.updateAAD(aad);
+        }
+    }
+
+    /**
+     * Check if a cipher can be re-initialized using the same key and IV it was last initialized with. Some providers
+     * (ie. SunJCE's ChaCha20-Poly1305) refuse this even for decryption.
+     */
+    static boolean isNonceReusable(String cipherAlgorithm) {
+        return !cipherAlgorithm.equals(CHACHA20_POLY1305);
+    }
+
+    /**
+     * Initialize a cipher for decryption using the IV prefixed to the encrypted data.
+     */
+    static void initDecrypt(Cipher cipher, String cipherAlgorithm, java.security.Key key, byte[] iv, int ivOffset) throws InvalidKeyException, InvalidAlgorithmParameterException {
+        if (!isNonceReusable(cipherAlgorithm)) {
+            // the same message might have been previously processed by this cipher instance
+            cipher.init(Cipher.ENCRYPT_MODE, key, getCipherParameters(cipherAlgorithm, CryptoUtils.genSalt(getIvLength(cipherAlgorithm)), 0));
+        }
+        cipher.init(Cipher.DECRYPT_MODE, key, getCipherParameters(cipherAlgorithm, iv, ivOffset));
+    }
+
+    /**
+     * Initialize a cipher, using a placeholder IV if the algorithm requires one. This is used for operations (like
+     * calculating output sizes) which require an initialized cipher but won't process any data. The placeholder IV is
+     * random when encrypting, since some providers refuse to re-initialize GCM encryption with a previously used IV.
+     */
+    static void initCipher(Cipher cipher, String cipherAlgorithm, java.security.Key key, boolean encrypt) throws InvalidKeyException {
+        try {
+            int ivLength = getIvLength(cipherAlgorithm);
+            if (ivLength > 0) {
+                byte[] iv = encrypt || !isNonceReusable(cipherAlgorithm) ? CryptoUtils.genSalt(ivLength) : new byte[ivLength];
+                cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, key, getCipherParameters(cipherAlgorithm, iv, 0));
+            } else {
+                cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, key);
+            }
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    /**
+     * Encrypt or decrypt data, handling the IV which is prefixed to the encrypted data for algorithms that require one.
+     *
+     * @param cipher          Cipher
+     * @param cipherAlgorithm Cipher algorithm
+     * @param key             Key, or null if the cipher has already been initialized (only for algorithms that don't use an IV)
+     * @param encrypt         True to encrypt, false to decrypt
+     * @param data            Data to encrypt or decrypt
+     * @return Result
+     */
+    static byte[] doFinal(Cipher cipher, String cipherAlgorithm, @Nullable java.security.Key key, boolean encrypt, byte[] data) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+        return doFinal(cipher, cipherAlgorithm, key, encrypt, data, null);
+    }
+
+    /**
+     * Encrypt or decrypt data (see {@link #doFinal(Cipher, String, java.security.Key, boolean, byte[])}) with additional
+     * authenticated data.
+     */
+    static byte[] doFinal(Cipher cipher, String cipherAlgorithm, @Nullable java.security.Key key, boolean encrypt, byte[] data,
+                          @Nullable byte[] aad) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+        try {
+            int ivLength = getIvLength(cipherAlgorithm);
+            if (ivLength > 0) {
+                if (encrypt) {
+                    byte[] iv = CryptoUtils.genSalt(ivLength);
+                    cipher.init(Cipher.ENCRYPT_MODE, key, getCipherParameters(cipherAlgorithm, iv, 0));
+                    updateAAD(cipher, cipherAlgorithm, aad);
+                    byte[] encrypted = new byte[ivLength + cipher.getOutputSize(data.length)];
+                    int len = ivLength + cipher.doFinal(data, 0, data.length, encrypted, ivLength);
+                    System.arraycopy(iv, 0, encrypted, 0, ivLength);
+                    return len == encrypted.length ? encrypted : Arrays.copyOf(encrypted, len);
+                } else {
+                    if (data.length < ivLength) {
+                        throw new IllegalBlockSizeException("Encrypted data is too short");
+                    }
+                    initDecrypt(cipher, cipherAlgorithm, key, data, 0);
+                    updateAAD(cipher, cipherAlgorithm, aad);
+                    return cipher.doFinal(data, ivLength, data.length - ivLength);
+                }
+            } else {
+                if (key != null) {
+                    cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, key);
+                }
+                updateAAD(cipher, cipherAlgorithm, aad);
+                return cipher.doFinal(data);
+            }
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new UnexpectedException(e);
+        } catch (ShortBufferException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    /**
+     * Encrypt or decrypt data into a caller provided buffer, handling the IV which is prefixed to the encrypted data
+     * for algorithms that require one (see {@link #doFinal(Cipher, String, java.security.Key, boolean, byte[])}).
+     */
+    static int doFinal(Cipher cipher, String cipherAlgorithm, @Nullable java.security.Key key, boolean encrypt,
+                       byte[] in, int inOffset, int inLength, byte[] out, int outOffset) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, ShortBufferException {
+        try {
+            int ivLength = getIvLength(cipherAlgorithm);
+            if (ivLength > 0) {
+                if (encrypt) {
+                    byte[] iv = CryptoUtils.genSalt(ivLength);
+                    cipher.init(Cipher.ENCRYPT_MODE, key, getCipherParameters(cipherAlgorithm, iv, 0));
+                    if (out.length - outOffset < ivLength + cipher.getOutputSize(inLength)) {
+                        throw new ShortBufferException("Output buffer too small");
+                    }
+                    int len = cipher.doFinal(in, inOffset, inLength, out, outOffset + ivLength);
+                    // IV is copied last in case input and output are the same buffer
+                    System.arraycopy(iv, 0, out, outOffset, ivLength);
+                    return ivLength + len;
+                } else {
+                    if (inLength < ivLength) {
+                        throw new IllegalBlockSizeException("Encrypted data is too short");
+                    }
+                    initDecrypt(cipher, cipherAlgorithm, key, in, inOffset);
+                    return cipher.doFinal(in, inOffset + ivLength, inLength - ivLength, out, outOffset);
+                }
+            } else {
+                if (key != null) {
+                    cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, key);
+                }
+                return cipher.doFinal(in, inOffset, inLength, out, outOffset);
+            }
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    /**
+     * Encrypt or decrypt all remaining bytes of a buffer into another buffer, handling the IV which is prefixed to the
+     * encrypted data for algorithms that require one (see {@link #doFinal(Cipher, String, java.security.Key, boolean, byte[])}).
+     */
+    static int doFinal(Cipher cipher, String cipherAlgorithm, @Nullable java.security.Key key, boolean encrypt,
+                       ByteBuffer in, ByteBuffer out) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, ShortBufferException {
+        try {
+            int ivLength = getIvLength(cipherAlgorithm);
+            if (ivLength > 0) {
+                byte[] iv;
+                if (encrypt) {
+                    iv = CryptoUtils.genSalt(ivLength);
+                    cipher.init(Cipher.ENCRYPT_MODE, key, getCipherParameters(cipherAlgorithm, iv, 0));
+                    if (out.remaining() < ivLength + cipher.getOutputSize(in.remaining())) {
+                        throw new ShortBufferException("Output buffer too small");
+                    }
+                    out.put(iv);
+                    return ivLength + cipher.doFinal(in, out);
+                } else {
+                    if (in.remaining() < ivLength) {
+                        throw new IllegalBlockSizeException("Encrypted data is too short");
+                    }
+                    iv = new byte[ivLength];
+                    in.get(iv);
+                    initDecrypt(cipher, cipherAlgorithm, key, iv, 0);
+                    return cipher.doFinal(in, out);
+                }
+            } else {
+                if (key != null) {
+                    cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, key);
+                }
+                return cipher.doFinal(in, out);
+            }
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    private int crypt(com.kloudtek.kryptotek.Key key, String cipherAlgorithm, boolean encrypt, ByteBuffer in, ByteBuffer out) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, ShortBufferException {
+        java.security.Key jceKey = getJCECryptKey(key, encrypt);
+        if (JCEECIES.isECIES(cipherAlgorithm)) {
+            byte[] data = new byte[in.remaining()];
+            in.get(data);
+            byte[] result = encrypt ? JCEECIES.encrypt(primitivePool, jceKey, data, 0, data.length) : JCEECIES.decrypt(primitivePool, jceKey, data, 0, data.length);
+            if (out.remaining() < result.length) {
+                throw new ShortBufferException("Output buffer too small");
+            }
+            out.put(result);
+            return result.length;
+        }
+        try {
+            Cipher cipher = primitivePool.borrowCipher(cipherAlgorithm);
+            try {
+                return doFinal(cipher, cipherAlgorithm, jceKey, encrypt, in, out);
+            } finally {
+                primitivePool.releaseCipher(cipherAlgorithm, cipher);
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        } catch (NoSuchPaddingException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    private byte[] crypt(@NotNull String cipherAlgorithm, @NotNull java.security.Key key, @NotNull byte[] data,
+                         boolean encrypt) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+        return crypt(cipherAlgorithm, key, data, null, encrypt);
+    }
+
+    private byte[] crypt(@NotNull String cipherAlgorithm, @NotNull java.security.Key key, @NotNull byte[] data, @Nullable byte[] aad,
+                         boolean encrypt) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+        if (JCEECIES.isECIES(cipherAlgorithm)) {
+            if (aad != null) {
+                throw new IllegalArgumentException("ECIES doesn't support additional authenticated data");
+            }
+            return encrypt ? JCEECIES.encrypt(primitivePool, key, data, 0, data.length) : JCEECIES.decrypt(primitivePool, key, data, 0, data.length);
+        }
+        if (aad == null && isParallel(cipherAlgorithm, encrypt, data.length)) {
+            int ivLength = getIvLength(cipherAlgorithm);
+            if (cipherAlgorithm.startsWith("AES/CBC")) {
+                byte[] decrypted = new byte[data.length - ivLength];
+                int len = JCEParallelCipher.cbcDecrypt(primitivePool, cipherAlgorithm, key, Arrays.copyOf(data, ivLength), data, ivLength,
+                        decrypted.length, decrypted, 0, parallelSegmentSize);
+                return len == decrypted.length ? decrypted : Arrays.copyOf(decrypted, len);
+            } else if (encrypt) {
+                byte[] encrypted = new byte[ivLength + data.length];
+                byte[] iv = CryptoUtils.genSalt(ivLength);
+                System.arraycopy(iv, 0, encrypted, 0, ivLength);
+                JCEParallelCipher.ctr(primitivePool, cipherAlgorithm, key, iv, data, 0, data.length, encrypted, ivLength, parallelSegmentSize);
+                return encrypted;
+            } else {
+                byte[] decrypted = new byte[data.length - ivLength];
+                JCEParallelCipher.ctr(primitivePool, cipherAlgorithm, key, Arrays.copyOf(data, ivLength), data, ivLength,
+                        decrypted.length, decrypted, 0, parallelSegmentSize);
+                return decrypted;
+            }
+        }
+        Cipher cipher = primitivePool.borrowCipher(cipherAlgorithm);
+        try {
+            return doFinal(cipher, cipherAlgorithm, key, encrypt, data, aad);
+        } finally {
+            primitivePool.releaseCipher(cipherAlgorithm, cipher);
+        }
+    }
+
+    private int crypt(com.kloudtek.kryptotek.Key key, String cipherAlgorithm, boolean encrypt, byte[] in, int inOffset, int inLength,
+                      byte[] out, int outOffset) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, ShortBufferException {
+        java.security.Key jceKey = getJCECryptKey(key, encrypt);
+        if (JCEECIES.isECIES(cipherAlgorithm)) {
+            byte[] result = encrypt ? JCEECIES.encrypt(primitivePool, jceKey, in, inOffset, inLength) : JCEECIES.decrypt(primitivePool, jceKey, in, inOffset, inLength);
+            if (out.length - outOffset < result.length) {
+                throw new ShortBufferException("Output buffer too small");
+            }
+            System.arraycopy(result, 0, out, outOffset, result.length);
+            return result.length;
+        }
+        // segments can't be processed in parallel in place, since a segment's output may overwrite input still needed
+        // by another one (the following segment's cipher text for CBC, or the input shifted by the IV for CTR)
+        if (isParallel(cipherAlgorithm, encrypt, inLength) && in != out) {
+            int ivLength = getIvLength(cipherAlgorithm);
+            if (cipherAlgorithm.startsWith("AES/CBC")) {
+                if (out.length - outOffset < inLength - ivLength) {
+                    throw new ShortBufferException("Output buffer too small");
+                }
+                byte[] iv = Arrays.copyOfRange(in, inOffset, inOffset + ivLength);
+                return JCEParallelCipher.cbcDecrypt(primitivePool, cipherAlgorithm, jceKey, iv, in, inOffset + ivLength, inLength - ivLength,
+                        out, outOffset, parallelSegmentSize);
+            } else if (encrypt) {
+                if (out.length - outOffset < ivLength + inLength) {
+                    throw new ShortBufferException("Output buffer too small");
+                }
+                byte[] iv = CryptoUtils.genSalt(ivLength);
+                JCEParallelCipher.ctr(primitivePool, cipherAlgorithm, jceKey, iv, in, inOffset, inLength, out, outOffset + ivLength, parallelSegmentSize);
+                System.arraycopy(iv, 0, out, outOffset, ivLength);
+                return ivLength + inLength;
+            } else {
+                if (out.length - outOffset < inLength - ivLength) {
+                    throw new ShortBufferException("Output buffer too small");
+                }
+                byte[] iv = Arrays.copyOfRange(in, inOffset, inOffset + ivLength);
+                JCEParallelCipher.ctr(primitivePool, cipherAlgorithm, jceKey, iv, in, inOffset + ivLength, inLength - ivLength, out, outOffset, parallelSegmentSize);
+                return inLength - ivLength;
+            }
+        }
+        try {
+            Cipher cipher = primitivePool.borrowCipher(cipherAlgorithm);
+            try {
+                return doFinal(cipher, cipherAlgorithm, jceKey, encrypt, in, inOffset, inLength, out, outOffset);
+            } finally {
+                primitivePool.releaseCipher(cipherAlgorithm, cipher);
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        } catch (NoSuchPaddingException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    private int getOutputSize(com.kloudtek.kryptotek.Key key, String cipherAlgorithm, boolean encrypt, int inputLength) throws InvalidKeyException {
+        java.security.Key jceKey = getJCECryptKey(key, encrypt);
+        try {
+            Cipher cipher = primitivePool.borrowCipher(cipherAlgorithm);
+            try {
+                initCipher(cipher, cipherAlgorithm, jceKey, encrypt);
+                return cipher.getOutputSize(inputLength);
+            } finally {
+                primitivePool.releaseCipher(cipherAlgorithm, cipher);
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        } catch (NoSuchPaddingException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public String getDefaultCipherAlgorithm(@NotNull com.kloudtek.kryptotek.Key key, boolean compatibilityMode) {
+        checkJceKey(key);
+        return getJceDefaultAlg(key, compatibilityMode);
+    }
+
+    @Override
+    public int getMaxDirectEncryptionLength(@NotNull EncryptionKey key, @NotNull String cipherAlgorithm) throws InvalidKeyException {
+        java.security.Key jceKey = getJCECryptKey(key, true);
+        if (!(jceKey instanceof java.security.interfaces.RSAKey)) {
+            return -1;
+        }
+        int modulusLen = (((java.security.interfaces.RSAKey) jceKey).getModulus().bitLength() + 7) / 8;
+        String padding = cipherAlgorithm.toUpperCase();
+        if (padding.contains("OAEP")) {
+            // OAEP overhead is twice the hash length + 2 (the hash defaults to SHA-1)
+            int hashLen = 20;
+            if (padding.contains("SHA-512") || padding.contains("SHA512")) {
+                hashLen = 64;
+            } else if (padding.contains("SHA-384") || padding.contains("SHA384")) {
+                hashLen = 48;
+            } else if (padding.contains("SHA-256") || padding.contains("SHA256")) {
+                hashLen = 32;
+            } else if (padding.contains("SHA-224") || padding.contains("SHA224")) {
+                hashLen = 28;
+            }
+            return modulusLen - 2 * hashLen - 2;
+        } else if (padding.endsWith("NOPADDING")) {
+            return modulusLen;
+        } else {
+            // PKCS#1 v1.5 overhead
+            return modulusLen - 11;
+        }
+    }
+
+    @Override
+    public int getEncryptedLength(@NotNull EncryptionKey key, int dataLength, @NotNull String cipherAlgorithm) throws InvalidKeyException {
+        if (JCEECIES.isECIES(cipherAlgorithm)) {
+            return JCEECIES.getEncryptedLength(getJCECryptKey(key, true), dataLength);
+        }
+        return getIvLength(cipherAlgorithm) + getOutputSize(key, cipherAlgorithm, true, dataLength);
+    }
+
+    @Override
+    public int getMaxDecryptedLength(@NotNull DecryptionKey key, int encryptedLength, @NotNull String cipherAlgorithm) throws InvalidKeyException {
+        if (JCEECIES.isECIES(cipherAlgorithm)) {
+            return JCEECIES.getMaxDecryptedLength(encryptedLength);
+        }
+        return getOutputSize(key, cipherAlgorithm, false, Math.max(0, encryptedLength - getIvLength(cipherAlgorithm)));
+    }
+
+    @Override
+    public int encrypt(@NotNull EncryptionKey key, @NotNull byte[] in, int inOffset, int inLength, @NotNull byte[] out, int outOffset, @NotNull String cipherAlgorithm) throws EncryptionException {
+        try {
+            return crypt(key, cipherAlgorithm, true, in, inOffset, inLength, out, outOffset);
+        } catch (InvalidKeyException e) {
+            throw new EncryptionException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new EncryptionException(e);
+        } catch (BadPaddingException e) {
+            throw new EncryptionException(e);
+        } catch (ShortBufferException e) {
+            throw new EncryptionException(e);
+        }
+    }
+
+    @Override
+    public int decrypt(@NotNull DecryptionKey key, @NotNull byte[] in, int inOffset, int inLength, @NotNull byte[] out, int outOffset, @NotNull String cipherAlgorithm) throws DecryptionException {
+        try {
+            return crypt(key, cipherAlgorithm, false, in, inOffset, inLength, out, outOffset);
+        } catch (InvalidKeyException e) {
+            throw new DecryptionException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new DecryptionException(e);
+        } catch (BadPaddingException e) {
+            throw new DecryptionException(e);
+        } catch (ShortBufferException e) {
+            throw new DecryptionException(e);
+        }
+    }
+
+    @Override
+    public byte[] sign(@NotNull SigningKey key, @Nullable DigestAlgorithm digestAlgorithm, @NotNull byte[] data) throws InvalidKeyException {
+        return sign(key, digestAlgorithm, ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public byte[] sign(@NotNull SigningKey key, @Nullable DigestAlgorithm digestAlgorithm, @NotNull ByteBuffer data) throws InvalidKeyException {
+        try {
+            if (digestAlgorithm == null) {
+                digestAlgorithm = DigestAlgorithm.SHA256;
+            }
+            if (key instanceof JCERSAKeyPair) {
+                RSAPrivateKey rsaPrivateKey = getRSAPrivateKey(key);
+                if (rsaPrivateKey != null) {
+                    return sign(rsaPrivateKey, digestAlgorithm, data);
+                }
+            } else if (key instanceof JCERSAPrivateKey) {
+                String signatureAlgorithm = digestAlgorithm.name() + "withRSA";
+                // not released, since the instance would keep the private key
+                Signature signature = primitivePool.borrowSignature(signatureAlgorithm);
+                signature.initSign(((JCERSAPrivateKey) key).getJCEPrivateKey());
+                signature.update(data);
+                return signature.sign();
+            } else if (key instanceof ECKey) {
+                String signatureAlgorithm = digestAlgorithm.name() + "withECDSA";
+                // not released, since the instance would keep the private key
+                Signature signature = primitivePool.borrowSignature(signatureAlgorithm);
+                signature.initSign(getJCEPrivateKey(key));
+                signature.update(data);
+                return signature.sign();
+            } else if (key instanceof Ed25519Key) {
+                // not released, since the instance would keep the private key
+                Signature signature = primitivePool.borrowSignature(ED25519);
+                signature.initSign(getJCEPrivateKey(key));
+                signature.update(data);
+                return signature.sign();
+            } else if (key instanceof JCEHMACKey) {
+                String macAlgorithm = "Hmac" + ((JCEHMACKey) key).getDigestAlgorithm().name();
+                Mac mac = primitivePool.borrowMac(macAlgorithm);
+                try {
+                    mac.init(((JCEHMACKey) key).getSecretKey());
+                    mac.update(data);
+                    return mac.doFinal();
+                } finally {
+                    primitivePool.releaseMac(macAlgorithm, mac);
+                }
+            }
+            throw new IllegalArgumentException("Unable to sign using key type " + key.getClass().getName() + " with digest " + digestAlgorithm.name());
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        } catch (SignatureException e) {
+            throw new InvalidKeyException(e);
+        }
+    }
+
+    @Override
+    public void verifySignature(@NotNull SignatureVerificationKey key, @Nullable DigestAlgorithm digestAlgorithm, @NotNull byte[] data, @NotNull byte[] signature) throws SignatureException, InvalidKeyException {
+        verifySignature(key, digestAlgorithm, ByteBuffer.wrap(data), signature);
+    }
+
+    @Override
+    public void verifySignature(@NotNull SignatureVerificationKey key, @Nullable DigestAlgorithm digestAlgorithm, @NotNull ByteBuffer data, @NotNull byte[] signature) throws SignatureException, InvalidKeyException {
+        try {
+            if (key instanceof JCEHMACKey) {
+                String macAlgorithm = "Hmac" + ((JCEHMACKey) key).getDigestAlgorithm().name();
+                Mac mac = primitivePool.borrowMac(macAlgorithm);
+                try {
+                    mac.init(((JCEHMACKey) key).getSecretKey());
+                    mac.update(data);
+                    if (!Arrays.equals(mac.doFinal(), signature)) {
+                        throw new SignatureException("Signature does not match data");
+                    }
+                } finally {
+                    primitivePool.releaseMac(macAlgorithm, mac);
+                }
+            } else if (key instanceof JCERSAKey) {
+                if (digestAlgorithm == null) {
+                    digestAlgorithm = DigestAlgorithm.SHA256;
+                }
+                JCERSAPublicKey publicKey = getRSAPublicKey(key);
+                if (publicKey != null) {
+                    String signatureAlgorithm = digestAlgorithm.name() + "withRSA";
+                    Signature sig = primitivePool.borrowSignature(signatureAlgorithm);
+                    try {
+                        sig.initVerify(publicKey.getJCEPublicKey());
+                        sig.update(data);
+                        if (!sig.verify(signature)) {
+                            throw new SignatureException();
+                        }
+                    } finally {
+                        primitivePool.releaseSignature(signatureAlgorithm, sig);
+                    }
+                }
+            } else if (key instanceof ECKey) {
+                String signatureAlgorithm = (digestAlgorithm != null ? digestAlgorithm : DigestAlgorithm.SHA256).name() + "withECDSA";
+                Signature sig = primitivePool.borrowSignature(signatureAlgorithm);
+                try {
+                    sig.initVerify(getJCEPublicKey(key));
+                    sig.update(data);
+                    if (!sig.verify(signature)) {
+                        throw new SignatureException();
+                    }
+                } finally {
+                    primitivePool.releaseSignature(signatureAlgorithm, sig);
+                }
+            } else if (key instanceof Ed25519Key) {
+                Signature sig = primitivePool.borrowSignature(ED25519);
+                try {
+                    sig.initVerify(getJCEPublicKey(key));
+                    sig.update(data);
+                    if (!sig.verify(signature)) {
+                        throw new SignatureException();
+                    }
+                } finally {
+                    primitivePool.releaseSignature(ED25519, sig);
+                }
+            } else {
+                throw new IllegalArgumentException("Unable to verify signature using key type " + key.getClass().getName() +
+                        (digestAlgorithm == null ? "" : (" with digest " + digestAlgorithm.name())));
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @NotNull
+    @Override
+    public AESKey generatePBEAESKey(DigestAlgorithm pbkdf2DigestAlgorithm, char[] password, int iterations, byte[] salt, AESKeyLen keyLen) {
+        byte[] encoded = pbkdf2(pbkdf2DigestAlgorithm, password, iterations, salt, keyLen.getLenBits());
+        return new JCEAESKey(this, new SecretKeySpec(encoded, "AES"));
     }
 
     @NotNull
@@ -476,8 +1552,85 @@ public class JCECryptoEngine extends CryptoEngine {
         }
     }
 
+    @Override
+    public byte[] hkdfExtract(@NotNull DigestAlgorithm digestAlgorithm, @Nullable byte[] salt, @NotNull byte[] ikm) {
+        if (salt == null || salt.length == 0) {
+            salt = new byte[digestAlgorithm.getHashLen()];
+        }
+        String macAlgorithm = "Hmac" + digestAlgorithm.name();
+        try {
+            Mac mac = primitivePool.borrowMac(macAlgorithm);
+            try {
+                mac.init(new SecretKeySpec(salt, macAlgorithm));
+                return mac.doFinal(ikm);
+            } finally {
+                primitivePool.releaseMac(macAlgorithm, mac);
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("HKDF not supported with digest " + digestAlgorithm.name());
+        } catch (InvalidKeyException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public byte[] hkdfExpand(@NotNull DigestAlgorithm digestAlgorithm, @NotNull byte[] prk, @Nullable byte[] info, int length) {
+        int hashLen = digestAlgorithm.getHashLen();
+        if (length < 0 || length > 255 * hashLen) {
+            throw new IllegalArgumentException("HKDF output length must be between 0 and " + (255 * hashLen));
+        }
+        String macAlgorithm = "Hmac" + digestAlgorithm.name();
+        try {
+            Mac mac = primitivePool.borrowMac(macAlgorithm);
+            try {
+                mac.init(new SecretKeySpec(prk, macAlgorithm));
+                byte[] okm = new byte[length];
+                byte[] block = new byte[0];
+                for (int i = 1, offset = 0; offset < length; i++) {
+                    mac.update(block);
+                    if (info != null) {
+                        mac.update(info);
+                    }
+                    mac.update((byte) i);
+                    block = mac.doFinal();
+                    int len = Math.min(hashLen, length - offset);
+                    System.arraycopy(block, 0, okm, offset, len);
+                    offset += len;
+                }
+                return okm;
+            } finally {
+                primitivePool.releaseMac(macAlgorithm, mac);
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("HKDF not supported with digest " + digestAlgorithm.name());
+        } catch (InvalidKeyException e) {
+            throw new IllegalArgumentException("Invalid HKDF pseudorandom key", e);
+        }
+    }
+
     @Override
     public byte[] pbkdf2(DigestAlgorithm digestAlgorithms, char[] password, int iterations, byte[] salt, int keyLen) {
+        JCEDerivedKeyCache cache = derivedKeyCache;
+        if (cache == null) {
+            return derivePbkdf2(digestAlgorithms, password, iterations, salt, keyLen);
+        }
+        byte[] id = cache.id("PBKDF2/" + digestAlgorithms.name() + "/" + iterations + "/" + keyLen, password, salt);
+        byte[] key = cache.get(id);
+        if (key == null) {
+            key = derivePbkdf2(digestAlgorithms, password, iterations, salt, keyLen);
+            cache.put(id, key);
+        }
+        return key;
+    }
+
+    private byte[] derivePbkdf2(DigestAlgorithm digestAlgorithms, char[] password, int iterations, byte[] salt, int keyLen) {
+        if (optimizedPbkdf2) {
+            try {
+                return JCEPBKDF2.pbkdf2(digestAlgorithms, password, salt, iterations, keyLen, parallelThreshold >= 0);
+            } catch (CloneNotSupportedException e) {
+                // digest provider can't clone its state, use the JCE implementation
+            }
+        }
         try {
             KeySpec keySpec = new PBEKeySpec(password, salt, iterations, keyLen);
             SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("PBKDF2WithHmac" + digestAlgorithms.name());
@@ -489,12 +1642,63 @@ public class JCECryptoEngine extends CryptoEngine {
         }
     }
 
+    @Override
+    public byte[] argon2id(char[] password, int iterations, int memoryKiB, int parallelism, byte[] salt, int length) {
+        byte[] passwordBytes = JCEPBKDF2.encode(password);
+        try {
+            return argon2id(passwordBytes, iterations, memoryKiB, parallelism, salt, null, null, length);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+    }
+
+    @Override
+    public byte[] argon2id(byte[] password, int iterations, int memoryKiB, int parallelism, byte[] salt,
+                           @Nullable byte[] secret, @Nullable byte[] associatedData, int length) {
+        return JCEArgon2.argon2id(password, salt, secret, associatedData, iterations, memoryKiB, parallelism, length,
+                argon2Arena, parallelThreshold >= 0);
+    }
+
+    @Override
+    public byte[] scrypt(char[] password, int n, int r, int p, byte[] salt, int length) {
+        byte[] passwordBytes = JCEPBKDF2.encode(password);
+        try {
+            return scrypt(passwordBytes, n, r, p, salt, length);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+    }
+
+    @Override
+    public byte[] scrypt(byte[] password, int n, int r, int p, byte[] salt, int length) {
+        return JCEScrypt.scrypt(password, salt, n, r, p, length, parallelThreshold >= 0);
+    }
+
     @Override
     public byte[] digest(byte[] data, DigestAlgorithm alg) {
         try {
-            MessageDigest sha = MessageDigest.getInstance(alg.getJceId());
-            sha.update(data);
-            return sha.digest();
+            MessageDigest sha = primitivePool.borrowMessageDigest(alg.getJceId());
+            try {
+                sha.update(data);
+                return sha.digest();
+            } finally {
+                primitivePool.releaseMessageDigest(alg.getJceId(), sha);
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    @Override
+    public byte[] digest(ByteBuffer data, DigestAlgorithm alg) {
+        try {
+            MessageDigest sha = primitivePool.borrowMessageDigest(alg.getJceId());
+            try {
+                sha.update(data);
+                return sha.digest();
+            } finally {
+                primitivePool.releaseMessageDigest(alg.getJceId(), sha);
+            }
         } catch (NoSuchAlgorithmException e) {
             throw new UnexpectedException(e);
         }
@@ -529,6 +1733,26 @@ public class JCECryptoEngine extends CryptoEngine {
         }
     }
 
+    private java.security.PublicKey getJCEPublicKey(com.kloudtek.kryptotek.Key key) {
+        if (key instanceof JCEPublicKey) {
+            return ((JCEPublicKey) key).getJCEPublicKey();
+        } else if (key instanceof JCEKeyPair) {
+            return ((JCEKeyPair) key).getJCEKeyPair().getPublic();
+        } else {
+            throw new IllegalArgumentException("Key must be a JCE public key or key pair");
+        }
+    }
+
+    private java.security.PrivateKey getJCEPrivateKey(com.kloudtek.kryptotek.Key key) {
+        if (key instanceof JCEPrivateKey) {
+            return ((JCEPrivateKey) key).getJCEPrivateKey();
+        } else if (key instanceof JCEKeyPair) {
+            return ((JCEKeyPair) key).getJCEKeyPair().getPrivate();
+        } else {
+            throw new IllegalArgumentException("Key must be a JCE private key or key pair");
+        }
+    }
+
     private void checkJceKey(com.kloudtek.kryptotek.Key key) {
         if (!(key instanceof JCEKey)) {
             throw new IllegalArgumentException("Key must be a JCE key");
@@ -557,10 +1781,13 @@ public class JCECryptoEngine extends CryptoEngine {
     }
 
     private byte[] agreeDHKey(DHPrivateKey dhPrivateKey, DHPublicKey dhPublicKey) throws InvalidKeyException {
+        if (dhPrivateKey instanceof X25519PrivateKey != dhPublicKey instanceof X25519PublicKey) {
+            throw new InvalidKeyException("Key agreement requires keys of the same type");
+        }
         try {
-            KeyAgreement ka = KeyAgreement.getInstance("DH");
-            ka.init(((JCEDHPrivateKey) dhPrivateKey).getJCEPrivateKey());
-            ka.doPhase(((JCEDHPublicKey) dhPublicKey).getJCEPublicKey(), true);
+            KeyAgreement ka = KeyAgreement.getInstance(dhPrivateKey instanceof X25519PrivateKey ? X25519 : "DH");
+            ka.init(getJCEPrivateKey(dhPrivateKey));
+            ka.doPhase(getJCEPublicKey(dhPublicKey), true);
             return ka.generateSecret();
         } catch (NoSuchAlgorithmException e) {
             throw new UnexpectedException(e);
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.util.StringUtils;
+import com.kloudtek.util.UnexpectedException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of password-derived keys, which can be set on a {@link JCECryptoEngine} to avoid re-running
+ * expensive derivations (ie. PBKDF2) with the same password, salt and parameters.
+ * <p>
+ * Entries aren't indexed by the password but by an HMAC-SHA256 of the derivation inputs, using a random key generated
+ * when the cache is created. The least recently used entries are evicted once the cache is full, entries expire after
+ * a configurable time, and the key material of evicted, expired or cleared entries is overwritten with zeros.
+ * </p>
+ */
+public class JCEDerivedKeyCache {
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private final LinkedHashMap<ByteBuffer, Entry> entries;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final byte[] hmacKey = new byte[32];
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long nextPurge;
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries Maximum number of cached keys
+     * @param ttlMillis  Time in milliseconds after which a cached key expires, or 0 for no expiry
+     */
+    public JCEDerivedKeyCache(int maxEntries, long ttlMillis) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Max entries must be positive");
+        }
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("TTL must not be negative");
+        }
+        this.maxEntries = maxEntries;
+        ttlNanos = ttlMillis * 1000000L;
+        nextPurge = System.nanoTime() + ttlNanos;
+        new SecureRandom().nextBytes(hmacKey);
+        entries = new LinkedHashMap<ByteBuffer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest) {
+                if (size() > JCEDerivedKeyCache.this.maxEntries) {
+                    eldest.getValue().destroy();
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Compute the identifier of a derivation, which is an HMAC of all its inputs.
+     *
+     * @param derivation Derivation algorithm and parameters (ie. "PBKDF2/SHA256/10000/256")
+     * @param password   Password
+     * @param salt       Salt
+     * @return Derivation identifier
+     */
+    byte[] id(String derivation, char[] password, byte[] salt) {
+        byte[] passwordBytes = JCEPBKDF2.encode(password);
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(hmacKey, HMAC_ALGORITHM));
+            updateField(mac, StringUtils.utf8(derivation));
+            updateField(mac, passwordBytes);
+            updateField(mac, salt);
+            return mac.doFinal();
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        } catch (InvalidKeyException e) {
+            throw new UnexpectedException(e);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+    }
+
+    private static void updateField(Mac mac, byte[] data) {
+        // length prefix so that field boundaries are unambiguous
+        mac.update(new byte[]{(byte) (data.length >>> 24), (byte) (data.length >>> 16), (byte) (data.length >>> 8), (byte) data.length});
+        mac.update(data);
+    }
+
+    /**
+     * Get a cached key.
+     *
+     * @param id Derivation identifier
+     * @return Copy of the cached key, or null if it isn't cached or has expired
+     */
+    synchronized byte[] get(byte[] id) {
+        ByteBuffer mapKey = ByteBuffer.wrap(id);
+        Entry entry = entries.get(mapKey);
+        if (entry != null && entry.isExpired(System.nanoTime())) {
+            entries.remove(mapKey);
+            entry.destroy();
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.key.clone();
+    }
+
+    synchronized void put(byte[] id, byte[] key) {
+        long now = System.nanoTime();
+        if (ttlNanos > 0 && now - nextPurge >= 0) {
+            purgeExpired(now);
+            nextPurge = now + ttlNanos;
+        }
+        Entry previous = entries.put(ByteBuffer.wrap(id), new Entry(key.clone(), ttlNanos > 0 ? now + ttlNanos : 0));
+        if (previous != null) {
+            previous.destroy();
+        }
+    }
+
+    /**
+     * Remove all expired entries (they are otherwise removed when accessed, or periodically when keys are added).
+     */
+    public synchronized void purgeExpired() {
+        purgeExpired(System.nanoTime());
+    }
+
+    private void purgeExpired(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.isExpired(now)) {
+                entry.destroy();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            entry.destroy();
+        }
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getTtlMillis() {
+        return ttlNanos / 1000000L;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get how many entries were evicted because the cache was full (expired entries aren't counted).
+     *
+     * @return Eviction count
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Get the ratio of lookups which found a cached key.
+     *
+     * @return Hit rate between 0 and 1 (0 if there was no lookup)
+     */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    private static class Entry {
+        private final byte[] key;
+        private final long expiry;
+
+        private Entry(byte[] key, long expiry) {
+            this.key = key;
+            this.expiry = expiry;
+        }
+
+        private boolean isExpired(long now) {
+            return expiry != 0 && now - expiry >= 0;
+        }
+
+        private void destroy() {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.kryptotek.CryptoEngine;
+import com.kloudtek.kryptotek.CryptoUtils;
+import com.kloudtek.util.UnexpectedException;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.KeyAgreement;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.*;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+/**
+ * ECIES encryption ({@link CryptoEngine#ECIES}). For each message an ephemeral key pair is generated on the curve of
+ * the recipient's key, and the ECDH shared secret is turned into an AES-256 key using the ANSI X9.63 KDF (SHA-256,
+ * with the ephemeral public key as shared info). The encrypted data consists of the 2 bytes length of the X509 encoded
+ * ephemeral public key, the ephemeral public key, and the AES/GCM encrypted data (prefixed with its IV).
+ */
+class JCEECIES {
+    private static final int GCM_OVERHEAD = JCECryptoEngine.GCM_IV_LENGTH + JCECryptoEngine.GCM_TAG_LENGTH_BITS / 8;
+
+    static boolean isECIES(String cipherAlgorithm) {
+        return CryptoEngine.ECIES.equals(cipherAlgorithm);
+    }
+
+    static byte[] encrypt(JCEPrimitivePool pool, Key key, byte[] data, int offset, int length) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+        if (!(key instanceof ECPublicKey)) {
+            throw new InvalidKeyException("ECIES encryption requires an EC public key");
+        }
+        try {
+            KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+            kpg.initialize(((ECPublicKey) key).getParams(), CryptoUtils.rng());
+            KeyPair ephemeral = kpg.generateKeyPair();
+            byte[] ephemeralPublicKey = ephemeral.getPublic().getEncoded();
+            SecretKeySpec aesKey = deriveKey(ephemeral.getPrivate(), (PublicKey) key, ephemeralPublicKey);
+            byte[] encrypted = new byte[2 + ephemeralPublicKey.length + GCM_OVERHEAD + length];
+            encrypted[0] = (byte) (ephemeralPublicKey.length >> 8);
+            encrypted[1] = (byte) ephemeralPublicKey.length;
+            System.arraycopy(ephemeralPublicKey, 0, encrypted, 2, ephemeralPublicKey.length);
+            Cipher cipher = pool.borrowCipher(CryptoEngine.AES_GCM_NO_PADDING);
+            try {
+                JCECryptoEngine.doFinal(cipher, CryptoEngine.AES_GCM_NO_PADDING, aesKey, true, data, offset, length,
+                        encrypted, 2 + ephemeralPublicKey.length);
+            } finally {
+                pool.releaseCipher(CryptoEngine.AES_GCM_NO_PADDING, cipher);
+            }
+            return encrypted;
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        } catch (NoSuchPaddingException e) {
+            throw new UnexpectedException(e);
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new InvalidKeyException(e);
+        } catch (ShortBufferException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    static byte[] decrypt(JCEPrimitivePool pool, Key key, byte[] data, int offset, int length) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+        if (!(key instanceof ECPrivateKey)) {
+            throw new InvalidKeyException("ECIES decryption requires an EC private key");
+        }
+        if (length < 2) {
+            throw new IllegalBlockSizeException("Encrypted data is too short");
+        }
+        int ephemeralLength = ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+        int headerLength = 2 + ephemeralLength;
+        if (length < headerLength + GCM_OVERHEAD) {
+            throw new IllegalBlockSizeException("Encrypted data is too short");
+        }
+        try {
+            byte[] ephemeralPublicKey = Arrays.copyOfRange(data, offset + 2, offset + headerLength);
+            PublicKey ephemeral = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(ephemeralPublicKey));
+            SecretKeySpec aesKey = deriveKey((PrivateKey) key, ephemeral, ephemeralPublicKey);
+            byte[] decrypted = new byte[length - headerLength - GCM_OVERHEAD];
+            Cipher cipher = pool.borrowCipher(CryptoEngine.AES_GCM_NO_PADDING);
+            try {
+                JCECryptoEngine.doFinal(cipher, CryptoEngine.AES_GCM_NO_PADDING, aesKey, false, data, offset + headerLength,
+                        length - headerLength, decrypted, 0);
+            } finally {
+                pool.releaseCipher(CryptoEngine.AES_GCM_NO_PADDING, cipher);
+            }
+            return decrypted;
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        } catch (NoSuchPaddingException e) {
+            throw new UnexpectedException(e);
+        } catch (InvalidKeySpecException e) {
+            throw new BadPaddingException("Invalid ephemeral public key");
+        } catch (ShortBufferException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    /**
+     * Get the length of data once encrypted.
+     *
+     * @param key        EC public key
+     * @param dataLength Data length
+     * @return Encrypted data length
+     */
+    static int getEncryptedLength(Key key, int dataLength) {
+        // the ephemeral public key uses the same curve as the recipient's key, so it has the same encoded length
+        return 2 + key.getEncoded().length + GCM_OVERHEAD + dataLength;
+    }
+
+    static int getMaxDecryptedLength(int encryptedLength) {
+        return Math.max(0, encryptedLength - 2 - GCM_OVERHEAD);
+    }
+
+    private static SecretKeySpec deriveKey(PrivateKey privateKey, PublicKey publicKey, byte[] sharedInfo) throws InvalidKeyException, NoSuchAlgorithmException {
+        KeyAgreement keyAgreement = KeyAgreement.getInstance("ECDH");
+        keyAgreement.init(privateKey);
+        keyAgreement.doPhase(publicKey, true);
+        byte[] sharedSecret = keyAgreement.generateSecret();
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        sha256.update(sharedSecret);
+        sha256.update(new byte[]{0, 0, 0, 1});
+        sha256.update(sharedInfo);
+        byte[] keyData = sha256.digest();
+        Arrays.fill(sharedSecret, (byte) 0);
+        return new SecretKeySpec(keyData, "AES");
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.kryptotek.CryptoEngine;
+import com.kloudtek.kryptotek.EncodedKey;
+import com.kloudtek.kryptotek.InvalidKeyEncodingException;
+import com.kloudtek.kryptotek.key.ECPrivateKey;
+import com.kloudtek.kryptotek.key.KeyType;
+import org.jetbrains.annotations.NotNull;
+
+import java.security.InvalidKeyException;
+import java.security.PrivateKey;
+
+/**
+ * EC private key (PKCS8 encoded).
+ */
+public class JCEECPrivateKey extends JCEPrivateKey implements ECPrivateKey {
+    public JCEECPrivateKey() {
+    }
+
+    public JCEECPrivateKey(@NotNull JCECryptoEngine cryptoEngine, PrivateKey privateKey) {
+        super(cryptoEngine, privateKey);
+    }
+
+    public JCEECPrivateKey(@NotNull JCECryptoEngine cryptoEngine, EncodedKey encodedKey) throws InvalidKeyException, InvalidKeyEncodingException {
+        super(cryptoEngine, encodedKey);
+    }
+
+    @Override
+    public KeyType getType() {
+        return KeyType.EC_PRIVATE;
+    }
+
+    @Override
+    public EncodedKey getEncoded() {
+        return new EncodedKey(key.getEncoded(), EncodedKey.Format.PKCS8);
+    }
+
+    @Override
+    public EncodedKey.Format getDefaultEncoding() {
+        return EncodedKey.Format.PKCS8;
+    }
+
+    @Override
+    public void setDefaultEncoded(byte[] encodedKey) throws InvalidKeyException {
+        readPKCS8Key("EC", encodedKey);
+    }
+
+    @Override
+    public String getJceCryptAlgorithm(boolean compatibilityMode) {
+        return CryptoEngine.ECIES;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.kryptotek.CryptoEngine;
+import com.kloudtek.kryptotek.EncodedKey;
+import com.kloudtek.kryptotek.InvalidKeyEncodingException;
+import com.kloudtek.kryptotek.key.ECPublicKey;
+import com.kloudtek.kryptotek.key.KeyType;
+import org.jetbrains.annotations.NotNull;
+
+import java.security.InvalidKeyException;
+import java.security.PublicKey;
+
+/**
+ * EC public key (X509 encoded).
+ */
+public class JCEECPublicKey extends JCEPublicKey implements ECPublicKey {
+    public JCEECPublicKey() {
+    }
+
+    public JCEECPublicKey(@NotNull JCECryptoEngine cryptoEngine, PublicKey publicKey) {
+        super(cryptoEngine, publicKey);
+    }
+
+    public JCEECPublicKey(@NotNull JCECryptoEngine cryptoEngine, EncodedKey encodedKey) throws InvalidKeyException, InvalidKeyEncodingException {
+        super(cryptoEngine, encodedKey);
+    }
+
+    @Override
+    public KeyType getType() {
+        return KeyType.EC_PUBLIC;
+    }
+
+    @Override
+    public EncodedKey getEncoded() {
+        return new EncodedKey(key.getEncoded(), EncodedKey.Format.X509);
+    }
+
+    @Override
+    public EncodedKey.Format getDefaultEncoding() {
+        return EncodedKey.Format.X509;
+    }
+
+    @Override
+    public void setDefaultEncoded(byte[] encodedKey) throws InvalidKeyException {
+        readX509Key("EC", encodedKey);
+    }
+
+    @Override
+    public byte[] getDefaultEncoded() {
+        return key.getEncoded();
+    }
+
+    @Override
+    public String getJceCryptAlgorithm(boolean compatibilityMode) {
+        return CryptoEngine.ECIES;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.kryptotek.EncodedKey;
+import com.kloudtek.kryptotek.InvalidKeyEncodingException;
+import com.kloudtek.kryptotek.key.Ed25519PrivateKey;
+import com.kloudtek.kryptotek.key.KeyType;
+import org.jetbrains.annotations.NotNull;
+
+import java.security.InvalidKeyException;
+import java.security.PrivateKey;
+
+/**
+ * Ed25519 private key (PKCS8 encoded), requires a JCE provider supporting EdDSA (java 15+).
+ */
+public class JCEEd25519PrivateKey extends JCEPrivateKey implements Ed25519PrivateKey {
+    public JCEEd25519PrivateKey() {
+    }
+
+    public JCEEd25519PrivateKey(@NotNull JCECryptoEngine cryptoEngine, PrivateKey privateKey) {
+        super(cryptoEngine, privateKey);
+    }
+
+    public JCEEd25519PrivateKey(@NotNull JCECryptoEngine cryptoEngine, EncodedKey encodedKey) throws InvalidKeyException, InvalidKeyEncodingException {
+        super(cryptoEngine, encodedKey);
+    }
+
+    @Override
+    public KeyType getType() {
+        return KeyType.ED25519_PRIVATE;
+    }
+
+    @Override
+    public EncodedKey getEncoded() {
+        return new EncodedKey(key.getEncoded(), EncodedKey.Format.PKCS8);
+    }
+
+    @Override
+    public EncodedKey.Format getDefaultEncoding() {
+        return EncodedKey.Format.PKCS8;
+    }
+
+    @Override
+    public void setDefaultEncoded(byte[] encodedKey) throws InvalidKeyException {
+        readPKCS8Key(JCECryptoEngine.ED25519, encodedKey);
+    }
+}
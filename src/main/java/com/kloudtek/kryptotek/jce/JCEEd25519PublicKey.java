@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.kryptotek.EncodedKey;
+import com.kloudtek.kryptotek.InvalidKeyEncodingException;
+import com.kloudtek.kryptotek.key.Ed25519PublicKey;
+import com.kloudtek.kryptotek.key.KeyType;
+import org.jetbrains.annotations.NotNull;
+
+import java.security.InvalidKeyException;
+import java.security.PublicKey;
+
+/**
+ * Ed25519 public key (X509 encoded), requires a JCE provider supporting EdDSA (java 15+).
+ */
+public class JCEEd25519PublicKey extends JCEPublicKey implements Ed25519PublicKey {
+    public JCEEd25519PublicKey() {
+    }
+
+    public JCEEd25519PublicKey(@NotNull JCECryptoEngine cryptoEngine, PublicKey publicKey) {
+        super(cryptoEngine, publicKey);
+    }
+
+    public JCEEd25519PublicKey(@NotNull JCECryptoEngine cryptoEngine, EncodedKey encodedKey) throws InvalidKeyException, InvalidKeyEncodingException {
+        super(cryptoEngine, encodedKey);
+    }
+
+    @Override
+    public KeyType getType() {
+        return KeyType.ED25519_PUBLIC;
+    }
+
+    @Override
+    public EncodedKey getEncoded() {
+        return new EncodedKey(key.getEncoded(), EncodedKey.Format.X509);
+    }
+
+    @Override
+    public EncodedKey.Format getDefaultEncoding() {
+        return EncodedKey.Format.X509;
+    }
+
+    @Override
+    public void setDefaultEncoded(byte[] encodedKey) throws InvalidKeyException {
+        readX509Key(JCECryptoEngine.ED25519, encodedKey);
+    }
+
+    @Override
+    public byte[] getDefaultEncoded() {
+        return key.getEncoded();
+    }
+}
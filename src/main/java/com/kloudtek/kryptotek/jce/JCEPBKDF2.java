@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.kryptotek.CryptoUtils;
+import com.kloudtek.kryptotek.DigestAlgorithm;
+import com.kloudtek.kryptotek.DigestUtils;
+import com.kloudtek.kryptotek.ResumableDigest;
+import com.kloudtek.util.UnexpectedException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * PBKDF2 (RFC 8018) implementation which produces the same output as the JCE's PBKDF2WithHmac algorithms, but only
+ * hashes the HMAC inner and outer pads once, and all iterations reuse the same buffers. Keys longer than the digest can
+ * have their blocks computed in parallel.
+ * <p>
+ * Each iteration has to restart from the digest states of the pads. On Java 8 and earlier, each block uses a single
+ * pure java {@link ResumableDigest} whose state is restored without allocating (which is as fast as the JCE digests
+ * there). From Java 9 HotSpot has SHA intrinsics, which are much faster than the pure java digests even when cloning
+ * the JCE digest states on every iteration, so those are used instead.
+ * </p>
+ */
+class JCEPBKDF2 {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int PARALLEL_MIN_ITERATIONS = 1000;
+    private static final boolean RESTORE_MIDSTATE = System.getProperty("java.specification.version", "").startsWith("1.");
+    private final DigestAlgorithm digestAlgorithm;
+    private final MessageDigest innerState;
+    private final MessageDigest outerState;
+    private final ResumableDigest innerMidstate;
+    private final ResumableDigest outerMidstate;
+    private final int hashLen;
+
+    private JCEPBKDF2(DigestAlgorithm digestAlgorithm, MessageDigest innerState, MessageDigest outerState,
+                      ResumableDigest innerMidstate, ResumableDigest outerMidstate) {
+        this.digestAlgorithm = digestAlgorithm;
+        this.innerState = innerState;
+        this.outerState = outerState;
+        this.innerMidstate = innerMidstate;
+        this.outerMidstate = outerMidstate;
+        hashLen = digestAlgorithm.getHashLen();
+    }
+
+    /**
+     * Derive a key.
+     *
+     * @param digestAlgorithm HMAC digest algorithm
+     * @param password        Password (UTF-8 encoded before use, like the JCE implementation does)
+     * @param salt            Salt
+     * @param iterations      Iteration count
+     * @param keyLenBits      Key length in bits (any remainder of a division by 8 is ignored)
+     * @param parallel        True if the output blocks should be computed in parallel when the key is longer than the
+     *                        digest (and the iteration count high enough for it to be worthwhile)
+     * @return Derived key
+     * @throws CloneNotSupportedException If the digest implementation doesn't support cloning its state
+     */
+    static byte[] pbkdf2(DigestAlgorithm digestAlgorithm, char[] password, byte[] salt, int iterations, int keyLenBits, boolean parallel) throws CloneNotSupportedException {
+        if (salt.length == 0) {
+            throw new IllegalArgumentException("Salt must not be empty");
+        }
+        byte[] passwordBytes = encode(password);
+        try {
+            return pbkdf2(digestAlgorithm, passwordBytes, salt, iterations, keyLenBits, parallel);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Derive a key from a binary password (unlike the char[] variant, an empty salt is accepted).
+     */
+    static byte[] pbkdf2(DigestAlgorithm digestAlgorithm, byte[] password, byte[] salt, int iterations, int keyLenBits, boolean parallel) throws CloneNotSupportedException {
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("Iteration count must be positive");
+        }
+        if (keyLenBits <= 0) {
+            throw new IllegalArgumentException("Key length must be positive");
+        }
+        return create(digestAlgorithm, password).derive(salt, iterations, keyLenBits / 8, parallel);
+    }
+
+    private static JCEPBKDF2 create(DigestAlgorithm digestAlgorithm, byte[] key) throws CloneNotSupportedException {
+        try {
+            MessageDigest md = MessageDigest.getInstance(digestAlgorithm.getJceId());
+            int blockSize = digestAlgorithm == DigestAlgorithm.SHA512 ? 128 : 64;
+            if (key.length > blockSize) {
+                key = md.digest(key);
+            }
+            byte[] pad = new byte[blockSize];
+            try {
+                for (int i = 0; i < blockSize; i++) {
+                    pad[i] = (byte) ((i < key.length ? key[i] : 0) ^ 0x36);
+                }
+                if (RESTORE_MIDSTATE) {
+                    ResumableDigest innerMidstate = DigestUtils.resumableDigest(digestAlgorithm);
+                    innerMidstate.update(pad);
+                    for (int i = 0; i < blockSize; i++) {
+                        pad[i] = (byte) ((i < key.length ? key[i] : 0) ^ 0x5c);
+                    }
+                    ResumableDigest outerMidstate = DigestUtils.resumableDigest(digestAlgorithm);
+                    outerMidstate.update(pad);
+                    return new JCEPBKDF2(digestAlgorithm, null, null, innerMidstate, outerMidstate);
+                }
+                md.update(pad);
+                MessageDigest innerState = (MessageDigest) md.clone();
+                md.reset();
+                for (int i = 0; i < blockSize; i++) {
+                    pad[i] = (byte) ((i < key.length ? key[i] : 0) ^ 0x5c);
+                }
+                md.update(pad);
+                return new JCEPBKDF2(digestAlgorithm, innerState, md, null, null);
+            } finally {
+                Arrays.fill(pad, (byte) 0);
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    private byte[] derive(final byte[] salt, final int iterations, final int keyLen, boolean parallel) throws CloneNotSupportedException {
+        final byte[] key = new byte[keyLen];
+        int blocks = (keyLen + hashLen - 1) / hashLen;
+        if (parallel && blocks > 1 && iterations >= PARALLEL_MIN_ITERATIONS) {
+            // blocks are independent, so all but the first one are computed by the fork/join pool
+            ArrayList<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>(blocks - 1);
+            for (int block = 2; block <= blocks; block++) {
+                final int blockNumber = block;
+                tasks.add(CryptoUtils.forkJoinPool().submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws CloneNotSupportedException {
+                        deriveBlock(salt, iterations, blockNumber, key);
+                        return null;
+                    }
+                }));
+            }
+            deriveBlock(salt, iterations, 1, key);
+            for (ForkJoinTask<Void> task : tasks) {
+                task.join();
+            }
+        } else {
+            for (int block = 1; block <= blocks; block++) {
+                deriveBlock(salt, iterations, block, key);
+            }
+        }
+        return key;
+    }
+
+    private void deriveBlock(byte[] salt, int iterations, int block, byte[] key) throws CloneNotSupportedException {
+        byte[] u = new byte[hashLen];
+        byte[] t = new byte[hashLen];
+        byte[] blockIndex = new byte[]{(byte) (block >>> 24), (byte) (block >>> 16), (byte) (block >>> 8), (byte) block};
+        try {
+            if (innerMidstate != null) {
+                ResumableDigest working = DigestUtils.resumableDigest(digestAlgorithm);
+                working.restore(innerMidstate);
+                working.update(salt);
+                working.update(blockIndex);
+                working.digest(u, 0, hashLen);
+                hmacOuter(working, u);
+                System.arraycopy(u, 0, t, 0, hashLen);
+                for (int i = 1; i < iterations; i++) {
+                    working.restore(innerMidstate);
+                    working.update(u, 0, hashLen);
+                    working.digest(u, 0, hashLen);
+                    hmacOuter(working, u);
+                    for (int j = 0; j < hashLen; j++) {
+                        t[j] ^= u[j];
+                    }
+                }
+            } else {
+                MessageDigest inner = (MessageDigest) innerState.clone();
+                inner.update(salt);
+                inner.update(blockIndex);
+                inner.digest(u, 0, hashLen);
+                hmacOuter(u);
+                System.arraycopy(u, 0, t, 0, hashLen);
+                for (int i = 1; i < iterations; i++) {
+                    inner = (MessageDigest) innerState.clone();
+                    inner.update(u, 0, hashLen);
+                    inner.digest(u, 0, hashLen);
+                    hmacOuter(u);
+                    for (int j = 0; j < hashLen; j++) {
+                        t[j] ^= u[j];
+                    }
+                }
+            }
+            int offset = (block - 1) * hashLen;
+            System.arraycopy(t, 0, key, offset, Math.min(hashLen, key.length - offset));
+        } catch (DigestException e) {
+            throw new UnexpectedException(e);
+        } finally {
+            Arrays.fill(u, (byte) 0);
+            Arrays.fill(t, (byte) 0);
+        }
+    }
+
+    /**
+     * Complete an HMAC by hashing the inner hash (held in the buffer) with the outer pad state, the result replaces the
+     * buffer's content.
+     */
+    private void hmacOuter(byte[] buf) throws CloneNotSupportedException, DigestException {
+        MessageDigest outer = (MessageDigest) outerState.clone();
+        outer.update(buf, 0, hashLen);
+        outer.digest(buf, 0, hashLen);
+    }
+
+    /**
+     * Same as {@link #hmacOuter(byte[])}, but restoring the outer pad state into the working digest.
+     */
+    private void hmacOuter(ResumableDigest working, byte[] buf) throws DigestException {
+        working.restore(outerMidstate);
+        working.update(buf, 0, hashLen);
+        working.digest(buf, 0, hashLen);
+    }
+
+    static byte[] encode(char[] password) {
+        ByteBuffer encoded = UTF8.encode(CharBuffer.wrap(password));
+        byte[] passwordBytes = new byte[encoded.remaining()];
+        encoded.get(passwordBytes);
+        if (encoded.hasArray()) {
+            Arrays.fill(encoded.array(), (byte) 0);
+        }
+        return passwordBytes;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.kryptotek.CryptoUtils;
+import com.kloudtek.util.UnexpectedException;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.spec.IvParameterSpec;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits large payloads into segments which are processed in parallel on {@link CryptoUtils#forkJoinPool()}.
+ * <ul>
+ * <li>For counter mode (AES/CTR), each segment uses the initial counter block incremented by the segment's block
+ * offset.</li>
+ * <li>For CBC decryption, each segment uses the last cipher text block of the previous segment as IV. Only the final
+ * segment is decrypted with padding, so padding is only checked once.</li>
+ * </ul>
+ * In both cases the result is identical to a single threaded pass.
+ */
+class JCEParallelCipher {
+    static final int AES_BLOCK_SIZE = 16;
+    private static final String AES_CBC_NO_PADDING = "AES/CBC/NoPadding";
+
+    private JCEParallelCipher() {
+    }
+
+    /**
+     * Encrypt or decrypt data using a counter mode cipher, in parallel.
+     *
+     * @param pool            Primitive pool used to obtain ciphers
+     * @param cipherAlgorithm Cipher algorithm (must be a counter mode algorithm with 16 bytes blocks)
+     * @param key             Key
+     * @param iv              Initial counter block
+     * @param in              Input buffer
+     * @param inOffset        Input offset
+     * @param length          Length of the data
+     * @param out             Output buffer (may be the same as the input buffer only if the offsets are the same)
+     * @param outOffset       Output offset
+     * @param segmentSize     Size of the segments processed by each task (must be a multiple of 16)
+     */
+    static void ctr(final JCEPrimitivePool pool, final String cipherAlgorithm, final Key key, final byte[] iv, final byte[] in,
+                    final int inOffset, final int length, final byte[] out, final int outOffset, final int segmentSize) throws InvalidKeyException {
+        checkSegmentSize(segmentSize);
+        try {
+            invoke(new SegmentProcessor() {
+                @Override
+                public void process(int segment) throws GeneralSecurityException {
+                    int start = segment * segmentSize;
+                    int len = Math.min(segmentSize, length - start);
+                    Cipher cipher = pool.borrowCipher(cipherAlgorithm);
+                    try {
+                        cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(addCounter(iv, (long) start / AES_BLOCK_SIZE)));
+                        cipher.doFinal(in, inOffset + start, len, out, outOffset + start);
+                    } finally {
+                        pool.releaseCipher(cipherAlgorithm, cipher);
+                    }
+                }
+            }, segmentCount(length, segmentSize));
+        } catch (BadPaddingException e) {
+            throw new UnexpectedException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    /**
+     * Decrypt CBC encrypted data in parallel. The input and output buffers must not overlap.
+     *
+     * @param pool            Primitive pool used to obtain ciphers
+     * @param cipherAlgorithm Cipher algorithm (must be an AES/CBC algorithm)
+     * @param key             Key
+     * @param iv              IV
+     * @param in              Input buffer
+     * @param inOffset        Offset of the cipher text (excluding the IV)
+     * @param length          Length of the cipher text (must be a multiple of 16)
+     * @param out             Output buffer (must have at least length bytes available)
+     * @param outOffset       Output offset
+     * @param segmentSize     Size of the segments processed by each task (must be a multiple of 16)
+     * @return Length of the decrypted data
+     */
+    static int cbcDecrypt(final JCEPrimitivePool pool, final String cipherAlgorithm, final Key key, final byte[] iv, final byte[] in,
+                          final int inOffset, final int length, final byte[] out, final int outOffset, final int segmentSize) throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        checkSegmentSize(segmentSize);
+        if (length % AES_BLOCK_SIZE != 0) {
+            throw new IllegalBlockSizeException("Input length must be a multiple of " + AES_BLOCK_SIZE);
+        }
+        final int segments = segmentCount(length, segmentSize);
+        final int[] finalLength = new int[1];
+        invoke(new SegmentProcessor() {
+            @Override
+            public void process(int segment) throws GeneralSecurityException {
+                int start = segment * segmentSize;
+                int len = Math.min(segmentSize, length - start);
+                IvParameterSpec segmentIv = start == 0 ? new IvParameterSpec(iv) : new IvParameterSpec(in, inOffset + start - AES_BLOCK_SIZE, AES_BLOCK_SIZE);
+                boolean last = segment == segments - 1;
+                String alg = last ? cipherAlgorithm : AES_CBC_NO_PADDING;
+                Cipher cipher = pool.borrowCipher(alg);
+                try {
+                    cipher.init(Cipher.DECRYPT_MODE, key, segmentIv);
+                    int written = cipher.doFinal(in, inOffset + start, len, out, outOffset + start);
+                    if (last) {
+                        finalLength[0] = start + written;
+                    }
+                } finally {
+                    pool.releaseCipher(alg, cipher);
+                }
+            }
+        }, segments);
+        return finalLength[0];
+    }
+
+    /**
+     * Add a value to a big endian counter block.
+     *
+     * @param counter Initial counter block
+     * @param value   Value to add
+     * @return New counter block
+     */
+    static byte[] addCounter(byte[] counter, long value) {
+        byte[] result = counter.clone();
+        int carry = 0;
+        for (int i = result.length - 1; i >= 0; i--) {
+            int sum = (result[i] & 0xFF) + (int) (value & 0xFF) + carry;
+            result[i] = (byte) sum;
+            carry = sum >>> 8;
+            value >>>= 8;
+        }
+        return result;
+    }
+
+    private static void checkSegmentSize(int segmentSize) {
+        if (segmentSize <= 0 || segmentSize % AES_BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException("Segment size must be a positive multiple of " + AES_BLOCK_SIZE);
+        }
+    }
+
+    private static int segmentCount(int length, int segmentSize) {
+        return (length + segmentSize - 1) / segmentSize;
+    }
+
+    private static void invoke(SegmentProcessor processor, int segments) throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        SegmentTask task = new SegmentTask(processor, 0, segments);
+        CryptoUtils.forkJoinPool().invoke(task);
+        GeneralSecurityException error = task.error;
+        if (error != null) {
+            if (error instanceof InvalidKeyException) {
+                throw (InvalidKeyException) error;
+            } else if (error instanceof BadPaddingException) {
+                throw (BadPaddingException) error;
+            } else if (error instanceof IllegalBlockSizeException) {
+                throw (IllegalBlockSizeException) error;
+            } else {
+                throw new UnexpectedException(error);
+            }
+        }
+    }
+
+    private interface SegmentProcessor {
+        void process(int segment) throws GeneralSecurityException;
+    }
+
+    private static class SegmentTask extends RecursiveAction {
+        private static final long serialVersionUID = -4120815634781946932L;
+        private final SegmentProcessor processor;
+        private final int firstSegment;
+        private final int lastSegment;
+        private volatile GeneralSecurityException error;
+
+        SegmentTask(SegmentProcessor processor, int firstSegment, int lastSegment) {
+            this.processor = processor;
+            this.firstSegment = firstSegment;
+            this.lastSegment = lastSegment;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastSegment - firstSegment > 1) {
+                int mid = (firstSegment + lastSegment) >>> 1;
+                SegmentTask left = new SegmentTask(processor, firstSegment, mid);
+                SegmentTask right = new SegmentTask(processor, mid, lastSegment);
+                invokeAll(left, right);
+                error = left.error != null ? left.error : right.error;
+            } else {
+                try {
+                    processor.process(firstSegment);
+                } catch (GeneralSecurityException e) {
+                    error = e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.kryptotek.*;
+import org.jetbrains.annotations.NotNull;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * JCE cipher bound to a key. Ciphers which don't use an IV are initialized once, while ciphers which do are
+ * re-initialized with a new IV for every message (the JCE provider will skip the key schedule since the key is unchanged).
+ */
+public class JCEPreparedCipher implements PreparedEncryptor, PreparedDecryptor {
+    private final String cipherAlgorithm;
+    private final boolean encryptMode;
+    private final int ivLength;
+    private Key key;
+    private Cipher cipher;
+
+    public JCEPreparedCipher(@NotNull String cipherAlgorithm, @NotNull Key key, boolean encryptMode) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException {
+        this.cipherAlgorithm = cipherAlgorithm;
+        this.key = key;
+        this.encryptMode = encryptMode;
+        ivLength = JCECryptoEngine.getIvLength(cipherAlgorithm);
+        cipher = Cipher.getInstance(cipherAlgorithm);
+        JCECryptoEngine.initCipher(cipher, cipherAlgorithm, key, encryptMode);
+    }
+
+    public String getCipherAlgorithm() {
+        return cipherAlgorithm;
+    }
+
+    @Override
+    public byte[] encrypt(@NotNull byte[] data) throws EncryptionException {
+        checkMode(true);
+        try {
+            return JCECryptoEngine.doFinal(cipher, cipherAlgorithm, getInitKey(), true, data);
+        } catch (InvalidKeyException e) {
+            throw new EncryptionException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new EncryptionException(e);
+        } catch (BadPaddingException e) {
+            throw new EncryptionException(e);
+        }
+    }
+
+    @Override
+    public int encrypt(@NotNull byte[] in, int inOffset, int inLength, @NotNull byte[] out, int outOffset) throws EncryptionException {
+        checkMode(true);
+        try {
+            return JCECryptoEngine.doFinal(cipher, cipherAlgorithm, getInitKey(), true, in, inOffset, inLength, out, outOffset);
+        } catch (InvalidKeyException e) {
+            throw new EncryptionException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new EncryptionException(e);
+        } catch (BadPaddingException e) {
+            throw new EncryptionException(e);
+        } catch (ShortBufferException e) {
+            throw new EncryptionException(e);
+        }
+    }
+
+    @Override
+    public int getEncryptedLength(int dataLength) {
+        checkMode(true);
+        return ivLength + cipher.getOutputSize(dataLength);
+    }
+
+    @Override
+    public byte[] decrypt(@NotNull byte[] data) throws DecryptionException {
+        checkMode(false);
+        try {
+            return JCECryptoEngine.doFinal(cipher, cipherAlgorithm, getInitKey(), false, data);
+        } catch (InvalidKeyException e) {
+            throw new DecryptionException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new DecryptionException(e);
+        } catch (BadPaddingException e) {
+            throw new DecryptionException(e);
+        }
+    }
+
+    @Override
+    public int decrypt(@NotNull byte[] in, int inOffset, int inLength, @NotNull byte[] out, int outOffset) throws DecryptionException {
+        checkMode(false);
+        try {
+            return JCECryptoEngine.doFinal(cipher, cipherAlgorithm, getInitKey(), false, in, inOffset, inLength, out, outOffset);
+        } catch (InvalidKeyException e) {
+            throw new DecryptionException(e);
+        } catch (IllegalBlockSizeException e) {
+            throw new DecryptionException(e);
+        } catch (BadPaddingException e) {
+            throw new DecryptionException(e);
+        } catch (ShortBufferException e) {
+            throw new DecryptionException(e);
+        }
+    }
+
+    @Override
+    public int getMaxDecryptedLength(int encryptedLength) {
+        checkMode(false);
+        return cipher.getOutputSize(Math.max(0, encryptedLength - ivLength));
+    }
+
+    @Override
+    public void destroy() {
+        key = null;
+        cipher = null;
+    }
+
+    /**
+     * Ciphers without IV stay initialized between messages, so the key only needs to be provided for those with an IV.
+     */
+    private Key getInitKey() {
+        return ivLength > 0 ? key : null;
+    }
+
+    private void checkMode(boolean encrypt) {
+        if (cipher == null) {
+            throw new IllegalStateException("Prepared cipher has been destroyed");
+        } else if (encrypt != encryptMode) {
+            throw new IllegalStateException("Cipher was prepared for " + (encryptMode ? "encryption" : "decryption"));
+        }
+    }
+}
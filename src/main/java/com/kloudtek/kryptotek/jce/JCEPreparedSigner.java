@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.kryptotek.PreparedSigner;
+import org.jetbrains.annotations.NotNull;
+
+import javax.crypto.Mac;
+import java.security.InvalidKeyException;
+import java.security.Signature;
+import java.security.SignatureException;
+
+/**
+ * JCE {@link Mac} or {@link Signature} initialized with a signing key. Both reset themselves to their initialized state
+ * after each signature, so the key setup is only performed once.
+ */
+public class JCEPreparedSigner implements PreparedSigner {
+    private Mac mac;
+    private Signature signature;
+
+    public JCEPreparedSigner(@NotNull Mac mac) {
+        this.mac = mac;
+    }
+
+    public JCEPreparedSigner(@NotNull Signature signature) {
+        this.signature = signature;
+    }
+
+    @Override
+    public byte[] sign(@NotNull byte[] data) throws InvalidKeyException {
+        if (mac != null) {
+            return mac.doFinal(data);
+        } else if (signature != null) {
+            try {
+                signature.update(data);
+                return signature.sign();
+            } catch (SignatureException e) {
+                throw new InvalidKeyException(e);
+            }
+        } else {
+            throw new IllegalStateException("Prepared signer has been destroyed");
+        }
+    }
+
+    @Override
+    public void destroy() {
+        mac = null;
+        signature = null;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.kryptotek.DigestUtils;
+import com.kloudtek.kryptotek.PreparedVerifier;
+import org.jetbrains.annotations.NotNull;
+
+import javax.crypto.Mac;
+import java.security.Signature;
+import java.security.SignatureException;
+
+/**
+ * JCE {@link Mac} or {@link Signature} initialized with a signature verification key.
+ */
+public class JCEPreparedVerifier implements PreparedVerifier {
+    private Mac mac;
+    private Signature signature;
+
+    public JCEPreparedVerifier(@NotNull Mac mac) {
+        this.mac = mac;
+    }
+
+    public JCEPreparedVerifier(@NotNull Signature signature) {
+        this.signature = signature;
+    }
+
+    @Override
+    public void verifySignature(@NotNull byte[] data, @NotNull byte[] signatureData) throws SignatureException {
+        if (mac != null) {
+            if (!DigestUtils.compareDigest(mac.doFinal(data), signatureData)) {
+                throw new SignatureException("Signature does not match data");
+            }
+        } else if (signature != null) {
+            signature.update(data);
+            if (!signature.verify(signatureData)) {
+                throw new SignatureException();
+            }
+        } else {
+            throw new IllegalStateException("Prepared verifier has been destroyed");
+        }
+    }
+
+    @Override
+    public void destroy() {
+        mac = null;
+        signature = null;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-thread pool of JCA primitives ({@link Cipher}, {@link Mac}, {@link Signature} and {@link MessageDigest}) keyed by
+ * algorithm name, so that operations don't have to go through a provider lookup and a new instance every time.
+ * <p>
+ * Instances are borrowed and must be released by the same thread once the operation is complete. A borrowed instance
+ * is removed from the pool until released, so nested operations using the same algorithm will simply get a new instance.
+ * Each thread keeps at most one idle instance per algorithm, and at most {@link #getMaxAlgorithmsPerThread()} algorithms.
+ * </p>
+ * <p>
+ * Idle instances must not keep the last caller's key: released ciphers and macs are re-initialized with a throwaway
+ * all-zero key before being pooled (and dropped if that isn't possible, as with asymmetric ciphers), and only signatures
+ * initialized for verification (which hold a public key) may be released.
+ * </p>
+ */
+public class JCEPrimitivePool {
+    public static final int DEFAULT_MAX_ALGORITHMS_PER_THREAD = 32;
+    private static final String CIPHER = "Cipher/";
+    private static final String MAC = "Mac/";
+    private static final String SIGNATURE = "Signature/";
+    private static final String DIGEST = "MessageDigest/";
+    private final ThreadLocal<HashMap<String, Object>> pool = new ThreadLocal<HashMap<String, Object>>() {
+        @Override
+        protected HashMap<String, Object> initialValue() {
+            return new HashMap<String, Object>();
+        }
+    };
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile boolean enabled = true;
+    private volatile int maxAlgorithmsPerThread = DEFAULT_MAX_ALGORITHMS_PER_THREAD;
+
+    public Cipher borrowCipher(String algorithm) throws NoSuchAlgorithmException, NoSuchPaddingException {
+        Cipher cipher = (Cipher) borrow(CIPHER + algorithm);
+        return cipher != null ? cipher : Cipher.getInstance(algorithm);
+    }
+
+    public void releaseCipher(String algorithm, Cipher cipher) {
+        if (enabled && cipher != null) {
+            String keyAlgorithm = algorithm.startsWith("ChaCha20") ? "ChaCha20" : algorithm.split("/")[0];
+            try {
+                SecretKeySpec throwawayKey = new SecretKeySpec(new byte[keyAlgorithm.equals("ChaCha20") ? 32 : 16], keyAlgorithm);
+                // decrypt mode, since providers refuse to encrypt twice with the same key and GCM / ChaCha20 nonce
+                AlgorithmParameters params = cipher.getParameters();
+                if (params != null) {
+                    cipher.init(Cipher.DECRYPT_MODE, throwawayKey, params);
+                } else {
+                    cipher.init(Cipher.DECRYPT_MODE, throwawayKey);
+                }
+            } catch (GeneralSecurityException e) {
+                return;
+            }
+            release(CIPHER + algorithm, cipher);
+        }
+    }
+
+    public Mac borrowMac(String algorithm) throws NoSuchAlgorithmException {
+        Mac mac = (Mac) borrow(MAC + algorithm);
+        return mac != null ? mac : Mac.getInstance(algorithm);
+    }
+
+    public void releaseMac(String algorithm, Mac mac) {
+        if (enabled && mac != null) {
+            try {
+                mac.init(new SecretKeySpec(new byte[mac.getMacLength()], algorithm));
+            } catch (GeneralSecurityException e) {
+                return;
+            }
+            release(MAC + algorithm, mac);
+        }
+    }
+
+    public Signature borrowSignature(String algorithm) throws NoSuchAlgorithmException {
+        Signature signature = (Signature) borrow(SIGNATURE + algorithm);
+        return signature != null ? signature : Signature.getInstance(algorithm);
+    }
+
+    /**
+     * Release a signature which was initialized for verification. Signatures used for signing hold the private key and
+     * can't be re-initialized without another private key, so they must simply be dropped instead of released.
+     *
+     * @param algorithm Signature algorithm
+     * @param signature Signature initialized for verification
+     */
+    public void releaseSignature(String algorithm, Signature signature) {
+        release(SIGNATURE + algorithm, signature);
+    }
+
+    public MessageDigest borrowMessageDigest(String algorithm) throws NoSuchAlgorithmException {
+        MessageDigest messageDigest = (MessageDigest) borrow(DIGEST + algorithm);
+        return messageDigest != null ? messageDigest : MessageDigest.getInstance(algorithm);
+    }
+
+    public void releaseMessageDigest(String algorithm, MessageDigest messageDigest) {
+        messageDigest.reset();
+        release(DIGEST + algorithm, messageDigest);
+    }
+
+    private Object borrow(String id) {
+        if (!enabled) {
+            return null;
+        }
+        Object primitive = pool.get().remove(id);
+        if (primitive != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return primitive;
+    }
+
+    private void release(String id, Object primitive) {
+        if (enabled && primitive != null) {
+            HashMap<String, Object> threadPool = pool.get();
+            if (threadPool.size() < maxAlgorithmsPerThread || threadPool.containsKey(id)) {
+                threadPool.put(id, primitive);
+            }
+        }
+    }
+
+    /**
+     * Remove all idle primitives held by the current thread.
+     */
+    public void clear() {
+        pool.remove();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enable or disable pooling. When disabled a new instance is created for every operation (which was the behavior
+     * prior to pooling).
+     *
+     * @param enabled True if pooling should be enabled
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    public int getMaxAlgorithmsPerThread() {
+        return maxAlgorithmsPerThread;
+    }
+
+    public void setMaxAlgorithmsPerThread(int maxAlgorithmsPerThread) {
+        if (maxAlgorithmsPerThread < 0) {
+            throw new IllegalArgumentException("Max algorithms per thread must not be negative");
+        }
+        this.maxAlgorithmsPerThread = maxAlgorithmsPerThread;
+    }
+
+    /**
+     * Get how many times a pooled instance was reused.
+     *
+     * @return Pool hit count
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get how many times a new instance had to be created while pooling was enabled.
+     *
+     * @return Pool miss count
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.kryptotek.CryptoUtils;
+import com.kloudtek.kryptotek.DigestAlgorithm;
+import com.kloudtek.util.UnexpectedException;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * scrypt (RFC 7914) implementation. The N*r*128 bytes of working memory are kept by each thread for reuse by its
+ * next derivation (through a soft reference, so they can be reclaimed under memory pressure), and the p independent
+ * blocks can be mixed in parallel on the fork/join pool.
+ */
+class JCEScrypt {
+    private static final ThreadLocal<SoftReference<int[]>> scratch = new ThreadLocal<SoftReference<int[]>>();
+
+    /**
+     * Derive a key.
+     *
+     * @param password Password
+     * @param salt     Salt
+     * @param n        CPU/memory cost (a power of 2 greater than 1)
+     * @param r        Block size
+     * @param p        Parallelization
+     * @param length   Key length in bytes
+     * @param parallel True if the p blocks should be mixed in parallel
+     * @return Derived key
+     */
+    static byte[] scrypt(byte[] password, byte[] salt, final int n, final int r, int p, int length, boolean parallel) {
+        if (n < 2 || (n & (n - 1)) != 0) {
+            throw new IllegalArgumentException("N must be a power of 2 greater than 1");
+        }
+        if (r < 1 || p < 1) {
+            throw new IllegalArgumentException("r and p must be positive");
+        }
+        if (r == 1 && n >= 1 << 16) {
+            throw new IllegalArgumentException("N must be lower than 2^(16 * r)");
+        }
+        if ((long) r * p >= 1 << 30) {
+            throw new IllegalArgumentException("r * p must be lower than 2^30");
+        }
+        if (((long) n + 1) * r * 32 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("N * r is too large");
+        }
+        // the intermediate PBKDF2 output is requested in bits, so it (and not just the array) must fit in an int
+        if (128L * r * p * 8 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("r * p is too large");
+        }
+        if (length < 1 || (long) length * 8 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Key length must be positive and lower than 2^28 bytes");
+        }
+        final int blockLen = 128 * r;
+        final byte[] b = pbkdf2(password, salt, blockLen * p * 8);
+        try {
+            if (parallel && p > 1) {
+                ArrayList<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>(p - 1);
+                for (int i = 1; i < p; i++) {
+                    final int offset = i * blockLen;
+                    tasks.add(CryptoUtils.forkJoinPool().submit(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            roMix(b, offset, n, r);
+                            return null;
+                        }
+                    }));
+                }
+                roMix(b, 0, n, r);
+                for (ForkJoinTask<Void> task : tasks) {
+                    task.join();
+                }
+            } else {
+                for (int i = 0; i < p; i++) {
+                    roMix(b, i * blockLen, n, r);
+                }
+            }
+            return pbkdf2(password, b, length * 8);
+        } finally {
+            Arrays.fill(b, (byte) 0);
+        }
+    }
+
+    private static byte[] pbkdf2(byte[] password, byte[] salt, int keyLenBits) {
+        try {
+            return JCEPBKDF2.pbkdf2(DigestAlgorithm.SHA256, password, salt, 1, keyLenBits, false);
+        } catch (CloneNotSupportedException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+
+    /**
+     * Sequential memory-hard mixing of one block (in place).
+     */
+    private static void roMix(byte[] b, int offset, int n, int r) {
+        int blockInts = 32 * r;
+        int[] v = borrowScratch(blockInts * n);
+        int[] x = new int[blockInts];
+        int[] y = new int[blockInts];
+        int[] salsa = new int[16];
+        for (int i = 0; i < blockInts; i++) {
+            int o = offset + i * 4;
+            x[i] = (b[o] & 0xFF) | (b[o + 1] & 0xFF) << 8 | (b[o + 2] & 0xFF) << 16 | (b[o + 3] & 0xFF) << 24;
+        }
+        try {
+            for (int i = 0; i < n; i++) {
+                System.arraycopy(x, 0, v, i * blockInts, blockInts);
+                blockMix(x, y, salsa, r);
+            }
+            for (int i = 0; i < n; i++) {
+                int j = x[(2 * r - 1) * 16] & (n - 1);
+                int vOffset = j * blockInts;
+                for (int k = 0; k < blockInts; k++) {
+                    x[k] ^= v[vOffset + k];
+                }
+                blockMix(x, y, salsa, r);
+            }
+            for (int i = 0; i < blockInts; i++) {
+                int o = offset + i * 4;
+                b[o] = (byte) x[i];
+                b[o + 1] = (byte) (x[i] >>> 8);
+                b[o + 2] = (byte) (x[i] >>> 16);
+                b[o + 3] = (byte) (x[i] >>> 24);
+            }
+        } finally {
+            Arrays.fill(v, 0, blockInts * n, 0);
+            Arrays.fill(x, 0);
+            Arrays.fill(y, 0);
+        }
+    }
+
+    private static void blockMix(int[] b, int[] y, int[] x, int r) {
+        System.arraycopy(b, (2 * r - 1) * 16, x, 0, 16);
+        for (int i = 0; i < 2 * r; i++) {
+            for (int j = 0; j < 16; j++) {
+                x[j] ^= b[i * 16 + j];
+            }
+            salsa20_8(x);
+            // even blocks go to the first half of the output, odd ones to the second half
+            System.arraycopy(x, 0, y, ((i & 1) * r + (i >>> 1)) * 16, 16);
+        }
+        System.arraycopy(y, 0, b, 0, 32 * r);
+    }
+
+    private static void salsa20_8(int[] b) {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3], x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7];
+        int x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11], x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+        for (int i = 0; i < 8; i += 2) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        b[0] += x0;
+        b[1] += x1;
+        b[2] += x2;
+        b[3] += x3;
+        b[4] += x4;
+        b[5] += x5;
+        b[6] += x6;
+        b[7] += x7;
+        b[8] += x8;
+        b[9] += x9;
+        b[10] += x10;
+        b[11] += x11;
+        b[12] += x12;
+        b[13] += x13;
+        b[14] += x14;
+        b[15] += x15;
+    }
+
+    private static int[] borrowScratch(int size) {
+        SoftReference<int[]> ref = scratch.get();
+        int[] buf = ref != null ? ref.get() : null;
+        if (buf == null || buf.length < size) {
+            buf = new int[size];
+            scratch.set(new SoftReference<int[]>(buf));
+        }
+        return buf;
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.kryptotek.EncodedKey;
+import com.kloudtek.kryptotek.InvalidKeyEncodingException;
+import com.kloudtek.kryptotek.key.X25519KeyPair;
+import com.kloudtek.kryptotek.key.KeyType;
+import com.kloudtek.ktserializer.DeserializationStream;
+import com.kloudtek.ktserializer.InvalidSerializedDataException;
+import com.kloudtek.ktserializer.SerializationStream;
+import com.kloudtek.util.UnexpectedException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.security.*;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * X25519 key pair, serialized as the PKCS8 encoded private key followed by the X509 encoded public key.
+ */
+public class JCEX25519KeyPair extends JCEKeyPair<JCEX25519PrivateKey, JCEX25519PublicKey> implements X25519KeyPair {
+    public JCEX25519KeyPair() {
+    }
+
+    public JCEX25519KeyPair(JCECryptoEngine cryptoEngine, KeyPair keyPair) {
+        super(cryptoEngine, keyPair);
+        privateKey = new JCEX25519PrivateKey(cryptoEngine, keyPair.getPrivate());
+        publicKey = new JCEX25519PublicKey(cryptoEngine, keyPair.getPublic());
+    }
+
+    public JCEX25519KeyPair(JCECryptoEngine cryptoEngine, EncodedKey encodedKey) throws InvalidKeyException, InvalidKeyEncodingException {
+        super(cryptoEngine, encodedKey);
+    }
+
+    @Override
+    public KeyType getType() {
+        return KeyType.X25519_KEYPAIR;
+    }
+
+    @Override
+    public void serialize(@NotNull SerializationStream os) throws IOException {
+        os.writeData(keyPair.getPrivate().getEncoded());
+        os.writeData(keyPair.getPublic().getEncoded());
+    }
+
+    @Override
+    public void deserialize(@NotNull DeserializationStream is, int version) throws IOException, InvalidSerializedDataException {
+        try {
+            cryptoEngine = JCECryptoEngine.getCtx();
+            KeyFactory kf = KeyFactory.getInstance(JCECryptoEngine.X25519);
+            PrivateKey privateKey = kf.generatePrivate(new PKCS8EncodedKeySpec(is.readData()));
+            PublicKey publicKey = kf.generatePublic(new X509EncodedKeySpec(is.readData()));
+            keyPair = new KeyPair(publicKey, privateKey);
+            super.privateKey = new JCEX25519PrivateKey(cryptoEngine, privateKey);
+            super.publicKey = new JCEX25519PublicKey(cryptoEngine, publicKey);
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedException(e);
+        } catch (InvalidKeySpecException e) {
+            throw new InvalidSerializedDataException(e);
+        }
+    }
+
+    @Override
+    public String getJceCryptAlgorithm(boolean compatibilityMode) {
+        return null;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.jce;
+
+import com.kloudtek.kryptotek.EncodedKey;
+import com.kloudtek.kryptotek.InvalidKeyEncodingException;
+import com.kloudtek.kryptotek.key.X25519PrivateKey;
+import com.kloudtek.kryptotek.key.KeyType;
+import org.jetbrains.annotations.NotNull;
+
+import java.security.InvalidKeyException;
+import java.security.PrivateKey;
+
+/**
+ * X25519 private key (PKCS8 encoded), requires a JCE provider supporting XDH (java 11+).
+ */
+public class JCEX25519PrivateKey extends JCEPrivateKey implements X25519PrivateKey {
+    public JCEX25519PrivateKey() {
+    }
+
+    public JCEX25519PrivateKey(@NotNull JCECryptoEngine cryptoEngine, PrivateKey privateKey) {
+        super(cryptoEngine, privateKey);
+    }
+
+    public JCEX25519PrivateKey(@NotNull JCECryptoEngine cryptoEngine, EncodedKey encodedKey) throws InvalidKeyException, InvalidKeyEncodingException {
+        super(cryptoEngine, encodedKey);
+    }
+
+    @Override
+    public KeyType getType() {
+        return KeyType.X25519_PRIVATE;
+    }
+
+    @Override
+    public EncodedKey getEncoded() {
+        return new EncodedKey(key.getEncoded(), EncodedKey.Format.PKCS8);
+    }
+
+    @Override
+    public EncodedKey.Format getDefaultEncoding() {
+        return EncodedKey.Format.PKCS8;
+    }
+
+    @Override
+    public void setDefaultEncoded(byte[] encodedKey) throws InvalidKeyException {
+        readPKCS8Key(JCECryptoEngine.X25519, encodedKey);
+    }
+}
@@ -0,0 +1,11 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.key;
+
+/**
+ * 256 bit ChaCha20 key, used with the ChaCha20-Poly1305 authenticated cipher.
+ */
+public interface ChaCha20Key extends SymmetricKey, EncryptionKey, DecryptionKey {
+}
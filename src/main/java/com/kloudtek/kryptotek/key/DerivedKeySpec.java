@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.key;
+
+import com.kloudtek.kryptotek.DigestAlgorithm;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Specification of a symmetric key to be derived from a password, used to derive several keys from a single PBKDF2
+ * run (see {@link com.kloudtek.kryptotek.CryptoEngine#generatePBEKeys(DigestAlgorithm, char[], int, byte[], DerivedKeySpec...)}).
+ */
+public class DerivedKeySpec {
+    private final Class<? extends SymmetricKey> keyClass;
+    private final int lenBytes;
+
+    public DerivedKeySpec(@NotNull Class<? extends SymmetricKey> keyClass, int lenBytes) {
+        if (lenBytes <= 0) {
+            throw new IllegalArgumentException("Key length must be positive");
+        }
+        this.keyClass = keyClass;
+        this.lenBytes = lenBytes;
+    }
+
+    public static DerivedKeySpec aes(@NotNull AESKeyLen keyLen) {
+        return new DerivedKeySpec(AESKey.class, keyLen.getLenBits() / 8);
+    }
+
+    /**
+     * Specification for an HMAC key as long as the digest algorithm's recommended key length.
+     *
+     * @param digestAlgorithm HMAC digest algorithm
+     * @return Key specification
+     */
+    public static DerivedKeySpec hmac(@NotNull DigestAlgorithm digestAlgorithm) {
+        return hmac(digestAlgorithm, digestAlgorithm.getHmacKeyLen());
+    }
+
+    public static DerivedKeySpec hmac(@NotNull DigestAlgorithm digestAlgorithm, int lenBytes) {
+        switch (digestAlgorithm) {
+            case SHA1:
+                return new DerivedKeySpec(HMACSHA1Key.class, lenBytes);
+            case SHA256:
+                return new DerivedKeySpec(HMACSHA256Key.class, lenBytes);
+            case SHA512:
+                return new DerivedKeySpec(HMACSHA512Key.class, lenBytes);
+            default:
+                throw new IllegalArgumentException("Unsupported HMAC algorithm: " + digestAlgorithm.name());
+        }
+    }
+
+    public static DerivedKeySpec chaCha20() {
+        return new DerivedKeySpec(ChaCha20Key.class, 32);
+    }
+
+    public Class<? extends SymmetricKey> getKeyClass() {
+        return keyClass;
+    }
+
+    public int getLenBytes() {
+        return lenBytes;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.key;
+
+/**
+ * NIST elliptic curves supported for EC keys.
+ */
+public enum ECCurve {
+    P256("secp256r1", 256), P384("secp384r1", 384);
+    private final String name;
+    private final int lenBits;
+
+    ECCurve(String name, int lenBits) {
+        this.name = name;
+        this.lenBits = lenBits;
+    }
+
+    public static ECCurve getByBitLen(int bitLen) {
+        for (ECCurve curve : values()) {
+            if (curve.getLenBits() == bitLen) {
+                return curve;
+            }
+        }
+        throw new IllegalArgumentException("Invalid EC key size: " + bitLen);
+    }
+
+    /**
+     * Get the standard (SEC 2) name of the curve.
+     *
+     * @return Curve name
+     */
+    public String getName() {
+        return name;
+    }
+
+    public int getLenBits() {
+        return lenBits;
+    }
+}
@@ -0,0 +1,13 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.key;
+
+import com.kloudtek.kryptotek.Key;
+
+/**
+ * Elliptic curve key, used for ECDSA signatures and ECIES encryption.
+ */
+public interface ECKey extends Key {
+}
@@ -0,0 +1,13 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.key;
+
+public interface ECKeyPair extends ECKey, KeyPair, EncryptionKey, DecryptionKey, SignAndVerifyKey {
+    @Override
+    ECPublicKey getPublicKey();
+
+    @Override
+    ECPrivateKey getPrivateKey();
+}
@@ -0,0 +1,8 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.key;
+
+public interface ECPublicKey extends ECKey, PublicKey, SignatureVerificationKey, EncryptionKey {
+}
@@ -0,0 +1,13 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.key;
+
+import com.kloudtek.kryptotek.Key;
+
+/**
+ * Ed25519 (EdDSA over Curve25519) signature key.
+ */
+public interface Ed25519Key extends Key {
+}
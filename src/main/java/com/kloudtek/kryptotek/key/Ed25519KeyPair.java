@@ -0,0 +1,16 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.key;
+
+/**
+ * Ed25519 key pair.
+ */
+public interface Ed25519KeyPair extends Ed25519Key, KeyPair, SignAndVerifyKey {
+    @Override
+    Ed25519PublicKey getPublicKey();
+
+    @Override
+    Ed25519PrivateKey getPrivateKey();
+}
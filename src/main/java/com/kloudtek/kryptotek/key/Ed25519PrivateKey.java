@@ -0,0 +1,11 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.key;
+
+/**
+ * Ed25519 private key, used to create signatures.
+ */
+public interface Ed25519PrivateKey extends Ed25519Key, PrivateKey, SigningKey {
+}
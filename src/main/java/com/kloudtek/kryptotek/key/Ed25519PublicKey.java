@@ -0,0 +1,11 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.key;
+
+/**
+ * Ed25519 public key, used to verify signatures.
+ */
+public interface Ed25519PublicKey extends Ed25519Key, PublicKey, SignatureVerificationKey {
+}
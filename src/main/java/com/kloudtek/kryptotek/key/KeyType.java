@@ -9,5 +9,6 @@ package com.kloudtek.kryptotek.key;
  */
 public enum KeyType {
     AES, HMAC_SHA1, HMAC_SHA256, HMAC_SHA512, RSA_PUBLIC, RSA_PRIVATE, RSA_KEYPAIR,
-    CERTIFICATE, DH_PUBLIC, DH_PRIVATE, DH_KEYPAIR
+    CERTIFICATE, DH_PUBLIC, DH_PRIVATE, DH_KEYPAIR, CHACHA20, ED25519_PUBLIC, ED25519_PRIVATE, ED25519_KEYPAIR,
+    EC_PUBLIC, EC_PRIVATE, EC_KEYPAIR, X25519_PUBLIC, X25519_PRIVATE, X25519_KEYPAIR
 }
@@ -0,0 +1,16 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.key;
+
+/**
+ * X25519 (Diffie-Hellman over Curve25519) key pair.
+ */
+public interface X25519KeyPair extends KeyPair {
+    @Override
+    X25519PublicKey getPublicKey();
+
+    @Override
+    X25519PrivateKey getPrivateKey();
+}
@@ -0,0 +1,11 @@
+/*
+ * Copyright (c) 2016 Kloudtek Ltd
+ */
+
+package com.kloudtek.kryptotek.key;
+
+/**
+ * X25519 public key. It can be used anywhere a Diffie-Hellman public key is accepted for key agreement.
+ */
+public interface X25519PublicKey extends DHPublicKey {
+}
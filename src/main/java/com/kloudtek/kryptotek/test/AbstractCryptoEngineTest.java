@@ -6,9 +6,17 @@ package com.kloudtek.kryptotek.test;
 
 import com.kloudtek.kryptotek.*;
 import com.kloudtek.kryptotek.key.*;
+import com.kloudtek.util.Hex;
 
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.InvalidKeyException;
 import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 
 
@@ -134,6 +142,75 @@ public abstract class AbstractCryptoEngineTest {
         assertEquals(decrypted, DATA);
     }
 
+    public void testX25519Exchange(CryptoEngine cryptoEngine) throws Exception {
+        final X25519KeyPair kp1 = cryptoEngine.generateX25519KeyPair();
+        final X25519KeyPair kp2 = cryptoEngine.generateX25519KeyPair();
+        final AESKey aes1 = cryptoEngine.generateAESKey(AESKeyLen.AES128, kp1.getPrivateKey(), kp2.getPublicKey());
+        final AESKey aes2 = cryptoEngine.generateAESKey(AESKeyLen.AES128, kp2.getPrivateKey(), kp1.getPublicKey());
+        assertEquals(aes1.getEncoded(), aes2.getEncoded());
+        assertEquals(cryptoEngine.decrypt(aes2, cryptoEngine.encrypt(aes1, DATA, true), true), DATA);
+        final HMACKey hmac1 = cryptoEngine.generateHMACKey(DigestAlgorithm.SHA256, kp1.getPrivateKey(), kp2.getPublicKey());
+        final HMACKey hmac2 = cryptoEngine.generateHMACKey(DigestAlgorithm.SHA256, kp2.getPrivateKey(), kp1.getPublicKey());
+        cryptoEngine.verifySignature(hmac2, DATA, cryptoEngine.sign(hmac1, DATA));
+        X25519PublicKey publicKey = cryptoEngine.readKey(X25519PublicKey.class, kp2.getPublicKey().getEncoded().getEncodedKey());
+        X25519PrivateKey privateKey = cryptoEngine.readKey(X25519PrivateKey.class, kp1.getPrivateKey().getEncoded().getEncodedKey());
+        assertEquals(cryptoEngine.generateAESKey(AESKeyLen.AES128, privateKey, publicKey).getEncoded(), aes1.getEncoded());
+        verifySerializedKey(cryptoEngine, kp1);
+        verifySerializedKey(cryptoEngine, publicKey);
+        verifySerializedKey(cryptoEngine, privateKey);
+    }
+
+    public void testHkdf(CryptoEngine cryptoEngine) throws Exception {
+        // RFC 5869 test cases 1 and 3
+        byte[] ikm = Hex.decodeHex("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b");
+        byte[] prk = cryptoEngine.hkdfExtract(DigestAlgorithm.SHA256, Hex.decodeHex("000102030405060708090a0b0c"), ikm);
+        assertEquals(prk, Hex.decodeHex("077709362c2e32df0ddc3f0dc47bba6390b6c73bb50f9c3122ec844ad7c2b3e5"));
+        assertEquals(cryptoEngine.hkdfExpand(DigestAlgorithm.SHA256, prk, Hex.decodeHex("f0f1f2f3f4f5f6f7f8f9"), 42),
+                Hex.decodeHex("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865"));
+        assertEquals(cryptoEngine.hkdf(DigestAlgorithm.SHA256, null, ikm, null, 42),
+                Hex.decodeHex("8da4e775a563c18f715f802a063c5a31b8a11f5c5ee1879ec3454e5f3c738d2d9d201395faa4b61a96c8"));
+        final DHParameters dhParameters = cryptoEngine.generateDHParameters();
+        final DHKeyPair kp1 = cryptoEngine.generateDHKeyPair(dhParameters);
+        final DHKeyPair kp2 = cryptoEngine.generateDHKeyPair(dhParameters);
+        byte[] info = "test protocol v1".getBytes();
+        final AESKey aes1 = cryptoEngine.generateAESKey(AESKeyLen.AES256, kp1.getPrivateKey(), kp2.getPublicKey(), info);
+        final AESKey aes2 = cryptoEngine.generateAESKey(AESKeyLen.AES256, kp2.getPrivateKey(), kp1.getPublicKey(), info);
+        assertEquals(aes1.getEncoded(), aes2.getEncoded());
+        assertEquals(aes1.getEncoded().getEncodedKey().length, 32);
+        final AESKey aes3 = cryptoEngine.generateAESKey(AESKeyLen.AES256, kp1.getPrivateKey(), kp2.getPublicKey(), null);
+        assertEquals(Arrays.equals(aes1.getEncoded().getEncodedKey(), aes3.getEncoded().getEncodedKey()), false);
+        final AESKey legacy = cryptoEngine.generateAESKey(AESKeyLen.AES256, kp2.getPrivateKey(), kp1.getPublicKey());
+        assertEquals(Arrays.equals(aes3.getEncoded().getEncodedKey(), legacy.getEncoded().getEncodedKey()), false);
+        boolean hkdf = cryptoEngine.isHkdfKeyAgreementDerivation();
+        cryptoEngine.setHkdfKeyAgreementDerivation(true);
+        try {
+            assertEquals(cryptoEngine.generateAESKey(AESKeyLen.AES256, kp2.getPrivateKey(), kp1.getPublicKey()).getEncoded(), aes3.getEncoded());
+            assertEquals(cryptoEngine.generateHMACKey(DigestAlgorithm.SHA256, kp2.getPrivateKey(), kp1.getPublicKey()).getEncoded(),
+                    cryptoEngine.generateHMACKey(DigestAlgorithm.SHA256, kp1.getPrivateKey(), kp2.getPublicKey(), null).getEncoded());
+        } finally {
+            cryptoEngine.setHkdfKeyAgreementDerivation(hkdf);
+        }
+    }
+
+    public void testLegacyKeyAgreementDerivation(CryptoEngine cryptoEngine) throws Exception {
+        // keys and expected values generated using a version prior to HKDF support
+        DHPrivateKey privateKey = cryptoEngine.readKey(DHPrivateKey.class, Hex.decodeHex("3081e102010030819706092a864886f70d01030130818902" +
+                "4100e754e2880ccbf7a0ca372275ffb645a2da87f6788e00a4da8a4e664e170ab60a6690ecfc78747ee15ff489feb4c12a1c7f2ed6f9fa662462" +
+                "df632bc3c96633e3024024dc2ca5c7ba0a52e04148fd9496d18bdc46d82c8de8083c92301527f591cffabb89e004d235691c4ef144724e96f3cc83" +
+                "fb282836c340e58d9c56ecbc39c9bd020201ff044202406456f5e816066b50df8b11032d708dba27ff6fb54db09692ff659fa43316732780878769" +
+                "971c214fdd5baeda6ad6f778b1e5b79009b6758c7a6c3713edf06057"));
+        DHPublicKey publicKey = cryptoEngine.readKey(DHPublicKey.class, Hex.decodeHex("3081df30819706092a864886f70d010301308189024100" +
+                "e754e2880ccbf7a0ca372275ffb645a2da87f6788e00a4da8a4e664e170ab60a6690ecfc78747ee15ff489feb4c12a1c7f2ed6f9fa662462df632b" +
+                "c3c96633e3024024dc2ca5c7ba0a52e04148fd9496d18bdc46d82c8de8083c92301527f591cffabb89e004d235691c4ef144724e96f3cc83fb2828" +
+                "36c340e58d9c56ecbc39c9bd020201ff0343000240050a413cc55daf63326f994b84d0bcbf5542f00b30b884a27ab231e25e757227c1fedad648d5" +
+                "134a75a0f32d3537896fd1b811d517086ab0c7c1508137684187"));
+        assertEquals(cryptoEngine.generateAESKey(AESKeyLen.AES256, privateKey, publicKey).getEncoded().getEncodedKey(),
+                Hex.decodeHex("d4b06581b442dc2e2b1b7b0cc194f5b87dbe502ca9915b8f24a0886e4a72e83a"));
+        assertEquals(cryptoEngine.generateHMACKey(DigestAlgorithm.SHA256, privateKey, publicKey).getEncoded().getEncodedKey(),
+                Hex.decodeHex("ac6ade4cc929c5e25712f0ed9bb49ebe046c8bd0ef2fa679f3e7c1019483bd5ce8016d6371b2bc5b887ecee02391694c2d8e59" +
+                        "c55628849e6e974d708db0d627"));
+    }
+
     public void testGeneratePBEAESKey(CryptoEngine cryptoEngine) throws Exception {
         AESKey encryptKey = cryptoEngine.generatePBEAESKey(DigestAlgorithm.SHA256, PASSWORD, 50, SALT, AESKeyLen.AES192);
         byte[] encrypted = cryptoEngine.encrypt(encryptKey, DATA, true);
@@ -155,6 +232,439 @@ public abstract class AbstractCryptoEngineTest {
         }
     }
 
+    public void testArgon2id(CryptoEngine cryptoEngine) throws Exception {
+        // RFC 9106 test vector
+        byte[] password = new byte[32];
+        Arrays.fill(password, (byte) 1);
+        byte[] salt = new byte[16];
+        Arrays.fill(salt, (byte) 2);
+        byte[] secret = new byte[8];
+        Arrays.fill(secret, (byte) 3);
+        byte[] ad = new byte[12];
+        Arrays.fill(ad, (byte) 4);
+        assertEquals(cryptoEngine.argon2id(password, 3, 32, 4, salt, secret, ad, 32),
+                Hex.decodeHex("0d640df58d78766c08c037a34a8b53c9d01ef0452d75b65eb52520e96b01e659"));
+        // longer than a single BLAKE2b output, and enough memory for several address blocks per segment
+        salt = "SALTSALT".getBytes();
+        byte[] key = cryptoEngine.argon2id(PASSWORD, 2, 4096, 2, salt, 100);
+        assertEquals(key.length, 100);
+        assertEquals(cryptoEngine.argon2id(PASSWORD, 2, 4096, 2, salt, 100), key);
+        assertEquals(Arrays.equals(cryptoEngine.argon2id(PASSWORD, 2, 4096, 1, salt, 100), key), false);
+        AESKey aesKey = cryptoEngine.generateArgon2AESKey(PASSWORD, 2, 4096, 2, salt, AESKeyLen.AES256);
+        assertEquals(aesKey.getEncoded().getEncodedKey(), cryptoEngine.argon2id(PASSWORD, 2, 4096, 2, salt, 32));
+        assertEquals(cryptoEngine.decrypt(aesKey, cryptoEngine.encrypt(aesKey, DATA)), DATA);
+        HMACKey hmacKey = cryptoEngine.generateArgon2HMACKey(DigestAlgorithm.SHA256, PASSWORD, 2, 4096, 2, salt);
+        assertEquals(hmacKey.getEncoded().getEncodedKey().length, DigestAlgorithm.SHA256.getHmacKeyLen());
+    }
+
+    public void testScrypt(CryptoEngine cryptoEngine) throws Exception {
+        // RFC 7914 test vectors
+        assertEquals(cryptoEngine.scrypt(new byte[0], 16, 1, 1, new byte[0], 64),
+                Hex.decodeHex("77d6576238657b203b19ca42c18a0497f16b4844e3074ae8dfdffa3fede21442fcd0069ded0948f8326a753a0fc81f17e8d3e0fb2e0d3628cf35e20c38d18906"));
+        assertEquals(cryptoEngine.scrypt("password".toCharArray(), 1024, 8, 16, "NaCl".getBytes(), 64),
+                Hex.decodeHex("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b3731622eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640"));
+        AESKey aesKey = cryptoEngine.generateScryptAESKey(PASSWORD, 1024, 8, 1, SALT, AESKeyLen.AES128);
+        assertEquals(aesKey.getEncoded().getEncodedKey(), cryptoEngine.scrypt(PASSWORD, 1024, 8, 1, SALT, 16));
+        assertEquals(cryptoEngine.decrypt(aesKey, cryptoEngine.encrypt(aesKey, DATA)), DATA);
+        HMACKey hmacKey = cryptoEngine.generateScryptHMACKey(DigestAlgorithm.SHA512, PASSWORD, 1024, 8, 1, SALT);
+        assertEquals(hmacKey.getEncoded().getEncodedKey().length, DigestAlgorithm.SHA512.getHmacKeyLen());
+        try {
+            // r * p = 2^21, so 128 * r * p * 8 bits overflows an int
+            cryptoEngine.scrypt(PASSWORD, 16, 8, 1 << 18, SALT, 32);
+            fail("scrypt with an r * p too large for the intermediate key should have failed");
+        } catch (IllegalArgumentException e) {
+            // good
+        }
+    }
+
+    public void testGeneratePBEKeys(CryptoEngine cryptoEngine) throws Exception {
+        SymmetricKey[] keys = cryptoEngine.generatePBEKeys(DigestAlgorithm.SHA256, PASSWORD, 2000, SALT,
+                DerivedKeySpec.aes(AESKeyLen.AES256), DerivedKeySpec.hmac(DigestAlgorithm.SHA512), DerivedKeySpec.hmac(DigestAlgorithm.SHA1, 20));
+        assertEquals(keys.length, 3);
+        byte[] keyData = cryptoEngine.pbkdf2(DigestAlgorithm.SHA256, PASSWORD, 2000, SALT, (32 + 64 + 20) * 8);
+        assertEquals(keys[0].getEncoded().getEncodedKey(), Arrays.copyOfRange(keyData, 0, 32));
+        assertEquals(keys[1].getEncoded().getEncodedKey(), Arrays.copyOfRange(keyData, 32, 96));
+        assertEquals(keys[2].getEncoded().getEncodedKey(), Arrays.copyOfRange(keyData, 96, 116));
+        assertEquals(((HMACKey) keys[1]).getDigestAlgorithm(), DigestAlgorithm.SHA512);
+        AESKey aesKey = (AESKey) keys[0];
+        assertEquals(cryptoEngine.decrypt(aesKey, cryptoEngine.encrypt(aesKey, DATA)), DATA);
+        cryptoEngine.verifySignature((HMACKey) keys[2], DATA, cryptoEngine.sign((HMACKey) keys[2], DATA));
+    }
+
+    public void testPreparedAesEncryption(CryptoEngine cryptoEngine) throws Exception {
+        AESKey key = cryptoEngine.generateAESKey(AESKeyLen.AES128);
+        PreparedEncryptor encryptor = cryptoEngine.prepareEncryptor(key, true);
+        PreparedDecryptor decryptor = cryptoEngine.prepareDecryptor(key, true);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(cryptoEngine.decrypt(key, encryptor.encrypt(DATA), true), DATA);
+            assertEquals(decryptor.decrypt(cryptoEngine.encrypt(key, DATA_LONG, true)), DATA_LONG);
+        }
+        encryptor.destroy();
+        decryptor.destroy();
+    }
+
+    public void testPreparedRSAEncryption(CryptoEngine cryptoEngine) throws Exception {
+        RSAKeyPair keyPair = cryptoEngine.generateRSAKeyPair(1024);
+        PreparedEncryptor encryptor = cryptoEngine.prepareEncryptor(keyPair.getPublicKey(), true);
+        PreparedDecryptor decryptor = cryptoEngine.prepareDecryptor(keyPair.getPrivateKey(), true);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(decryptor.decrypt(encryptor.encrypt(DATA)), DATA);
+        }
+    }
+
+    public void testPreparedSigning(CryptoEngine cryptoEngine) throws Exception {
+        RSAKeyPair keyPair = cryptoEngine.generateRSAKeyPair(1024);
+        HMACKey hmacKey = cryptoEngine.generateHMACKey(DigestAlgorithm.SHA256);
+        PreparedSigner rsaSigner = cryptoEngine.prepareSigner(keyPair, DigestAlgorithm.SHA256);
+        PreparedVerifier rsaVerifier = cryptoEngine.prepareVerifier(keyPair.getPublicKey(), DigestAlgorithm.SHA256);
+        PreparedSigner hmacSigner = cryptoEngine.prepareSigner(hmacKey);
+        PreparedVerifier hmacVerifier = cryptoEngine.prepareVerifier(hmacKey);
+        for (int i = 0; i < 3; i++) {
+            byte[] rsaSignature = rsaSigner.sign(DATA);
+            rsaVerifier.verifySignature(DATA, rsaSignature);
+            cryptoEngine.verifySignature(keyPair, DigestAlgorithm.SHA256, DATA, rsaSignature);
+            byte[] hmacSignature = hmacSigner.sign(DATA);
+            assertEquals(hmacSignature, cryptoEngine.sign(hmacKey, DATA));
+            hmacVerifier.verifySignature(DATA, hmacSignature);
+        }
+        try {
+            hmacVerifier.verifySignature(DATA, "invalidsig".getBytes());
+            fail("signature verification should have failed");
+        } catch (SignatureException e) {
+            // good
+        }
+    }
+
+    public void testBufferEncryption(CryptoEngine cryptoEngine) throws Exception {
+        AESKey key = cryptoEngine.generateAESKey(AESKeyLen.AES128);
+        byte[] in = new byte[DATA_LONG.length + 10];
+        System.arraycopy(DATA_LONG, 0, in, 5, DATA_LONG.length);
+        byte[] encrypted = new byte[cryptoEngine.getEncryptedLength(key, DATA_LONG.length) + 3];
+        int encryptedLen = cryptoEngine.encrypt(key, in, 5, DATA_LONG.length, encrypted, 3);
+        assertEquals(encryptedLen, encrypted.length - 3);
+        byte[] decrypted = new byte[cryptoEngine.getMaxDecryptedLength(key, encryptedLen) + 7];
+        int decryptedLen = cryptoEngine.decrypt(key, encrypted, 3, encryptedLen, decrypted, 7);
+        assertEquals(decryptedLen, DATA_LONG.length);
+        assertEquals(Arrays.copyOfRange(decrypted, 7, 7 + decryptedLen), DATA_LONG);
+        assertEquals(cryptoEngine.decrypt(key, Arrays.copyOfRange(encrypted, 3, 3 + encryptedLen)), DATA_LONG);
+        PreparedEncryptor encryptor = cryptoEngine.prepareEncryptor(key);
+        PreparedDecryptor decryptor = cryptoEngine.prepareDecryptor(key);
+        encryptedLen = encryptor.encrypt(in, 5, DATA_LONG.length, encrypted, 0);
+        decryptedLen = decryptor.decrypt(encrypted, 0, encryptedLen, decrypted, 0);
+        assertEquals(Arrays.copyOf(decrypted, decryptedLen), DATA_LONG);
+        try {
+            cryptoEngine.encrypt(key, in, 5, DATA_LONG.length, new byte[10], 0);
+            fail("encryption into a buffer which is too small should have failed");
+        } catch (EncryptionException e) {
+            // good
+        }
+    }
+
+    public void testByteBufferAPI(CryptoEngine cryptoEngine) throws Exception {
+        AESKey aesKey = cryptoEngine.generateAESKey(AESKeyLen.AES128);
+        RSAKeyPair rsaKeyPair = cryptoEngine.generateRSAKeyPair(2048);
+        for (boolean direct : new boolean[]{false, true}) {
+            ByteBuffer in = allocate(direct, DATA_LONG.length);
+            in.put(DATA_LONG).flip();
+            ByteBuffer encrypted = allocate(direct, cryptoEngine.getEncryptedLength(aesKey, DATA_LONG.length));
+            assertEquals(cryptoEngine.encrypt(aesKey, in, encrypted), encrypted.capacity());
+            encrypted.flip();
+            ByteBuffer decrypted = allocate(direct, DATA_LONG.length + 16);
+            assertEquals(cryptoEngine.decrypt(aesKey, encrypted, decrypted), DATA_LONG.length);
+            decrypted.flip();
+            assertEquals(toBytes(decrypted), DATA_LONG);
+            in.rewind();
+            encrypted = allocate(direct, DATA_LONG.length + 1024);
+            cryptoEngine.encrypt(rsaKeyPair, SymmetricAlgorithm.AES, 128, in, encrypted);
+            encrypted.flip();
+            decrypted = allocate(direct, DATA_LONG.length + 16);
+            cryptoEngine.decrypt(rsaKeyPair, SymmetricAlgorithm.AES, 128, encrypted, decrypted);
+            decrypted.flip();
+            assertEquals(toBytes(decrypted), DATA_LONG);
+            encrypted.rewind();
+            assertEquals(cryptoEngine.decrypt(rsaKeyPair, SymmetricAlgorithm.AES, 128, toBytes(encrypted)), DATA_LONG);
+            in.rewind();
+            byte[] signature = cryptoEngine.sign(rsaKeyPair, in);
+            cryptoEngine.verifySignature(rsaKeyPair, DATA_LONG, signature);
+            in.rewind();
+            cryptoEngine.verifySignature(rsaKeyPair, in, signature);
+            in.rewind();
+            assertEquals(cryptoEngine.digest(in, DigestAlgorithm.SHA256), cryptoEngine.digest(DATA_LONG, DigestAlgorithm.SHA256));
+        }
+    }
+
+    public void testStreamEncryption(CryptoEngine cryptoEngine) throws Exception {
+        AESKey key = cryptoEngine.generateAESKey(AESKeyLen.AES128);
+        byte[] data = new byte[100000];
+        new Random().nextBytes(data);
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        OutputStream os = cryptoEngine.encryptingOutputStream(key, buf);
+        os.write(data, 0, 10);
+        os.write(data[10]);
+        os.write(data, 11, data.length - 11);
+        os.close();
+        byte[] encrypted = buf.toByteArray();
+        assertEquals(cryptoEngine.decrypt(key, encrypted), data);
+        assertEquals(readFully(cryptoEngine.decryptingInputStream(key, new ByteArrayInputStream(encrypted))), data);
+        InputStream is = cryptoEngine.decryptingInputStream(key, new ByteArrayInputStream(cryptoEngine.encrypt(key, DATA_LONG)));
+        assertEquals(is.read(), DATA_LONG[0] & 0xFF);
+        assertEquals(readFully(is), Arrays.copyOfRange(DATA_LONG, 1, DATA_LONG.length));
+        // corrupts the padding of the last block (payload is a multiple of the block size)
+        encrypted[encrypted.length - 17] ^= 1;
+        try {
+            readFully(cryptoEngine.decryptingInputStream(key, new ByteArrayInputStream(encrypted)));
+            fail("decrypting corrupted data should have failed");
+        } catch (IOException e) {
+            assertEquals(e.getCause().getClass(), DecryptionException.class);
+        }
+    }
+
+    public void testStreamEnvelopeEncryption(CryptoEngine cryptoEngine) throws Exception {
+        RSAKeyPair keyPair = cryptoEngine.generateRSAKeyPair(2048);
+        byte[] data = new byte[50000];
+        new Random().nextBytes(data);
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        OutputStream os = cryptoEngine.encryptingOutputStream(keyPair, SymmetricAlgorithm.AES, 128, buf);
+        os.write(data);
+        os.close();
+        byte[] encrypted = buf.toByteArray();
+        assertEquals(cryptoEngine.decrypt(keyPair, SymmetricAlgorithm.AES, 128, encrypted), data);
+        assertEquals(readFully(cryptoEngine.decryptingInputStream(keyPair, SymmetricAlgorithm.AES, new ByteArrayInputStream(encrypted))), data);
+        byte[] encryptedSmall = cryptoEngine.encrypt(keyPair, SymmetricAlgorithm.AES, 128, DATA);
+        assertEquals(readFully(cryptoEngine.decryptingInputStream(keyPair, SymmetricAlgorithm.AES, new ByteArrayInputStream(encryptedSmall))), DATA);
+        buf.reset();
+        WritableByteChannel channel = cryptoEngine.encryptingChannel(keyPair, SymmetricAlgorithm.AES, 128, Channels.newChannel(buf));
+        channel.write(ByteBuffer.wrap(data));
+        channel.close();
+        ReadableByteChannel readChannel = cryptoEngine.decryptingChannel(keyPair, SymmetricAlgorithm.AES, Channels.newChannel(new ByteArrayInputStream(buf.toByteArray())));
+        assertEquals(readFully(Channels.newInputStream(readChannel)), data);
+    }
+
+    public void testAesGcmEncryption(CryptoEngine cryptoEngine) throws Exception {
+        AESKey key = cryptoEngine.generateAESKey(AESKeyLen.AES128);
+        String alg = CryptoEngine.AES_GCM_NO_PADDING;
+        byte[] aad = "header".getBytes();
+        byte[] encrypted = cryptoEngine.encrypt(key, DATA_LONG, alg);
+        assertEquals(encrypted.length, 12 + DATA_LONG.length + 16);
+        assertEquals(cryptoEngine.getEncryptedLength(key, DATA_LONG.length, alg), encrypted.length);
+        assertEquals(cryptoEngine.decrypt(key, encrypted, alg), DATA_LONG);
+        encrypted = cryptoEngine.encrypt(key, DATA_LONG, aad, alg);
+        assertEquals(cryptoEngine.decrypt(key, encrypted, aad, alg), DATA_LONG);
+        try {
+            cryptoEngine.decrypt(key, encrypted, "other".getBytes(), alg);
+            fail("decryption with the wrong AAD should have failed");
+        } catch (DecryptionException e) {
+            // good
+        }
+        encrypted[20] ^= 1;
+        try {
+            cryptoEngine.decrypt(key, encrypted, aad, alg);
+            fail("decryption of tampered data should have failed");
+        } catch (DecryptionException e) {
+            // good
+        }
+        PreparedEncryptor encryptor = cryptoEngine.prepareEncryptor(key, alg);
+        PreparedDecryptor decryptor = cryptoEngine.prepareDecryptor(key, alg);
+        assertEquals(decryptor.decrypt(encryptor.encrypt(DATA)), DATA);
+        assertEquals(decryptor.decrypt(encryptor.encrypt(DATA_LONG)), DATA_LONG);
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        OutputStream os = cryptoEngine.encryptingOutputStream(key, buf, alg, aad);
+        os.write(DATA_LONG);
+        os.close();
+        assertEquals(readFully(cryptoEngine.decryptingInputStream(key, new ByteArrayInputStream(buf.toByteArray()), alg, aad)), DATA_LONG);
+        RSAKeyPair keyPair = cryptoEngine.generateRSAKeyPair(2048);
+        encrypted = cryptoEngine.encrypt(keyPair, SymmetricAlgorithm.AES_GCM, 128, DATA_LONG);
+        assertEquals(cryptoEngine.decrypt(keyPair, SymmetricAlgorithm.AES_GCM, 128, encrypted), DATA_LONG);
+        buf.reset();
+        os = cryptoEngine.encryptingOutputStream(keyPair, SymmetricAlgorithm.AES_GCM, 128, buf);
+        os.write(DATA_LONG);
+        os.close();
+        assertEquals(readFully(cryptoEngine.decryptingInputStream(keyPair, SymmetricAlgorithm.AES_GCM, new ByteArrayInputStream(buf.toByteArray()))), DATA_LONG);
+    }
+
+    public void testChaCha20Encryption(CryptoEngine cryptoEngine) throws Exception {
+        ChaCha20Key key = cryptoEngine.generateChaCha20Key();
+        byte[] aad = "header".getBytes();
+        byte[] encrypted = cryptoEngine.encrypt(key, DATA_LONG);
+        assertEquals(encrypted.length, 12 + DATA_LONG.length + 16);
+        assertEquals(cryptoEngine.decrypt(key, encrypted), DATA_LONG);
+        encrypted = cryptoEngine.encrypt(key, DATA, aad, CryptoEngine.CHACHA20_POLY1305);
+        assertEquals(cryptoEngine.decrypt(key, encrypted, aad, CryptoEngine.CHACHA20_POLY1305), DATA);
+        encrypted[15] ^= 1;
+        try {
+            cryptoEngine.decrypt(key, encrypted, aad, CryptoEngine.CHACHA20_POLY1305);
+            fail("decryption of tampered data should have failed");
+        } catch (DecryptionException e) {
+            // good
+        }
+        ChaCha20Key readKey = cryptoEngine.readKey(ChaCha20Key.class, key.getEncoded());
+        assertEquals(cryptoEngine.decrypt(readKey, cryptoEngine.encrypt(key, DATA)), DATA);
+        verifySerializedKey(cryptoEngine, key);
+        byte[] data = new byte[200000];
+        new Random().nextBytes(data);
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        OutputStream os = cryptoEngine.encryptingOutputStream(key, buf, CryptoEngine.CHACHA20_POLY1305, aad);
+        os.write(data);
+        os.close();
+        assertEquals(readFully(cryptoEngine.decryptingInputStream(key, new ByteArrayInputStream(buf.toByteArray()), CryptoEngine.CHACHA20_POLY1305, aad)), data);
+        RSAKeyPair keyPair = cryptoEngine.generateRSAKeyPair(2048);
+        encrypted = cryptoEngine.encrypt(keyPair, SymmetricAlgorithm.CHACHA20_POLY1305, 256, DATA_LONG);
+        assertEquals(cryptoEngine.decrypt(keyPair, SymmetricAlgorithm.CHACHA20_POLY1305, 256, encrypted), DATA_LONG);
+        SymmetricAlgorithm preferred = cryptoEngine.getPreferredSymmetricAlgorithm();
+        assertEquals(preferred == SymmetricAlgorithm.AES_GCM || preferred == SymmetricAlgorithm.CHACHA20_POLY1305, true);
+        assertEquals(cryptoEngine.isSupported(SymmetricAlgorithm.CHACHA20_POLY1305), true);
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        byte[] b = new byte[1000];
+        for (int i = is.read(b); i != -1; i = is.read(b)) {
+            buf.write(b, 0, i);
+        }
+        is.close();
+        return buf.toByteArray();
+    }
+
+    public void testEd25519Signing(CryptoEngine cryptoEngine) throws Exception {
+        Ed25519KeyPair keyPair = cryptoEngine.generateEd25519KeyPair();
+        byte[] signature = cryptoEngine.sign(keyPair, DATA);
+        assertEquals(signature.length, 64);
+        cryptoEngine.verifySignature(keyPair, DATA, signature);
+        cryptoEngine.verifySignature(keyPair.getPublicKey(), DATA_LONG, cryptoEngine.sign(keyPair.getPrivateKey(), DATA_LONG));
+        cryptoEngine.prepareVerifier(keyPair.getPublicKey()).verifySignature(DATA, cryptoEngine.prepareSigner(keyPair).sign(DATA));
+        try {
+            cryptoEngine.verifySignature(keyPair.getPublicKey(), DATA_LONG, signature);
+            fail("signature verification of different data should have failed");
+        } catch (SignatureException e) {
+            // good
+        }
+        Ed25519PublicKey publicKey = cryptoEngine.readKey(Ed25519PublicKey.class, keyPair.getPublicKey().getEncoded().getEncodedKey());
+        cryptoEngine.verifySignature(publicKey, DATA, signature);
+        Ed25519PrivateKey privateKey = cryptoEngine.readKey(Ed25519PrivateKey.class, keyPair.getPrivateKey().getEncoded().getEncodedKey());
+        cryptoEngine.verifySignature(publicKey, DATA, cryptoEngine.sign(privateKey, DATA));
+        verifySerializedKey(cryptoEngine, keyPair);
+        verifySerializedKey(cryptoEngine, keyPair.getPublicKey());
+        verifySerializedKey(cryptoEngine, keyPair.getPrivateKey());
+    }
+
+    public void testECKeys(CryptoEngine cryptoEngine) throws Exception {
+        for (ECCurve curve : ECCurve.values()) {
+            ECKeyPair keyPair = cryptoEngine.generateKey(ECKeyPair.class, curve.getLenBits());
+            byte[] signature = cryptoEngine.sign(keyPair, DATA);
+            cryptoEngine.verifySignature(keyPair.getPublicKey(), DATA, signature);
+            cryptoEngine.verifySignature(keyPair, DigestAlgorithm.SHA512, DATA, cryptoEngine.sign(keyPair.getPrivateKey(), DigestAlgorithm.SHA512, DATA));
+            try {
+                cryptoEngine.verifySignature(keyPair, DATA_LONG, signature);
+                fail("signature verification of different data should have failed");
+            } catch (SignatureException e) {
+                // good
+            }
+            assertEquals(cryptoEngine.getDefaultCipherAlgorithm(keyPair, false), CryptoEngine.ECIES);
+            assertEquals(cryptoEngine.decrypt(keyPair, cryptoEngine.encrypt(keyPair.getPublicKey(), DATA)), DATA);
+            assertEquals(cryptoEngine.planEnvelope(keyPair, DATA_LONG.length), EnvelopeMode.DIRECT);
+            byte[] encrypted = cryptoEngine.encrypt(keyPair.getPublicKey(), SymmetricAlgorithm.AES, 128, DATA_LONG);
+            assertEquals(cryptoEngine.decrypt(keyPair.getPrivateKey(), SymmetricAlgorithm.AES, 128, encrypted), DATA_LONG);
+            String symCipher = SymmetricAlgorithm.AES_GCM.getDefaultCipherAlg(false);
+            encrypted = cryptoEngine.encrypt(keyPair, SymmetricAlgorithm.AES_GCM, symCipher, 128, DATA_LONG, CryptoEngine.ECIES, EnvelopeMode.WRAPPED_KEY);
+            assertEquals(cryptoEngine.decrypt(keyPair, SymmetricAlgorithm.AES_GCM, symCipher, 128, encrypted, CryptoEngine.ECIES), DATA_LONG);
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            OutputStream os = cryptoEngine.encryptingOutputStream(keyPair, SymmetricAlgorithm.AES, 128, buf);
+            os.write(DATA_LONG);
+            os.close();
+            assertEquals(readFully(cryptoEngine.decryptingInputStream(keyPair, SymmetricAlgorithm.AES, new ByteArrayInputStream(buf.toByteArray()))), DATA_LONG);
+            encrypted[encrypted.length - 1] ^= 1;
+            try {
+                cryptoEngine.decrypt(keyPair, SymmetricAlgorithm.AES_GCM, symCipher, 128, encrypted, CryptoEngine.ECIES);
+                fail("decryption of tampered data should have failed");
+            } catch (DecryptionException e) {
+                // good
+            }
+            ECPublicKey publicKey = cryptoEngine.readKey(ECPublicKey.class, keyPair.getPublicKey().getEncoded().getEncodedKey());
+            ECPrivateKey privateKey = cryptoEngine.readKey(ECPrivateKey.class, keyPair.getPrivateKey().getEncoded().getEncodedKey());
+            cryptoEngine.verifySignature(publicKey, DATA, cryptoEngine.sign(privateKey, DATA));
+            assertEquals(cryptoEngine.decrypt(privateKey, cryptoEngine.encrypt(publicKey, DATA)), DATA);
+            verifySerializedKey(cryptoEngine, keyPair);
+            verifySerializedKey(cryptoEngine, publicKey);
+            verifySerializedKey(cryptoEngine, privateKey);
+        }
+    }
+
+    public void testBatchSignatureVerification(CryptoEngine cryptoEngine) throws Exception {
+        HMACKey hmacKey = cryptoEngine.generateHMACKey(DigestAlgorithm.SHA256);
+        RSAKeyPair rsaKeyPair = cryptoEngine.generateRSAKeyPair(2048);
+        ArrayList<SignatureVerification> verifications = new ArrayList<SignatureVerification>();
+        for (int i = 0; i < 100; i++) {
+            byte[] data = Arrays.copyOf(DATA_LONG, i + 1);
+            SignAndVerifyKey key = i % 10 == 0 ? rsaKeyPair : hmacKey;
+            byte[] signature = cryptoEngine.sign(key, data);
+            if (i % 7 == 0) {
+                signature[0] ^= 1;
+            }
+            verifications.add(new SignatureVerification(key, data, signature));
+        }
+        boolean[] results = cryptoEngine.verifySignatures(verifications);
+        assertEquals(results.length, 100);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(results[i], i % 7 != 0);
+        }
+        assertEquals(cryptoEngine.verifySignatures(verifications.subList(0, 2)).length, 2);
+    }
+
+    public void testEnvelopePlanning(CryptoEngine cryptoEngine) throws Exception {
+        RSAKeyPair keyPair = cryptoEngine.generateRSAKeyPair(2048);
+        assertEquals(cryptoEngine.getMaxDirectEncryptionLength(keyPair, CryptoEngine.RSA_ECB_PKCS1_PADDING), 245);
+        assertEquals(cryptoEngine.getMaxDirectEncryptionLength(keyPair, CryptoEngine.RSA_ECB_OAEPPADDING), 214);
+        assertEquals(cryptoEngine.getMaxDirectEncryptionLength(cryptoEngine.generateAESKey(AESKeyLen.AES128), CryptoEngine.AES_CBC_PKCS_5_PADDING), -1);
+        assertEquals(cryptoEngine.planEnvelope(keyPair, 214, CryptoEngine.RSA_ECB_OAEPPADDING), EnvelopeMode.DIRECT);
+        assertEquals(cryptoEngine.planEnvelope(keyPair, 215, CryptoEngine.RSA_ECB_OAEPPADDING), EnvelopeMode.WRAPPED_KEY);
+        String symCipher = SymmetricAlgorithm.AES.getDefaultCipherAlg(false);
+        for (int len : new int[]{214, 215}) {
+            byte[] data = Arrays.copyOf(DATA_LONG, len);
+            byte[] encrypted = cryptoEngine.encrypt(keyPair, SymmetricAlgorithm.AES, symCipher, 128, data, CryptoEngine.RSA_ECB_OAEPPADDING);
+            assertEquals(encrypted[0] == 0 && encrypted[1] == 0, len == 214);
+            assertEquals(cryptoEngine.decrypt(keyPair, SymmetricAlgorithm.AES, symCipher, 128, encrypted, CryptoEngine.RSA_ECB_OAEPPADDING), data);
+        }
+        byte[] encrypted = cryptoEngine.encrypt(keyPair, SymmetricAlgorithm.AES, symCipher, 128, DATA, CryptoEngine.RSA_ECB_OAEPPADDING, EnvelopeMode.WRAPPED_KEY);
+        assertEquals(encrypted[0] != 0 || encrypted[1] != 0, true);
+        assertEquals(cryptoEngine.decrypt(keyPair, SymmetricAlgorithm.AES, symCipher, 128, encrypted, CryptoEngine.RSA_ECB_OAEPPADDING), DATA);
+        try {
+            cryptoEngine.encrypt(keyPair, SymmetricAlgorithm.AES, symCipher, 128, DATA_LONG, CryptoEngine.RSA_ECB_OAEPPADDING, EnvelopeMode.DIRECT);
+            fail("forcing direct encryption of data larger than the key should have failed");
+        } catch (EncryptionException e) {
+            // good
+        }
+        // the buffer API must produce the same formats
+        ByteBuffer out = ByteBuffer.allocate(1024);
+        cryptoEngine.encrypt(keyPair, SymmetricAlgorithm.AES, symCipher, 128, ByteBuffer.wrap(DATA), out, CryptoEngine.RSA_ECB_OAEPPADDING, EnvelopeMode.WRAPPED_KEY);
+        out.flip();
+        encrypted = toBytes(out);
+        assertEquals(encrypted[0] != 0 || encrypted[1] != 0, true);
+        assertEquals(cryptoEngine.decrypt(keyPair, SymmetricAlgorithm.AES, symCipher, 128, encrypted, CryptoEngine.RSA_ECB_OAEPPADDING), DATA);
+        out.clear();
+        cryptoEngine.encrypt(keyPair, SymmetricAlgorithm.AES, symCipher, 128, ByteBuffer.wrap(DATA), out, CryptoEngine.RSA_ECB_OAEPPADDING, EnvelopeMode.DIRECT);
+        out.flip();
+        encrypted = toBytes(out);
+        assertEquals(encrypted[0] == 0 && encrypted[1] == 0, true);
+        assertEquals(cryptoEngine.decrypt(keyPair, SymmetricAlgorithm.AES, symCipher, 128, encrypted, CryptoEngine.RSA_ECB_OAEPPADDING), DATA);
+        try {
+            out.clear();
+            cryptoEngine.encrypt(keyPair, SymmetricAlgorithm.AES, symCipher, 128, ByteBuffer.wrap(DATA_LONG), out, CryptoEngine.RSA_ECB_OAEPPADDING, EnvelopeMode.DIRECT);
+            fail("forcing direct encryption of data larger than the key should have failed");
+        } catch (EncryptionException e) {
+            // good
+        }
+    }
+
+    private static ByteBuffer allocate(boolean direct, int size) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
     private void verifySerializedKey(CryptoEngine cryptoEngine, Key key) throws Exception {
         EncodedKey encodedKey = key.getEncoded(EncodedKey.Format.SERIALIZED);
         Key deserializedKey = cryptoEngine.readKey(Key.class, encodedKey);
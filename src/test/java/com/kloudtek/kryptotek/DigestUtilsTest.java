@@ -5,15 +5,19 @@
 package com.kloudtek.kryptotek;
 
 import com.kloudtek.util.ArrayUtils;
+import com.kloudtek.util.Hex;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.*;
 
-import static com.kloudtek.kryptotek.DigestAlgorithm.SHA1;
+import static com.kloudtek.kryptotek.DigestAlgorithm.*;
 import static org.testng.Assert.*;
 
 public class DigestUtilsTest {
@@ -47,6 +51,243 @@ public class DigestUtilsTest {
         assertEquals(DigestUtils.digest(new ByteArrayInputStream(value), SHA1), digest);
     }
 
+    @Test
+    public void testFileDigest() throws Exception {
+        byte[] data = new byte[3 * 1024 * 1024 + 123];
+        new Random().nextBytes(data);
+        File file = File.createTempFile("digest", ".bin");
+        try {
+            FileOutputStream os = new FileOutputStream(file);
+            try {
+                os.write(data);
+            } finally {
+                os.close();
+            }
+            byte[] expected = MessageDigest.getInstance("SHA-256").digest(data);
+            assertEquals(DigestUtils.sha256(file), expected);
+            assertEquals(DigestUtils.digest(file, SHA256, 1024 * 1024 + 7), expected);
+            assertEquals(DigestUtils.digest(file, SHA256, 4096), expected);
+            FileInputStream is = new FileInputStream(file);
+            try {
+                FileChannel channel = is.getChannel();
+                channel.position(1000);
+                assertEquals(DigestUtils.digest(channel, SHA1, 65536), MessageDigest.getInstance("SHA-1").digest(Arrays.copyOfRange(data, 1000, data.length)));
+                assertEquals(channel.position(), data.length);
+            } finally {
+                is.close();
+            }
+            new FileOutputStream(file).close();
+            assertEquals(DigestUtils.md5(file), MessageDigest.getInstance("MD5").digest(new byte[0]));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testDigestAll() throws Exception {
+        byte[] data = new byte[3 * 1024 * 1024 + 123];
+        new Random().nextBytes(data);
+        DigestAlgorithm[] algs = new DigestAlgorithm[]{MD5, SHA1, SHA256, SHA512};
+        File file = File.createTempFile("digest", ".bin");
+        try {
+            FileOutputStream os = new FileOutputStream(file);
+            try {
+                os.write(data);
+            } finally {
+                os.close();
+            }
+            List<Map<DigestAlgorithm, byte[]>> results = new ArrayList<Map<DigestAlgorithm, byte[]>>();
+            results.add(DigestUtils.digestAll(file, algs));
+            results.add(DigestUtils.digestAll(new ByteArrayInputStream(data), algs));
+            results.add(DigestUtils.digestAll(ByteBuffer.wrap(data), algs));
+            results.add(DigestUtils.digestAll(ByteBuffer.wrap(data, 0, 1000), algs));
+            results.add(DigestUtils.digestAll(new ByteArrayInputStream(data, 0, 1000), SHA256));
+            for (int i = 0; i < results.size(); i++) {
+                byte[] expectedData = i < 3 ? data : Arrays.copyOf(data, 1000);
+                for (Map.Entry<DigestAlgorithm, byte[]> entry : results.get(i).entrySet()) {
+                    assertEquals(entry.getValue(), DigestUtils.digest(expectedData, entry.getKey()));
+                }
+            }
+            assertEquals(results.get(0).keySet(), new HashSet<DigestAlgorithm>(Arrays.asList(algs)));
+            assertEquals(results.get(4).keySet(), Collections.singleton(SHA256));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTreeDigest() throws Exception {
+        // RFC 6962 empty tree and empty leaf hashes
+        assertEquals(DigestUtils.treeDigest(ByteBuffer.allocate(0), SHA256, 1024, true).getRoot(),
+                Hex.decodeHex("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855"));
+        assertEquals(DigestUtils.treeLeafDigest(ByteBuffer.allocate(0), SHA256),
+                Hex.decodeHex("6e340b9cffb37a989ca544e6bb780a2c78901d3fb33738768511a30617afa01d"));
+        byte[] data = new byte[6 * 4096 + 100];
+        new Random().nextBytes(data);
+        File file = File.createTempFile("digest", ".bin");
+        try {
+            FileOutputStream os = new FileOutputStream(file);
+            try {
+                os.write(data);
+            } finally {
+                os.close();
+            }
+            TreeDigest treeDigest = DigestUtils.treeDigest(file, SHA256, 4096, true);
+            assertEquals(treeDigest.getLeaves().size(), 7);
+            assertEquals(treeDigest.getRoot(), merkleTreeHash(data, 0, data.length, 4096));
+            assertEquals(treeDigest.getLeaves().get(6), DigestUtils.treeLeafDigest(ByteBuffer.wrap(data, 6 * 4096, 100), SHA256));
+            assertEquals(DigestUtils.treeRootDigest(treeDigest.getLeaves(), SHA256), treeDigest.getRoot());
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            TreeDigest bufferTreeDigest = DigestUtils.treeDigest(buffer, SHA256, 4096, false);
+            assertEquals(bufferTreeDigest.getRoot(), treeDigest.getRoot());
+            assertNull(bufferTreeDigest.getLeaves());
+            assertEquals(buffer.position(), 0);
+            assertEquals(DigestUtils.treeDigest(ByteBuffer.wrap(data, 0, 4096), SHA256, 4096, false).getRoot(),
+                    DigestUtils.treeLeafDigest(ByteBuffer.wrap(data, 0, 4096), SHA256));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Straightforward RFC 6962 Merkle tree hash, used as a reference.
+     */
+    private static byte[] merkleTreeHash(byte[] data, int from, int to, int leafSize) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        if (to - from <= leafSize) {
+            md.update((byte) 0);
+            md.update(data, from, to - from);
+            return md.digest();
+        }
+        int leaves = (to - from + leafSize - 1) / leafSize;
+        int split = 1;
+        while (split * 2 < leaves) {
+            split *= 2;
+        }
+        md.update((byte) 1);
+        md.update(merkleTreeHash(data, from, from + split * leafSize, leafSize));
+        md.update(merkleTreeHash(data, from + split * leafSize, to, leafSize));
+        return md.digest();
+    }
+
+    @Test
+    public void testResumableDigest() throws Exception {
+        Random random = new Random();
+        for (DigestAlgorithm alg : DigestAlgorithm.values()) {
+            MessageDigest reference = MessageDigest.getInstance(alg.getJceId());
+            for (int len : new int[]{0, 1, 55, 56, 63, 64, 65, 111, 112, 127, 128, 129, 1000, 70000}) {
+                byte[] data = new byte[len];
+                random.nextBytes(data);
+                byte[] expected = reference.digest(data);
+                assertEquals(DigestUtils.resumableDigest(alg).digest(data), expected, alg + " " + len);
+                // split the data at an arbitrary point and resume from an exported state
+                int split = len > 0 ? random.nextInt(len) : 0;
+                ResumableDigest digest = DigestUtils.resumableDigest(alg);
+                digest.update(data, 0, split);
+                ResumableDigest copy = digest.copy();
+                ResumableDigest restored = DigestUtils.resumableDigest(alg);
+                restored.update(data);
+                restored.restore(digest);
+                restored.update(data, split, len - split);
+                assertEquals(restored.digest(), expected);
+                ResumableDigest resumed = DigestUtils.resumeDigest(digest.exportState());
+                resumed.update(ByteBuffer.wrap(data, split, len - split));
+                assertEquals(resumed.digest(), expected);
+                ByteBuffer direct = ByteBuffer.allocateDirect(len - split);
+                direct.put(data, split, len - split).flip();
+                copy.update(direct);
+                assertEquals(copy.digest(), expected);
+                digest.update((byte) 1);
+                assertFalse(Arrays.equals(digest.digest(), expected));
+            }
+            assertEquals(DigestUtils.resumableDigest(alg).getAlgorithm(), reference.getAlgorithm());
+        }
+        try {
+            DigestUtils.resumableDigest(SHA256).restore(DigestUtils.resumableDigest(SHA512));
+            fail("State of another algorithm restored");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        CopyableDigest digest = (CopyableDigest) DigestUtils.digest(SHA256);
+        digest.update(new byte[]{1, 2, 3});
+        Digest copy = digest.copy();
+        assertEquals(copy.digest(), digest.digest());
+        try {
+            DigestUtils.resumeDigest(new byte[]{1, 2, 3});
+            fail("Invalid state accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        byte[] state = DigestUtils.resumableDigest(SHA256).exportState();
+        assertEquals(new String(state, 3, 6, "UTF-8"), "SHA256");
+        state[8] = 'X';
+        try {
+            DigestUtils.resumeDigest(state);
+            fail("Unknown algorithm accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDigestStreamsAndChannels() throws Exception {
+        byte[] data = new byte[100000];
+        new Random().nextBytes(data);
+        byte[] expected = DigestUtils.sha256(data);
+        DigestInputStream is = new DigestInputStream(new ByteArrayInputStream(data), DigestUtils.digest(SHA256));
+        assertEquals(is.read(), data[0] & 0xFF);
+        assertEquals(is.skip(999), 999);
+        assertEquals(is.skip(-1), 0);
+        byte[] buf = new byte[data.length];
+        int len = 0;
+        for (int i = is.read(buf, 0, 4096); i != -1; i = is.read(buf, 0, 4096)) {
+            len += i;
+        }
+        assertEquals(len, data.length - 1000);
+        assertEquals(is.getDigest().digest(), expected);
+        // read through a digesting channel while transferring to a file
+        File file = File.createTempFile("digest", ".bin");
+        try {
+            DigestReadableByteChannel in = new DigestReadableByteChannel(Channels.newChannel(new ByteArrayInputStream(data)), DigestUtils.digest(SHA256));
+            FileOutputStream os = new FileOutputStream(file);
+            try {
+                assertEquals(os.getChannel().transferFrom(in, 0, data.length), data.length);
+            } finally {
+                os.close();
+            }
+            assertEquals(in.getDigest().digest(), expected);
+            assertEquals(DigestUtils.sha256(file), expected);
+            // write through a digesting channel
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DigestWritableByteChannel out = new DigestWritableByteChannel(Channels.newChannel(buffer), DigestUtils.digest(SHA256));
+            FileInputStream fis = new FileInputStream(file);
+            try {
+                FileChannel channel = fis.getChannel();
+                long position = 0;
+                while (position < data.length) {
+                    position += channel.transferTo(position, data.length - position, out);
+                }
+            } finally {
+                fis.close();
+            }
+            assertEquals(buffer.toByteArray(), data);
+            assertEquals(out.getDigest().digest(), expected);
+            // copy and digest through mapped windows
+            buffer.reset();
+            fis = new FileInputStream(file);
+            try {
+                Digest digest = DigestUtils.digest(SHA256);
+                assertEquals(DigestUtils.transfer(fis.getChannel(), Channels.newChannel(buffer), digest, 4096), data.length);
+                assertEquals(digest.digest(), expected);
+            } finally {
+                fis.close();
+            }
+            assertEquals(buffer.toByteArray(), data);
+        } finally {
+            file.delete();
+        }
+    }
+
     @Test
     public void testSaltedDigest(){
         byte[] data = ArrayUtils.toBytes("Password".toCharArray());
@@ -5,10 +5,23 @@
 package com.kloudtek.kryptotek;
 
 import com.kloudtek.kryptotek.jce.JCECryptoEngine;
+import com.kloudtek.kryptotek.jce.JCEDerivedKeyCache;
+import com.kloudtek.kryptotek.jce.JCEPrimitivePool;
+import com.kloudtek.kryptotek.key.AESKey;
+import com.kloudtek.kryptotek.key.AESKeyLen;
+import com.kloudtek.kryptotek.key.HMACKey;
 import com.kloudtek.kryptotek.test.AbstractCryptoEngineTest;
+import com.kloudtek.util.Hex;
 import org.testng.Assert;
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 
+import javax.crypto.Mac;
+import java.io.*;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.Random;
+
 
 public class JCECryptoEngineTest extends AbstractCryptoEngineTest {
     private JCECryptoEngine jceCryptoEngine = new JCECryptoEngine();
@@ -108,6 +121,337 @@ public class JCECryptoEngineTest extends AbstractCryptoEngineTest {
         super.testGeneratePBEHMACKey(jceCryptoEngine);
     }
 
+    @Test
+    public void testPreparedAesEncryption() throws Exception {
+        super.testPreparedAesEncryption(jceCryptoEngine);
+    }
+
+    @Test
+    public void testPreparedRSAEncryption() throws Exception {
+        super.testPreparedRSAEncryption(jceCryptoEngine);
+    }
+
+    @Test
+    public void testPreparedSigning() throws Exception {
+        super.testPreparedSigning(jceCryptoEngine);
+    }
+
+    @Test
+    public void testBufferEncryption() throws Exception {
+        super.testBufferEncryption(jceCryptoEngine);
+    }
+
+    @Test
+    public void testByteBufferAPI() throws Exception {
+        super.testByteBufferAPI(jceCryptoEngine);
+    }
+
+    @Test
+    public void testStreamEncryption() throws Exception {
+        super.testStreamEncryption(jceCryptoEngine);
+    }
+
+    @Test
+    public void testStreamEnvelopeEncryption() throws Exception {
+        super.testStreamEnvelopeEncryption(jceCryptoEngine);
+    }
+
+    @Test
+    public void testEnvelopePlanning() throws Exception {
+        super.testEnvelopePlanning(jceCryptoEngine);
+    }
+
+    @Test
+    public void testAesGcmEncryption() throws Exception {
+        super.testAesGcmEncryption(jceCryptoEngine);
+    }
+
+    @Test
+    public void testChaCha20Encryption() throws Exception {
+        if (!jceCryptoEngine.isSupported(SymmetricAlgorithm.CHACHA20_POLY1305)) {
+            throw new SkipException("ChaCha20-Poly1305 not supported by this JVM");
+        }
+        super.testChaCha20Encryption(jceCryptoEngine);
+    }
+
+    @Test
+    public void testEd25519Signing() throws Exception {
+        if (Security.getAlgorithms("Signature").contains("ED25519")) {
+            super.testEd25519Signing(jceCryptoEngine);
+        } else {
+            throw new SkipException("Ed25519 not supported by this JVM");
+        }
+    }
+
+    @Test
+    public void testArgon2id() throws Exception {
+        super.testArgon2id(jceCryptoEngine);
+        JCECryptoEngine engine = new JCECryptoEngine();
+        engine.setParallelThreshold(-1);
+        Assert.assertEquals(engine.argon2id("password".toCharArray(), 2, 1024, 4, "somesalt".getBytes(), 32),
+                jceCryptoEngine.argon2id("password".toCharArray(), 2, 1024, 4, "somesalt".getBytes(), 32));
+        engine.releaseArgon2Memory();
+    }
+
+    @Test
+    public void testScrypt() throws Exception {
+        super.testScrypt(jceCryptoEngine);
+        JCECryptoEngine engine = new JCECryptoEngine();
+        engine.setParallelThreshold(-1);
+        Assert.assertEquals(engine.scrypt("password".toCharArray(), 1024, 8, 4, "salt".getBytes(), 32),
+                jceCryptoEngine.scrypt("password".toCharArray(), 1024, 8, 4, "salt".getBytes(), 32));
+    }
+
+    @Test
+    public void testGeneratePBEKeys() throws Exception {
+        super.testGeneratePBEKeys(jceCryptoEngine);
+    }
+
+    @Test
+    public void testHkdf() throws Exception {
+        super.testHkdf(new JCECryptoEngine());
+    }
+
+    @Test
+    public void testLegacyKeyAgreementDerivation() throws Exception {
+        super.testLegacyKeyAgreementDerivation(jceCryptoEngine);
+    }
+
+    @Test
+    public void testX25519Exchange() throws Exception {
+        if (Security.getAlgorithms("KeyAgreement").contains("X25519")) {
+            super.testX25519Exchange(jceCryptoEngine);
+        } else {
+            throw new SkipException("X25519 not supported by this JVM");
+        }
+    }
+
+    @Test
+    public void testECKeys() throws Exception {
+        super.testECKeys(jceCryptoEngine);
+    }
+
+    @Test
+    public void testBatchSignatureVerification() throws Exception {
+        super.testBatchSignatureVerification(jceCryptoEngine);
+    }
+
+    @Test
+    public void testPrimitivePooling() throws Exception {
+        JCECryptoEngine engine = new JCECryptoEngine();
+        JCEPrimitivePool pool = engine.getPrimitivePool();
+        testAesEncryption(engine);
+        testHmacSigning(engine);
+        testAesEncryption(engine);
+        testHmacSigning(engine);
+        Assert.assertTrue(pool.getHits() > 0);
+        Assert.assertEquals(engine.digest(DATA, DigestAlgorithm.SHA256), engine.digest(DATA, DigestAlgorithm.SHA256));
+        // pooled instances must not keep the last caller's key
+        HMACKey hmacKey = engine.generateHMACKey(DigestAlgorithm.SHA256);
+        byte[] signature = engine.sign(hmacKey, DATA);
+        long hits = pool.getHits();
+        Mac mac = pool.borrowMac("HmacSHA256");
+        Assert.assertEquals(pool.getHits(), hits + 1);
+        Assert.assertNotEquals(mac.doFinal(DATA), signature);
+        pool.releaseMac("HmacSHA256", mac);
+        pool.setEnabled(false);
+        pool.resetStatistics();
+        testAesEncryption(engine);
+        testHmacSigning(engine);
+        Assert.assertEquals(pool.getHits(), 0);
+        Assert.assertEquals(pool.getMisses(), 0);
+    }
+
+    @Test
+    public void testParallelCtrEncryption() throws Exception {
+        JCECryptoEngine engine = new JCECryptoEngine();
+        AESKey key = engine.generateAESKey(AESKeyLen.AES256);
+        byte[] data = new byte[100003];
+        new Random().nextBytes(data);
+        engine.setParallelThreshold(1024);
+        engine.setParallelSegmentSize(4096);
+        byte[] encrypted = engine.encrypt(key, data, CryptoEngine.AES_CTR_NO_PADDING);
+        Assert.assertEquals(encrypted.length, 16 + data.length);
+        byte[] buf = new byte[data.length + 20];
+        Assert.assertEquals(engine.encrypt(key, data, 0, data.length, buf, 4, CryptoEngine.AES_CTR_NO_PADDING), 16 + data.length);
+        engine.setParallelThreshold(-1);
+        Assert.assertEquals(engine.decrypt(key, encrypted, CryptoEngine.AES_CTR_NO_PADDING), data);
+        Assert.assertEquals(engine.decrypt(key, Arrays.copyOfRange(buf, 4, 20 + data.length), CryptoEngine.AES_CTR_NO_PADDING), data);
+        byte[] serialEncrypted = engine.encrypt(key, data, CryptoEngine.AES_CTR_NO_PADDING);
+        engine.setParallelThreshold(1024);
+        Assert.assertEquals(engine.decrypt(key, serialEncrypted, CryptoEngine.AES_CTR_NO_PADDING), data);
+        byte[] decrypted = new byte[data.length];
+        Assert.assertEquals(engine.decrypt(key, serialEncrypted, 0, serialEncrypted.length, decrypted, 0, CryptoEngine.AES_CTR_NO_PADDING), data.length);
+        Assert.assertEquals(decrypted, data);
+        byte[] inPlace = Arrays.copyOf(data, 16 + data.length);
+        Assert.assertEquals(engine.encrypt(key, inPlace, 0, data.length, inPlace, 0, CryptoEngine.AES_CTR_NO_PADDING), 16 + data.length);
+        Assert.assertEquals(engine.decrypt(key, inPlace, CryptoEngine.AES_CTR_NO_PADDING), data);
+        Assert.assertEquals(engine.decrypt(key, inPlace, 0, inPlace.length, inPlace, 0, CryptoEngine.AES_CTR_NO_PADDING), data.length);
+        Assert.assertEquals(Arrays.copyOf(inPlace, data.length), data);
+    }
+
+    @Test
+    public void testParallelCbcDecryption() throws Exception {
+        JCECryptoEngine engine = new JCECryptoEngine();
+        AESKey key = engine.generateAESKey(AESKeyLen.AES128);
+        for (int len : new int[]{100000, 100003, 4096 * 3}) {
+            byte[] data = new byte[len];
+            new Random().nextBytes(data);
+            byte[] encrypted = engine.encrypt(key, data, CryptoEngine.AES_CBC_PKCS_5_PADDING);
+            engine.setParallelThreshold(1024);
+            engine.setParallelSegmentSize(4096);
+            Assert.assertEquals(engine.decrypt(key, encrypted, CryptoEngine.AES_CBC_PKCS_5_PADDING), data);
+            byte[] decrypted = new byte[encrypted.length + 3];
+            Assert.assertEquals(engine.decrypt(key, encrypted, 0, encrypted.length, decrypted, 3, CryptoEngine.AES_CBC_PKCS_5_PADDING), len);
+            Assert.assertEquals(Arrays.copyOfRange(decrypted, 3, 3 + len), data);
+            encrypted[encrypted.length - 17] ^= 1;
+            try {
+                engine.decrypt(key, encrypted, CryptoEngine.AES_CBC_PKCS_5_PADDING);
+                if (len % 16 == 0) {
+                    Assert.fail("decryption with invalid padding should have failed");
+                }
+            } catch (DecryptionException e) {
+                // good
+            }
+            engine.setParallelThreshold(-1);
+        }
+    }
+
+    @Test(timeOut = 20000)
+    public void testLargeGcmStreamDecryption() throws Exception {
+        AESKey key = jceCryptoEngine.generateAESKey(AESKeyLen.AES128);
+        byte[] data = new byte[32 * 1024 * 1024];
+        new Random().nextBytes(data);
+        byte[] encrypted = gcmStreamEncrypt(key, data);
+        // nonce prefix, then 512 segments with their tags
+        int segmentLen = 64 * 1024 + 16;
+        Assert.assertEquals(encrypted.length, 8 + 512 * segmentLen);
+        Assert.assertEquals(gcmStreamDecrypt(key, encrypted), data);
+        // data is released as soon as its segment is verified, so reading the first one doesn't need the rest
+        InputStream partial = new SequenceInputStream(new ByteArrayInputStream(encrypted, 0, 8 + segmentLen + 1), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Not available");
+            }
+        });
+        byte[] first = new byte[64 * 1024];
+        InputStream is = jceCryptoEngine.decryptingInputStream(key, partial, CryptoEngine.AES_GCM_NO_PADDING);
+        Assert.assertEquals(is.read(first), first.length);
+        Assert.assertEquals(first, Arrays.copyOf(data, first.length));
+        // truncated at a segment boundary
+        try {
+            gcmStreamDecrypt(key, Arrays.copyOf(encrypted, 8 + 2 * segmentLen));
+            Assert.fail("decryption of truncated data should have failed");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getCause() instanceof DecryptionException);
+        }
+        // swapped segments
+        byte[] swapped = encrypted.clone();
+        System.arraycopy(encrypted, 8, swapped, 8 + segmentLen, segmentLen);
+        System.arraycopy(encrypted, 8 + segmentLen, swapped, 8, segmentLen);
+        try {
+            gcmStreamDecrypt(key, swapped);
+            Assert.fail("decryption of reordered data should have failed");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getCause() instanceof DecryptionException);
+        }
+        encrypted[encrypted.length - 1] ^= 1;
+        try {
+            gcmStreamDecrypt(key, encrypted);
+            Assert.fail("decryption of tampered data should have failed");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getCause() instanceof DecryptionException);
+        }
+        Assert.assertEquals(gcmStreamDecrypt(key, gcmStreamEncrypt(key, new byte[0])), new byte[0]);
+        Assert.assertEquals(gcmStreamDecrypt(key, gcmStreamEncrypt(key, DATA)), DATA);
+    }
+
+    private byte[] gcmStreamEncrypt(AESKey key, byte[] data) throws Exception {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(data.length + data.length / 4096 + 64);
+        OutputStream os = jceCryptoEngine.encryptingOutputStream(key, buf, CryptoEngine.AES_GCM_NO_PADDING);
+        os.write(data);
+        os.close();
+        return buf.toByteArray();
+    }
+
+    private byte[] gcmStreamDecrypt(AESKey key, byte[] encrypted) throws Exception {
+        InputStream is = jceCryptoEngine.decryptingInputStream(key, new ByteArrayInputStream(encrypted), CryptoEngine.AES_GCM_NO_PADDING);
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(encrypted.length);
+        byte[] chunk = new byte[8192];
+        for (int read = is.read(chunk); read >= 0; read = is.read(chunk)) {
+            buf.write(chunk, 0, read);
+        }
+        is.close();
+        return buf.toByteArray();
+    }
+
+    @Test
+    public void testDerivedKeyCache() throws Exception {
+        JCECryptoEngine engine = new JCECryptoEngine();
+        JCEDerivedKeyCache cache = new JCEDerivedKeyCache(2, 0);
+        engine.setDerivedKeyCache(cache);
+        char[] password = "password".toCharArray();
+        byte[] salt = "salt".getBytes();
+        byte[] expected = jceCryptoEngine.pbkdf2(DigestAlgorithm.SHA256, password, 1000, salt, 256);
+        byte[] key = engine.pbkdf2(DigestAlgorithm.SHA256, password, 1000, salt, 256);
+        Assert.assertEquals(key, expected);
+        Arrays.fill(key, (byte) 0);
+        Assert.assertEquals(engine.pbkdf2(DigestAlgorithm.SHA256, password, 1000, salt, 256), expected);
+        Assert.assertEquals(engine.generatePBEAESKey(DigestAlgorithm.SHA256, password, 1000, salt, AESKeyLen.AES256).getEncoded().getEncodedKey(), expected);
+        Assert.assertEquals(cache.getHits(), 2);
+        Assert.assertEquals(cache.getMisses(), 1);
+        // different parameters aren't mixed up
+        Assert.assertEquals(engine.pbkdf2(DigestAlgorithm.SHA256, password, 1001, salt, 256),
+                jceCryptoEngine.pbkdf2(DigestAlgorithm.SHA256, password, 1001, salt, 256));
+        Assert.assertEquals(engine.pbkdf2(DigestAlgorithm.SHA256, "passwore".toCharArray(), 1000, salt, 256),
+                jceCryptoEngine.pbkdf2(DigestAlgorithm.SHA256, "passwore".toCharArray(), 1000, salt, 256));
+        Assert.assertEquals(cache.getMisses(), 3);
+        Assert.assertEquals(cache.size(), 2);
+        Assert.assertEquals(cache.getEvictions(), 1);
+        Assert.assertEquals(cache.getHitRate(), 0.4, 0.0001);
+        cache.clear();
+        Assert.assertEquals(cache.size(), 0);
+        // expiry
+        cache = new JCEDerivedKeyCache(10, 50);
+        engine.setDerivedKeyCache(cache);
+        engine.pbkdf2(DigestAlgorithm.SHA1, password, 10, salt, 160);
+        engine.pbkdf2(DigestAlgorithm.SHA1, password, 10, salt, 160);
+        Assert.assertEquals(cache.getHits(), 1);
+        Thread.sleep(100);
+        engine.pbkdf2(DigestAlgorithm.SHA1, password, 10, salt, 160);
+        Assert.assertEquals(cache.getHits(), 1);
+        Assert.assertEquals(cache.getMisses(), 2);
+    }
+
+    @Test
+    public void testOptimizedPbkdf2() throws Exception {
+        JCECryptoEngine engine = new JCECryptoEngine();
+        Assert.assertTrue(engine.isOptimizedPbkdf2());
+        // RFC 6070 test vector
+        Assert.assertEquals(engine.pbkdf2(DigestAlgorithm.SHA1, "password".toCharArray(), 4096, "salt".getBytes(), 160),
+                Hex.decodeHex("4b007901b765489abead49d926f721d065a429c1"));
+        JCECryptoEngine jdkEngine = new JCECryptoEngine();
+        jdkEngine.setOptimizedPbkdf2(false);
+        char[] longPassword = new char[200];
+        Arrays.fill(longPassword, '\u00e9');
+        for (DigestAlgorithm digestAlgorithm : new DigestAlgorithm[]{DigestAlgorithm.SHA1, DigestAlgorithm.SHA256, DigestAlgorithm.SHA512}) {
+            for (int keyLen : new int[]{32, 128, 256, 1000}) {
+                for (char[] password : new char[][]{"p\u00e2ssword".toCharArray(), new char[0], longPassword}) {
+                    Assert.assertEquals(engine.pbkdf2(digestAlgorithm, password, 100, "salt".getBytes(), keyLen),
+                            jdkEngine.pbkdf2(digestAlgorithm, password, 100, "salt".getBytes(), keyLen));
+                }
+            }
+        }
+        engine.setParallelThreshold(-1);
+        Assert.assertEquals(engine.pbkdf2(DigestAlgorithm.SHA1, "password".toCharArray(), 2000, "salt".getBytes(), 1024),
+                jdkEngine.pbkdf2(DigestAlgorithm.SHA1, "password".toCharArray(), 2000, "salt".getBytes(), 1024));
+        engine.setParallelThreshold(JCECryptoEngine.DEFAULT_PARALLEL_THRESHOLD);
+        Assert.assertEquals(engine.pbkdf2(DigestAlgorithm.SHA1, "password".toCharArray(), 2000, "salt".getBytes(), 1024),
+                jdkEngine.pbkdf2(DigestAlgorithm.SHA1, "password".toCharArray(), 2000, "salt".getBytes(), 1024));
+        Assert.assertEquals(engine.generatePBEHMACKey(DigestAlgorithm.SHA256, DigestAlgorithm.SHA256, "pw".toCharArray(), 10, "salt".getBytes()).getEncoded(),
+                jdkEngine.generatePBEHMACKey(DigestAlgorithm.SHA256, DigestAlgorithm.SHA256, "pw".toCharArray(), 10, "salt".getBytes()).getEncoded());
+    }
+
     @Override
     protected void assertEquals(byte[] actual, byte[] expected) {
         Assert.assertEquals(actual, expected);